@@ -2,38 +2,81 @@ package it.unicalrent.controller;
 
 import it.unicalrent.entity.Prenotazione;
 import it.unicalrent.exception.BookingConflictException;
+import it.unicalrent.exception.CodaPienaException;
+import it.unicalrent.service.CodaPrenotazioniAsincrone;
+import it.unicalrent.service.ListaAttesaService;
 import it.unicalrent.service.PrenotazioneService;
 import it.unicalrent.service.PrenotazioneSchedulerService;
+import it.unicalrent.service.RegistroOpzioni;
+import it.unicalrent.service.RiconciliazioneContatoriService;
+import it.unicalrent.service.ScrittoreUnicoPrenotazioni;
 import jakarta.validation.constraints.NotBlank;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 
+import java.net.URI;
 import java.security.Principal;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import it.unicalrent.dto.EsitoPrenotazioneDTO;
+import it.unicalrent.dto.EsitoRicalcoloDTO;
+import it.unicalrent.dto.EsitoScadenzeDTO;
+import it.unicalrent.dto.EsitoSerieDTO;
+import it.unicalrent.dto.OpzionePrenotazioneDTO;
 import it.unicalrent.dto.PrenotazioneDTO;
+import it.unicalrent.dto.RichiestaAttesaDTO;
+import it.unicalrent.dto.RichiestaPrenotazioneDTO;
+import it.unicalrent.dto.RichiestaSerieDTO;
+import it.unicalrent.dto.TicketPrenotazioneDTO;
 import it.unicalrent.mapper.PrenotazioneMapper;
+import it.unicalrent.mapper.VeicoloMapper;
 
 @RestController
 @RequestMapping("/api/prenotazioni")
 public class PrenotazioneController {
 
+    private static final Logger logger = LoggerFactory.getLogger(PrenotazioneController.class);
+
+    private static final int MAX_RICHIESTE_LOTTO = 50;
+
     private final PrenotazioneService prenotazioneService;
     private final PrenotazioneMapper prenotazioneMapper;
     private final PrenotazioneSchedulerService prenotazioneSchedulerService;
+    private final CodaPrenotazioniAsincrone codaAsincrona;
+    private final ScrittoreUnicoPrenotazioni scrittoreUnico;
+    private final RiconciliazioneContatoriService riconciliazioneService;
+    private final RegistroOpzioni registroOpzioni;
+    private final ListaAttesaService listaAttesaService;
+    private final VeicoloMapper veicoloMapper;
 
-    public PrenotazioneController(PrenotazioneService prenotazioneService, PrenotazioneMapper prenotazioneMapper, PrenotazioneSchedulerService prenotazioneSchedulerService) {
+    public PrenotazioneController(PrenotazioneService prenotazioneService, PrenotazioneMapper prenotazioneMapper, PrenotazioneSchedulerService prenotazioneSchedulerService, CodaPrenotazioniAsincrone codaAsincrona, ScrittoreUnicoPrenotazioni scrittoreUnico, RiconciliazioneContatoriService riconciliazioneService, RegistroOpzioni registroOpzioni, ListaAttesaService listaAttesaService, VeicoloMapper veicoloMapper) {
         this.prenotazioneService = prenotazioneService;
         this.prenotazioneMapper = prenotazioneMapper;
         this.prenotazioneSchedulerService = prenotazioneSchedulerService;
+        this.codaAsincrona = codaAsincrona;
+        this.scrittoreUnico = scrittoreUnico;
+        this.riconciliazioneService = riconciliazioneService;
+        this.registroOpzioni = registroOpzioni;
+        this.listaAttesaService = listaAttesaService;
+        this.veicoloMapper = veicoloMapper;
     }
 
     /**
      * Crea una nuova prenotazione (solo UTENTE o ADMIN autenticati).
+     * Con la modalità asincrona abilitata la richiesta viene accodata e si risponde 202
+     * con un ticket da consultare su /api/prenotazioni/ticket/{id}; a coda piena 429.
+     * Con l'header Idempotency-Key una richiesta ripetuta restituisce la prenotazione già creata
+     * invece di un conflitto; le richieste con chiave vengono sempre eseguite in modo sincrono.
+     * Con lo scrittore unico abilitato le richieste senza chiave vengono scritte a gruppi dal worker del veicolo.
      */
     @PostMapping
     @PreAuthorize("hasAnyRole('UTENTE', 'ADMIN')")
@@ -41,7 +84,8 @@ public class PrenotazioneController {
             Principal principal,
             @RequestParam @NotBlank String veicoloId,
             @RequestParam @NotBlank String inizio,
-            @RequestParam @NotBlank String fine
+            @RequestParam @NotBlank String fine,
+            @RequestHeader(value = "Idempotency-Key", required = false) String chiaveIdempotenza
     ) {
         try {
             String userId = principal.getName();
@@ -56,10 +100,24 @@ public class PrenotazioneController {
                 errore.put("messaggio", "La data di inizio deve essere precedente a quella di fine.");
                 return ResponseEntity.badRequest().body(errore);
             }
+
+            if (codaAsincrona.isAbilitata() && chiaveIdempotenza == null) {
+                TicketPrenotazioneDTO ticket = codaAsincrona.accoda(userId, veicoloIdLong, dataInizio, dataFine);
+                return ResponseEntity.accepted()
+                        .location(URI.create("/api/prenotazioni/ticket/" + ticket.getId()))
+                        .body(ticket);
+            }
     
-            Prenotazione prenotazione = prenotazioneService.creaPrenotazione(userId, veicoloIdLong, dataInizio, dataFine);
+            Prenotazione prenotazione = scrittoreUnico.isAbilitato() && chiaveIdempotenza == null
+                    ? scrittoreUnico.crea(userId, veicoloIdLong, dataInizio, dataFine)
+                    : prenotazioneService.creaPrenotazione(userId, veicoloIdLong, dataInizio, dataFine, chiaveIdempotenza);
             return ResponseEntity.ok(prenotazione);
     
+        } catch (CodaPienaException e) {
+            Map<String, Object> errore = new HashMap<>();
+            errore.put("tipo", "TOO_MANY_REQUESTS");
+            errore.put("messaggio", e.getMessage());
+            return ResponseEntity.status(429).header(HttpHeaders.RETRY_AFTER, "1").body(errore);
         } catch (IllegalArgumentException e) {
             // Gestione errori di validazione (inclusa durata minima)
             Map<String, Object> errore = new HashMap<>();
@@ -73,6 +131,7 @@ public class PrenotazioneController {
             errore.put("messaggio", "Il veicolo non è disponibile nelle date selezionate.");
             errore.put("dettaglio", "Prova a selezionare date diverse o controlla la disponibilità del veicolo.");
             errore.put("veicoloId", veicoloId);
+            aggiungiSuggerimenti(errore, Long.parseLong(veicoloId), LocalDateTime.parse(inizio), LocalDateTime.parse(fine));
             return ResponseEntity.status(409).body(errore);
         } catch (Exception e) {
             Map<String, Object> errore = new HashMap<>();
@@ -83,6 +142,264 @@ public class PrenotazioneController {
         }
     }
 
+    /**
+     * Aggiunge alla risposta di conflitto le finestre libere più vicine sullo stesso veicolo
+     * e i veicoli dello stesso tipo liberi nell'intervallo richiesto. Se il calcolo fallisce
+     * la risposta resta quella di conflitto, senza suggerimenti.
+     */
+    private void aggiungiSuggerimenti(Map<String, Object> errore, Long veicoloId, LocalDateTime inizio, LocalDateTime fine) {
+        try {
+            List<?> finestre = prenotazioneService.suggerisciFinestre(veicoloId, inizio, fine);
+            List<?> veicoli = veicoloMapper.toDTOList(prenotazioneService.suggerisciVeicoli(veicoloId, inizio, fine));
+            errore.put("finestreLibere", finestre);
+            errore.put("veicoliAlternativi", veicoli);
+        } catch (RuntimeException e) {
+            // i suggerimenti sono facoltativi: il client riceve comunque il 409
+            logger.warn("Suggerimenti non disponibili per il conflitto sul veicolo {}", veicoloId, e);
+        }
+    }
+
+    /**
+     * Crea più prenotazioni in un'unica richiesta (ad esempio più veicoli per un'uscita didattica).
+     * In modalità "atomica" non viene creato nulla se anche una sola richiesta fallisce (409);
+     * in modalità "parziale" vengono create le richieste valide e restituito l'esito di ognuna.
+     */
+    @PostMapping("/lotto")
+    @PreAuthorize("hasAnyRole('UTENTE', 'ADMIN')")
+    public ResponseEntity<?> creaPrenotazioniLotto(
+            Principal principal,
+            @RequestParam(defaultValue = "atomica") String modalita,
+            @RequestBody List<RichiestaPrenotazioneDTO> richieste
+    ) {
+        if (richieste == null || richieste.isEmpty() || richieste.size() > MAX_RICHIESTE_LOTTO) {
+            Map<String, Object> errore = new HashMap<>();
+            errore.put("tipo", "VALIDATION_ERROR");
+            errore.put("messaggio", "Il lotto deve contenere da 1 a " + MAX_RICHIESTE_LOTTO + " richieste.");
+            return ResponseEntity.badRequest().body(errore);
+        }
+        if (!modalita.equals("atomica") && !modalita.equals("parziale")) {
+            Map<String, Object> errore = new HashMap<>();
+            errore.put("tipo", "VALIDATION_ERROR");
+            errore.put("messaggio", "Modalità non valida: usare 'atomica' o 'parziale'.");
+            return ResponseEntity.badRequest().body(errore);
+        }
+
+        try {
+            boolean atomico = modalita.equals("atomica");
+            List<EsitoPrenotazioneDTO> esiti = prenotazioneService.creaPrenotazioniLotto(principal.getName(), richieste, atomico);
+
+            boolean tutteCreate = esiti.stream().allMatch(e -> e.getEsito() == EsitoPrenotazioneDTO.Esito.CREATA);
+            if (atomico && !tutteCreate) {
+                return ResponseEntity.status(409).body(esiti);
+            }
+            return ResponseEntity.ok(esiti);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            Map<String, Object> errore = new HashMap<>();
+            errore.put("tipo", "VALIDATION_ERROR");
+            errore.put("messaggio", e.getMessage());
+            return ResponseEntity.badRequest().body(errore);
+        } catch (Exception e) {
+            Map<String, Object> errore = new HashMap<>();
+            errore.put("tipo", "INTERNAL_ERROR");
+            errore.put("messaggio", "Errore durante la creazione delle prenotazioni.");
+            errore.put("dettaglio", e.getMessage());
+            return ResponseEntity.internalServerError().body(errore);
+        }
+    }
+
+    /**
+     * Crea una serie di prenotazioni ricorrenti (giornaliera o settimanale) sullo stesso veicolo.
+     * In modalità "parziale" (default) vengono create le occorrenze libere e riportati i conflitti
+     * delle altre; in modalità "atomica" non viene creato nulla se anche una sola è in conflitto (409).
+     */
+    @PostMapping("/serie")
+    @PreAuthorize("hasAnyRole('UTENTE', 'ADMIN')")
+    public ResponseEntity<?> creaSerie(
+            Principal principal,
+            @RequestParam(defaultValue = "parziale") String modalita,
+            @RequestBody RichiestaSerieDTO serie
+    ) {
+        if (!modalita.equals("atomica") && !modalita.equals("parziale")) {
+            Map<String, Object> errore = new HashMap<>();
+            errore.put("tipo", "VALIDATION_ERROR");
+            errore.put("messaggio", "Modalità non valida: usare 'atomica' o 'parziale'.");
+            return ResponseEntity.badRequest().body(errore);
+        }
+
+        try {
+            boolean atomica = modalita.equals("atomica");
+            EsitoSerieDTO esito = prenotazioneService.creaSerie(principal.getName(), serie, atomica);
+            if (atomica && esito.getCreate() == 0) {
+                return ResponseEntity.status(409).body(esito);
+            }
+            return ResponseEntity.ok(esito);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            Map<String, Object> errore = new HashMap<>();
+            errore.put("tipo", "VALIDATION_ERROR");
+            errore.put("messaggio", e.getMessage());
+            return ResponseEntity.badRequest().body(errore);
+        } catch (Exception e) {
+            Map<String, Object> errore = new HashMap<>();
+            errore.put("tipo", "INTERNAL_ERROR");
+            errore.put("messaggio", "Errore durante la creazione della serie.");
+            errore.put("dettaglio", e.getMessage());
+            return ResponseEntity.internalServerError().body(errore);
+        }
+    }
+
+    /**
+     * Annulla in blocco le occorrenze future di una serie dell'utente.
+     */
+    @PutMapping("/serie/{serieId}/cancella")
+    @PreAuthorize("hasAnyRole('UTENTE', 'ADMIN')")
+    public ResponseEntity<?> cancellaSerie(Principal principal, @PathVariable String serieId) {
+        try {
+            int annullate = prenotazioneService.cancellaSerie(serieId, principal.getName());
+            Map<String, Object> risultato = new HashMap<>();
+            risultato.put("serieId", serieId);
+            risultato.put("annullate", annullate);
+            return ResponseEntity.ok(risultato);
+        } catch (SecurityException e) {
+            return ResponseEntity.status(403).body("Non puoi cancellare una serie altrui");
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().body("Errore durante la cancellazione: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Restituisce lo stato di una richiesta di prenotazione asincrona.
+     * Ogni utente vede solo i propri ticket, l'admin tutti.
+     */
+    @GetMapping("/ticket/{id}")
+    @PreAuthorize("hasAnyRole('UTENTE', 'ADMIN')")
+    public ResponseEntity<TicketPrenotazioneDTO> getTicket(Authentication authentication, @PathVariable String id) {
+        boolean admin = authentication.getAuthorities().stream()
+                .anyMatch(a -> a.getAuthority().equals("ROLE_ADMIN"));
+        return codaAsincrona.getTicket(id, authentication.getName(), admin)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Iscrive l'utente alla lista d'attesa per un veicolo o per un tipo di veicolo in un intervallo.
+     * Quando l'intervallo si libera viene prenotato automaticamente (prenotaAutomaticamente=true)
+     * oppure la richiesta passa a NOTIFICATA.
+     */
+    @PostMapping("/lista-attesa")
+    @PreAuthorize("hasAnyRole('UTENTE', 'ADMIN')")
+    public ResponseEntity<?> registraListaAttesa(Principal principal, @RequestBody RichiestaAttesaDTO richiesta) {
+        try {
+            return ResponseEntity.status(201).body(listaAttesaService.registra(principal.getName(), richiesta));
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            Map<String, Object> errore = new HashMap<>();
+            errore.put("tipo", "VALIDATION_ERROR");
+            errore.put("messaggio", e.getMessage());
+            return ResponseEntity.badRequest().body(errore);
+        }
+    }
+
+    /**
+     * Richieste in lista d'attesa dell'utente autenticato, con il loro stato.
+     */
+    @GetMapping("/lista-attesa")
+    @PreAuthorize("hasAnyRole('UTENTE', 'ADMIN')")
+    public List<RichiestaAttesaDTO> getListaAttesaUtente(Principal principal) {
+        return listaAttesaService.listaPerUtente(principal.getName());
+    }
+
+    /**
+     * Ritira una richiesta ancora in attesa.
+     */
+    @DeleteMapping("/lista-attesa/{id}")
+    @PreAuthorize("hasAnyRole('UTENTE', 'ADMIN')")
+    public ResponseEntity<Void> annullaListaAttesa(Principal principal, @PathVariable Long id) {
+        return listaAttesaService.annulla(id, principal.getName())
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Crea un'opzione temporanea sul veicolo: per alcuni minuti l'intervallo non può essere
+     * prenotato né opzionato da altri utenti, mentre l'utente completa la prenotazione.
+     */
+    @PostMapping("/opzioni")
+    @PreAuthorize("hasAnyRole('UTENTE', 'ADMIN')")
+    public ResponseEntity<?> creaOpzione(
+            Principal principal,
+            @RequestParam Long veicoloId,
+            @RequestParam @NotBlank String inizio,
+            @RequestParam @NotBlank String fine
+    ) {
+        try {
+            RegistroOpzioni.Opzione opzione = registroOpzioni.crea(principal.getName(), veicoloId,
+                    LocalDateTime.parse(inizio), LocalDateTime.parse(fine));
+            return ResponseEntity.status(201).body(opzione.toDTO());
+        } catch (BookingConflictException e) {
+            Map<String, Object> errore = new HashMap<>();
+            errore.put("tipo", "BOOKING_CONFLICT");
+            errore.put("messaggio", e.getMessage());
+            errore.put("veicoloId", veicoloId);
+            return ResponseEntity.status(409).body(errore);
+        } catch (IllegalArgumentException | IllegalStateException | DateTimeParseException e) {
+            Map<String, Object> errore = new HashMap<>();
+            errore.put("tipo", "VALIDATION_ERROR");
+            errore.put("messaggio", e.getMessage());
+            return ResponseEntity.badRequest().body(errore);
+        }
+    }
+
+    /**
+     * Elenco delle opzioni attive dell'utente autenticato.
+     */
+    @GetMapping("/opzioni")
+    @PreAuthorize("hasAnyRole('UTENTE', 'ADMIN')")
+    public List<OpzionePrenotazioneDTO> getOpzioniUtente(Principal principal) {
+        return registroOpzioni.listaPerUtente(principal.getName()).stream()
+                .map(RegistroOpzioni.Opzione::toDTO)
+                .toList();
+    }
+
+    /**
+     * Rilascia un'opzione dell'utente prima della scadenza.
+     */
+    @DeleteMapping("/opzioni/{id}")
+    @PreAuthorize("hasAnyRole('UTENTE', 'ADMIN')")
+    public ResponseEntity<Void> rilasciaOpzione(Principal principal, @PathVariable String id) {
+        return registroOpzioni.rimuovi(id, principal.getName())
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Conferma un'opzione trasformandola in prenotazione.
+     */
+    @PostMapping("/opzioni/{id}/conferma")
+    @PreAuthorize("hasAnyRole('UTENTE', 'ADMIN')")
+    public ResponseEntity<?> confermaOpzione(Principal principal, @PathVariable String id) {
+        try {
+            Prenotazione prenotazione = prenotazioneService.confermaOpzione(id, principal.getName());
+            return ResponseEntity.ok(prenotazioneMapper.toDTO(prenotazione));
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> errore = new HashMap<>();
+            errore.put("tipo", "VALIDATION_ERROR");
+            errore.put("messaggio", e.getMessage());
+            return ResponseEntity.badRequest().body(errore);
+        } catch (BookingConflictException e) {
+            Map<String, Object> errore = new HashMap<>();
+            errore.put("tipo", "BOOKING_CONFLICT");
+            errore.put("messaggio", e.getMessage());
+            return ResponseEntity.status(409).body(errore);
+        } catch (Exception e) {
+            Map<String, Object> errore = new HashMap<>();
+            errore.put("tipo", "INTERNAL_ERROR");
+            errore.put("messaggio", "Errore durante la conferma dell'opzione.");
+            errore.put("dettaglio", e.getMessage());
+            return ResponseEntity.internalServerError().body(errore);
+        }
+    }
+
     /**
      * Modifica una prenotazione esistente (con gli stessi controlli della creazione).
      */
@@ -104,10 +421,14 @@ public class PrenotazioneController {
             }
 
             Prenotazione modificata = prenotazioneService.modificaPrenotazione(id, userId, nuovaInizio, nuovaFine);
-            return ResponseEntity.ok(modificata);
+            return ResponseEntity.ok(prenotazioneMapper.toDTO(modificata));
 
         } catch (BookingConflictException e) {
             return ResponseEntity.status(409).body(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (SecurityException e) {
+            return ResponseEntity.status(403).body(e.getMessage());
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.internalServerError().body("Errore durante la modifica: " + e.getMessage());
@@ -149,19 +470,40 @@ public class PrenotazioneController {
      */
     @PostMapping("/ricalcola-contatori")
     @PreAuthorize("hasRole('ADMIN')")
-    public ResponseEntity<Map<String, String>> ricalcolaContatori() {
+    public ResponseEntity<Map<String, Object>> ricalcolaContatori() {
         try {
-            prenotazioneService.ricalcolaContatori();
-            Map<String, String> response = new HashMap<>();
+            EsitoRicalcoloDTO esito = prenotazioneService.ricalcolaContatori();
+            Map<String, Object> response = new HashMap<>();
             response.put("messaggio", "Contatori ricalcolati con successo");
+            response.put("righeModificate", esito.getRigheModificate());
+            response.put("righeAggiornate", esito.getRigheAggiornate());
+            response.put("righeInserite", esito.getRigheInserite());
+            response.put("righeAzzerate", esito.getRigheAzzerate());
+            response.put("durataMs", esito.getDurataMs());
             return ResponseEntity.ok(response);
         } catch (Exception e) {
-            Map<String, String> error = new HashMap<>();
+            Map<String, Object> error = new HashMap<>();
             error.put("errore", "Errore durante il ricalcolo dei contatori: " + e.getMessage());
             return ResponseEntity.internalServerError().body(error);
         }
     }
     
+    /**
+     * Confronta i contatori ServizioGiorno con le prenotazioni attive e restituisce le differenze;
+     * con ripara=true corregge solo le righe che differiscono (solo ADMIN).
+     */
+    @PostMapping("/riconcilia-contatori")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> riconciliaContatori(@RequestParam(defaultValue = "false") boolean ripara) {
+        try {
+            return ResponseEntity.ok(riconciliazioneService.riconcilia(ripara));
+        } catch (Exception e) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("errore", "Errore durante la riconciliazione dei contatori: " + e.getMessage());
+            return ResponseEntity.internalServerError().body(error);
+        }
+    }
+
     /**
      * Cancella una prenotazione dell'utente (soft-delete logica).
      */
@@ -186,8 +528,13 @@ public class PrenotazioneController {
     
     @PostMapping("/aggiorna-scadute")
     @PreAuthorize("hasRole('ADMIN')")
-    public ResponseEntity<String> aggiornaPrenotazioniScadute() {
-        int aggiornate = prenotazioneSchedulerService.aggiornaPrenotazioniScaduteManuale();
-        return ResponseEntity.ok("Aggiornate " + aggiornate + " prenotazioni da ATTIVA a COMPLETATA");
+    public ResponseEntity<Map<String, Object>> aggiornaPrenotazioniScadute() {
+        EsitoScadenzeDTO esito = prenotazioneSchedulerService.aggiornaPrenotazioniScaduteManuale();
+        Map<String, Object> response = new HashMap<>();
+        response.put("messaggio", "Aggiornate " + esito.getAggiornate() + " prenotazioni da ATTIVA a COMPLETATA");
+        response.put("aggiornate", esito.getAggiornate());
+        response.put("blocchi", esito.getBlocchi());
+        response.put("durataMs", esito.getDurataMs());
+        return ResponseEntity.ok(response);
     }
 }
\ No newline at end of file
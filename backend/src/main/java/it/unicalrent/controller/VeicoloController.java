@@ -1,19 +1,29 @@
 package it.unicalrent.controller;
 
+import it.unicalrent.dto.EsitoFermiDTO;
+import it.unicalrent.dto.FermoVeicoloDTO;
+import it.unicalrent.dto.RichiestaFermiDTO;
 import it.unicalrent.dto.VeicoloDTO;
-import it.unicalrent.entity.Prenotazione;
-import it.unicalrent.entity.StatoPrenotazione;
 import it.unicalrent.entity.Veicolo;
 import it.unicalrent.mapper.VeicoloMapper;
-import it.unicalrent.repository.PrenotazioneRepository;
+import it.unicalrent.service.FasceOrarie;
+import it.unicalrent.service.FermiVeicoloService;
+import it.unicalrent.service.ServizioGiornoService;
 import it.unicalrent.service.VeicoloService;
 import jakarta.persistence.EntityNotFoundException;
 import jakarta.validation.Valid;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
 
 @RestController
@@ -22,12 +32,18 @@ public class VeicoloController {
 
     private final VeicoloService veicoloService;
     private final VeicoloMapper veicoloMapper;
-    private final PrenotazioneRepository prenotazioneRepository;
+    private final ServizioGiornoService servizioGiornoService;
+    private final FermiVeicoloService fermiVeicoloService;
+    private final int maxGiorniOccupazione;
 
-    public VeicoloController(VeicoloService veicoloService, VeicoloMapper veicoloMapper, PrenotazioneRepository prenotazioneRepository) {
+    public VeicoloController(VeicoloService veicoloService, VeicoloMapper veicoloMapper, ServizioGiornoService servizioGiornoService,
+                             FermiVeicoloService fermiVeicoloService,
+                             @Value("${unicalrent.occupazione.max-giorni:92}") int maxGiorniOccupazione) {
         this.veicoloService = veicoloService;
         this.veicoloMapper = veicoloMapper;
-        this.prenotazioneRepository = prenotazioneRepository;
+        this.servizioGiornoService = servizioGiornoService;
+        this.fermiVeicoloService = fermiVeicoloService;
+        this.maxGiorniOccupazione = maxGiorniOccupazione;
     }
 
     /**
@@ -40,6 +56,30 @@ public class VeicoloController {
         return ResponseEntity.ok(veicoloMapper.toDTOList(veicoli));
     }
 
+    /**
+     * Restituisce i veicoli attivi liberi tra inizio e fine, con filtri opzionali su tipo,
+     * alimentazione e posti minimi. Accesso libero.
+     */
+    @GetMapping("/disponibili")
+    public ResponseEntity<?> cercaVeicoliDisponibili(
+            @RequestParam String inizio,
+            @RequestParam String fine,
+            @RequestParam(required = false) String tipo,
+            @RequestParam(required = false) String alimentazione,
+            @RequestParam(required = false) Integer postiMin
+    ) {
+        try {
+            List<Veicolo> veicoli = veicoloService.cercaDisponibili(
+                    LocalDateTime.parse(inizio), LocalDateTime.parse(fine), tipo, alimentazione, postiMin);
+            return ResponseEntity.ok(veicoloMapper.toDTOList(veicoli));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            Map<String, Object> errore = new HashMap<>();
+            errore.put("tipo", "VALIDATION_ERROR");
+            errore.put("messaggio", e.getMessage());
+            return ResponseEntity.badRequest().body(errore);
+        }
+    }
+
     /**
      * Restituisce i dettagli di un singolo veicolo per ID.
      * Accesso libero.
@@ -76,47 +116,71 @@ public class VeicoloController {
     }
 
     /**
-     * Restituisce le date disponibili per un veicolo nei prossimi 30 giorni.
+     * Restituisce le date disponibili e occupate di un veicolo tra da e a (default: oggi e i 30 giorni
+     * successivi). Con granularita=ora (default) riporta anche le fasce orarie dei giorni occupati
+     * (24 caratteri '0'/'1', uno per ora). La risposta ha un ETag legato alle prenotazioni attive e ai fermi
+     * del periodo: se il client invia lo stesso valore in If-None-Match si risponde 304.
      */
     @GetMapping("/{id}/disponibilita")
-    public ResponseEntity<Map<String, Object>> getDisponibilitaVeicolo(@PathVariable Long id) {
+    public ResponseEntity<Map<String, Object>> getDisponibilitaVeicolo(
+            @PathVariable Long id,
+            @RequestParam(required = false) String da,
+            @RequestParam(required = false) String a,
+            @RequestParam(defaultValue = "ora") String granularita,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
+    ) {
         try {
             Veicolo veicolo = veicoloService.getById(id);
-            
+
+            LocalDate dataDa = da != null ? LocalDate.parse(da) : LocalDate.now();
+            LocalDate dataA = a != null ? LocalDate.parse(a) : dataDa.plusDays(30);
+            long giorni = ChronoUnit.DAYS.between(dataDa, dataA) + 1;
+            boolean orario = !"giorno".equalsIgnoreCase(granularita);
+            if (giorni < 1 || giorni > maxGiorniOccupazione) {
+                return ResponseEntity.badRequest().build();
+            }
+
+            String etag = "W/\"" + id + "-" + dataDa + "-" + dataA + "-" + (orario ? "o" : "g") + "-"
+                    + servizioGiornoService.versioneDisponibilita(id, dataDa, dataA) + "\"";
+            if (etag.equals(ifNoneMatch)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(CacheControl.noCache()).build();
+            }
+
             List<String> dateDisponibili = new ArrayList<>();
             List<String> dateOccupate = new ArrayList<>();
-            
-            LocalDate oggi = LocalDate.now();
-            LocalDate limite = oggi.plusDays(30);
-            
-            // Tutte le prenotazioni attive per questo veicolo
-            List<Prenotazione> prenotazioniAttive = prenotazioneRepository.findByVeicoloAndStato(veicolo, StatoPrenotazione.ATTIVA);
-            
-            for (LocalDate data = oggi; !data.isAfter(limite); data = data.plusDays(1)) {
-                final LocalDate dataCorrente = data; //copia final per l'uso nella lambda
-                boolean isOccupata = prenotazioniAttive.stream()
-                    .anyMatch(prenotazione -> {
-                        LocalDate inizioPrenotazione = prenotazione.getDataInizio().toLocalDate();
-                        LocalDate finePrenotazione = prenotazione.getDataFine().toLocalDate();
-                        return !dataCorrente.isBefore(inizioPrenotazione) && !dataCorrente.isAfter(finePrenotazione);
-                    });
-                
-                if (isOccupata) {
-                    dateOccupate.add(dataCorrente.toString());
+            Map<String, String> fasceOccupate = new LinkedHashMap<>();
+
+            // Maschere orarie dei soli giorni occupati, dalle prenotazioni attive del periodo
+            Map<LocalDate, Integer> maschere = servizioGiornoService.fasceOccupate(veicolo, dataDa, dataA);
+
+            for (LocalDate data = dataDa; !data.isAfter(dataA); data = data.plusDays(1)) {
+                Integer maschera = maschere.get(data);
+                if (maschera != null) {
+                    dateOccupate.add(data.toString());
+                    if (orario) {
+                        fasceOccupate.put(data.toString(), FasceOrarie.comeStringa(maschera));
+                    }
                 } else {
-                    dateDisponibili.add(dataCorrente.toString());
+                    dateDisponibili.add(data.toString());
                 }
             }
-            
+
             Map<String, Object> risultato = new HashMap<>();
             risultato.put("veicoloId", id);
+            risultato.put("da", dataDa.toString());
+            risultato.put("a", dataA.toString());
             risultato.put("dateDisponibili", dateDisponibili);
             risultato.put("dateOccupate", dateOccupate);
-            
-            return ResponseEntity.ok(risultato);
-            
+            if (orario) {
+                risultato.put("fasceOccupate", fasceOccupate);
+            }
+
+            return ResponseEntity.ok().eTag(etag).cacheControl(CacheControl.noCache()).body(risultato);
+
         } catch (EntityNotFoundException e) {
             return ResponseEntity.notFound().build();
+        } catch (DateTimeParseException e) {
+            return ResponseEntity.badRequest().build();
         } catch (Exception e) {
             return ResponseEntity.internalServerError().build();
         }
@@ -132,6 +196,80 @@ public class VeicoloController {
         return ResponseEntity.ok(veicoloMapper.toDTOList(veicoli));
     }
 
+    /**
+     * Matrice di occupazione della flotta per il cruscotto admin: per ogni veicolo una stringa
+     * con un carattere per giorno tra da e a (default: oggi e i 30 giorni successivi).
+     * Il periodo massimo è configurabile con {@code unicalrent.occupazione.max-giorni}.
+     */
+    @GetMapping("/admin/occupazione")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> getOccupazioneFlotta(
+            @RequestParam(required = false) String da,
+            @RequestParam(required = false) String a
+    ) {
+        try {
+            LocalDate dataDa = da != null ? LocalDate.parse(da) : LocalDate.now();
+            LocalDate dataA = a != null ? LocalDate.parse(a) : dataDa.plusDays(30);
+            long giorni = ChronoUnit.DAYS.between(dataDa, dataA) + 1;
+            if (giorni < 1 || giorni > maxGiorniOccupazione) {
+                throw new IllegalArgumentException("Il periodo deve essere compreso tra 1 e " + maxGiorniOccupazione + " giorni.");
+            }
+
+            Map<String, Object> risultato = new HashMap<>();
+            risultato.put("da", dataDa.toString());
+            risultato.put("a", dataA.toString());
+            risultato.put("giorni", giorni);
+            risultato.put("veicoli", servizioGiornoService.occupazioneFlotta(dataDa, dataA));
+            return ResponseEntity.ok(risultato);
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            Map<String, Object> errore = new HashMap<>();
+            errore.put("tipo", "VALIDATION_ERROR");
+            errore.put("messaggio", e.getMessage());
+            return ResponseEntity.badRequest().body(errore);
+        }
+    }
+
+    /**
+     * Crea lo stesso fermo programmato su uno o più veicoli e annulla le prenotazioni attive
+     * che vi ricadono. Restituisce i fermi creati e gli id delle prenotazioni annullate.
+     */
+    @PostMapping("/admin/fermi")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> creaFermi(@RequestBody RichiestaFermiDTO richiesta) {
+        try {
+            EsitoFermiDTO esito = fermiVeicoloService.creaFermi(richiesta);
+            return ResponseEntity.status(HttpStatus.CREATED).body(esito);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            Map<String, Object> errore = new HashMap<>();
+            errore.put("tipo", "VALIDATION_ERROR");
+            errore.put("messaggio", e.getMessage());
+            return ResponseEntity.badRequest().body(errore);
+        }
+    }
+
+    /**
+     * Fermi non ancora conclusi, eventualmente filtrati per veicolo.
+     */
+    @GetMapping("/admin/fermi")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<List<FermoVeicoloDTO>> listaFermi(@RequestParam(required = false) Long veicoloId) {
+        return ResponseEntity.ok(fermiVeicoloService.listaFermi(veicoloId));
+    }
+
+    /**
+     * Elimina un fermo programmato.
+     */
+    @DeleteMapping("/admin/fermi/{id}")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> eliminaFermo(@PathVariable Long id) {
+        try {
+            fermiVeicoloService.eliminaFermo(id);
+            return ResponseEntity.noContent().build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
     /**
      * Riattiva un veicolo disattivato.
      */
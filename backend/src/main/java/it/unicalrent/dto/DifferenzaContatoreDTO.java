@@ -0,0 +1,47 @@
+package it.unicalrent.dto;
+
+import java.time.LocalDate;
+
+/**
+ * Differenza tra il contatore ServizioGiorno salvato e quello atteso dalle prenotazioni ATTIVE.
+ * Le fasce sono rappresentate come stringa di 24 caratteri '0'/'1'.
+ */
+public class DifferenzaContatoreDTO {
+
+    private Long veicoloId;
+    private LocalDate giorno;
+    private int numeroAtteso;
+    private int numeroAttuale;
+    private String fasceAttese;
+    private String fasceAttuali;
+
+    public DifferenzaContatoreDTO() {}
+
+    public DifferenzaContatoreDTO(Long veicoloId, LocalDate giorno, int numeroAtteso, int numeroAttuale,
+                                  String fasceAttese, String fasceAttuali) {
+        this.veicoloId = veicoloId;
+        this.giorno = giorno;
+        this.numeroAtteso = numeroAtteso;
+        this.numeroAttuale = numeroAttuale;
+        this.fasceAttese = fasceAttese;
+        this.fasceAttuali = fasceAttuali;
+    }
+
+    public Long getVeicoloId() { return veicoloId; }
+    public void setVeicoloId(Long veicoloId) { this.veicoloId = veicoloId; }
+
+    public LocalDate getGiorno() { return giorno; }
+    public void setGiorno(LocalDate giorno) { this.giorno = giorno; }
+
+    public int getNumeroAtteso() { return numeroAtteso; }
+    public void setNumeroAtteso(int numeroAtteso) { this.numeroAtteso = numeroAtteso; }
+
+    public int getNumeroAttuale() { return numeroAttuale; }
+    public void setNumeroAttuale(int numeroAttuale) { this.numeroAttuale = numeroAttuale; }
+
+    public String getFasceAttese() { return fasceAttese; }
+    public void setFasceAttese(String fasceAttese) { this.fasceAttese = fasceAttese; }
+
+    public String getFasceAttuali() { return fasceAttuali; }
+    public void setFasceAttuali(String fasceAttuali) { this.fasceAttuali = fasceAttuali; }
+}
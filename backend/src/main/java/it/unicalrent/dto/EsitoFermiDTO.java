@@ -0,0 +1,30 @@
+package it.unicalrent.dto;
+
+import java.util.List;
+
+/**
+ * Esito della creazione di fermi: i fermi creati e le prenotazioni annullate perché vi ricadevano.
+ */
+public class EsitoFermiDTO {
+
+    private List<FermoVeicoloDTO> fermi;
+    private List<Long> prenotazioniAnnullate;
+    private long durataMs;
+
+    public EsitoFermiDTO() {}
+
+    public EsitoFermiDTO(List<FermoVeicoloDTO> fermi, List<Long> prenotazioniAnnullate, long durataMs) {
+        this.fermi = fermi;
+        this.prenotazioniAnnullate = prenotazioniAnnullate;
+        this.durataMs = durataMs;
+    }
+
+    public List<FermoVeicoloDTO> getFermi() { return fermi; }
+    public void setFermi(List<FermoVeicoloDTO> fermi) { this.fermi = fermi; }
+
+    public List<Long> getPrenotazioniAnnullate() { return prenotazioniAnnullate; }
+    public void setPrenotazioniAnnullate(List<Long> prenotazioniAnnullate) { this.prenotazioniAnnullate = prenotazioniAnnullate; }
+
+    public long getDurataMs() { return durataMs; }
+    public void setDurataMs(long durataMs) { this.durataMs = durataMs; }
+}
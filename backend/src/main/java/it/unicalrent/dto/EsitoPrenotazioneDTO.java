@@ -0,0 +1,49 @@
+package it.unicalrent.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * Esito di una singola richiesta all'interno di un lotto di prenotazioni.
+ */
+public class EsitoPrenotazioneDTO {
+
+    public enum Esito {
+        CREATA,
+        CONFLITTO,
+        NON_VALIDA,
+        NON_ESEGUITA
+    }
+
+    private Long veicoloId;
+    private LocalDateTime inizio;
+    private LocalDateTime fine;
+    private Esito esito;
+    private Long prenotazioneId;
+    private String messaggio;
+
+    public EsitoPrenotazioneDTO() {}
+
+    public EsitoPrenotazioneDTO(RichiestaPrenotazioneDTO richiesta) {
+        this.veicoloId = richiesta.getVeicoloId();
+        this.inizio = richiesta.getInizio();
+        this.fine = richiesta.getFine();
+    }
+
+    public Long getVeicoloId() { return veicoloId; }
+    public void setVeicoloId(Long veicoloId) { this.veicoloId = veicoloId; }
+
+    public LocalDateTime getInizio() { return inizio; }
+    public void setInizio(LocalDateTime inizio) { this.inizio = inizio; }
+
+    public LocalDateTime getFine() { return fine; }
+    public void setFine(LocalDateTime fine) { this.fine = fine; }
+
+    public Esito getEsito() { return esito; }
+    public void setEsito(Esito esito) { this.esito = esito; }
+
+    public Long getPrenotazioneId() { return prenotazioneId; }
+    public void setPrenotazioneId(Long prenotazioneId) { this.prenotazioneId = prenotazioneId; }
+
+    public String getMessaggio() { return messaggio; }
+    public void setMessaggio(String messaggio) { this.messaggio = messaggio; }
+}
@@ -0,0 +1,35 @@
+package it.unicalrent.dto;
+
+/**
+ * Esito del ricalcolo dei contatori ServizioGiorno.
+ */
+public class EsitoRicalcoloDTO {
+
+    private int righeAggiornate;
+    private int righeInserite;
+    private int righeAzzerate;
+    private long durataMs;
+
+    public EsitoRicalcoloDTO() {}
+
+    public EsitoRicalcoloDTO(int righeAggiornate, int righeInserite, int righeAzzerate, long durataMs) {
+        this.righeAggiornate = righeAggiornate;
+        this.righeInserite = righeInserite;
+        this.righeAzzerate = righeAzzerate;
+        this.durataMs = durataMs;
+    }
+
+    public int getRigheAggiornate() { return righeAggiornate; }
+    public void setRigheAggiornate(int righeAggiornate) { this.righeAggiornate = righeAggiornate; }
+
+    public int getRigheInserite() { return righeInserite; }
+    public void setRigheInserite(int righeInserite) { this.righeInserite = righeInserite; }
+
+    public int getRigheAzzerate() { return righeAzzerate; }
+    public void setRigheAzzerate(int righeAzzerate) { this.righeAzzerate = righeAzzerate; }
+
+    public long getDurataMs() { return durataMs; }
+    public void setDurataMs(long durataMs) { this.durataMs = durataMs; }
+
+    public int getRigheModificate() { return righeAggiornate + righeInserite + righeAzzerate; }
+}
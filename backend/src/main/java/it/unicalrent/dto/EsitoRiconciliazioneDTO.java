@@ -0,0 +1,31 @@
+package it.unicalrent.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Esito della riconciliazione dei contatori ServizioGiorno con le prenotazioni ATTIVE.
+ */
+public class EsitoRiconciliazioneDTO {
+
+    private int veicoliControllati;
+    private int righeRiparate;
+    private boolean riparazione;
+    private long durataMs;
+    private List<DifferenzaContatoreDTO> differenze = new ArrayList<>();
+
+    public int getVeicoliControllati() { return veicoliControllati; }
+    public void setVeicoliControllati(int veicoliControllati) { this.veicoliControllati = veicoliControllati; }
+
+    public int getRigheRiparate() { return righeRiparate; }
+    public void setRigheRiparate(int righeRiparate) { this.righeRiparate = righeRiparate; }
+
+    public boolean isRiparazione() { return riparazione; }
+    public void setRiparazione(boolean riparazione) { this.riparazione = riparazione; }
+
+    public long getDurataMs() { return durataMs; }
+    public void setDurataMs(long durataMs) { this.durataMs = durataMs; }
+
+    public List<DifferenzaContatoreDTO> getDifferenze() { return differenze; }
+    public void setDifferenze(List<DifferenzaContatoreDTO> differenze) { this.differenze = differenze; }
+}
@@ -0,0 +1,28 @@
+package it.unicalrent.dto;
+
+/**
+ * Esito del passaggio a COMPLETATA delle prenotazioni scadute.
+ */
+public class EsitoScadenzeDTO {
+
+    private int aggiornate;
+    private int blocchi;
+    private long durataMs;
+
+    public EsitoScadenzeDTO() {}
+
+    public EsitoScadenzeDTO(int aggiornate, int blocchi, long durataMs) {
+        this.aggiornate = aggiornate;
+        this.blocchi = blocchi;
+        this.durataMs = durataMs;
+    }
+
+    public int getAggiornate() { return aggiornate; }
+    public void setAggiornate(int aggiornate) { this.aggiornate = aggiornate; }
+
+    public int getBlocchi() { return blocchi; }
+    public void setBlocchi(int blocchi) { this.blocchi = blocchi; }
+
+    public long getDurataMs() { return durataMs; }
+    public void setDurataMs(long durataMs) { this.durataMs = durataMs; }
+}
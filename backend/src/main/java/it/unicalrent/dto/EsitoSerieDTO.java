@@ -0,0 +1,37 @@
+package it.unicalrent.dto;
+
+import java.util.List;
+
+/**
+ * Esito della creazione di una serie ricorrente: l'esito di ogni occorrenza,
+ * con le occorrenze in conflitto e quelle create.
+ */
+public class EsitoSerieDTO {
+
+    private String serieId;
+    private int create;
+    private int conflitti;
+    private List<EsitoPrenotazioneDTO> occorrenze;
+
+    public EsitoSerieDTO() {}
+
+    public EsitoSerieDTO(String serieId, List<EsitoPrenotazioneDTO> occorrenze) {
+        this.occorrenze = occorrenze;
+        this.create = (int) occorrenze.stream().filter(o -> o.getEsito() == EsitoPrenotazioneDTO.Esito.CREATA).count();
+        this.conflitti = (int) occorrenze.stream().filter(o -> o.getEsito() == EsitoPrenotazioneDTO.Esito.CONFLITTO).count();
+        // senza occorrenze create la serie non esiste
+        this.serieId = create > 0 ? serieId : null;
+    }
+
+    public String getSerieId() { return serieId; }
+    public void setSerieId(String serieId) { this.serieId = serieId; }
+
+    public int getCreate() { return create; }
+    public void setCreate(int create) { this.create = create; }
+
+    public int getConflitti() { return conflitti; }
+    public void setConflitti(int conflitti) { this.conflitti = conflitti; }
+
+    public List<EsitoPrenotazioneDTO> getOccorrenze() { return occorrenze; }
+    public void setOccorrenze(List<EsitoPrenotazioneDTO> occorrenze) { this.occorrenze = occorrenze; }
+}
@@ -0,0 +1,47 @@
+package it.unicalrent.dto;
+
+import it.unicalrent.entity.FermoVeicolo;
+
+import java.time.LocalDateTime;
+
+/**
+ * Fermo programmato di un veicolo.
+ */
+public class FermoVeicoloDTO {
+
+    private Long id;
+    private Long veicoloId;
+    private LocalDateTime inizio;
+    private LocalDateTime fine;
+    private String motivo;
+    private LocalDateTime dataCreazione;
+
+    public FermoVeicoloDTO() {}
+
+    public FermoVeicoloDTO(FermoVeicolo fermo) {
+        this.id = fermo.getId();
+        this.veicoloId = fermo.getVeicoloId();
+        this.inizio = fermo.getDataInizio();
+        this.fine = fermo.getDataFine();
+        this.motivo = fermo.getMotivo();
+        this.dataCreazione = fermo.getDataCreazione();
+    }
+
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public Long getVeicoloId() { return veicoloId; }
+    public void setVeicoloId(Long veicoloId) { this.veicoloId = veicoloId; }
+
+    public LocalDateTime getInizio() { return inizio; }
+    public void setInizio(LocalDateTime inizio) { this.inizio = inizio; }
+
+    public LocalDateTime getFine() { return fine; }
+    public void setFine(LocalDateTime fine) { this.fine = fine; }
+
+    public String getMotivo() { return motivo; }
+    public void setMotivo(String motivo) { this.motivo = motivo; }
+
+    public LocalDateTime getDataCreazione() { return dataCreazione; }
+    public void setDataCreazione(LocalDateTime dataCreazione) { this.dataCreazione = dataCreazione; }
+}
@@ -0,0 +1,25 @@
+package it.unicalrent.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * Intervallo libero suggerito per un veicolo.
+ */
+public class FinestraLiberaDTO {
+
+    private LocalDateTime inizio;
+    private LocalDateTime fine;
+
+    public FinestraLiberaDTO() {}
+
+    public FinestraLiberaDTO(LocalDateTime inizio, LocalDateTime fine) {
+        this.inizio = inizio;
+        this.fine = fine;
+    }
+
+    public LocalDateTime getInizio() { return inizio; }
+    public void setInizio(LocalDateTime inizio) { this.inizio = inizio; }
+
+    public LocalDateTime getFine() { return fine; }
+    public void setFine(LocalDateTime fine) { this.fine = fine; }
+}
@@ -0,0 +1,44 @@
+package it.unicalrent.dto;
+
+/**
+ * Riga della matrice di occupazione della flotta: un carattere per giorno del periodo richiesto,
+ * '0' libero, '1' parzialmente occupato, '2' occupato per l'intera giornata.
+ */
+public class OccupazioneVeicoloDTO {
+
+    private Long veicoloId;
+    private String targa;
+    private String marca;
+    private String modello;
+    private boolean attivo;
+    private String occupazione;
+
+    public OccupazioneVeicoloDTO() {}
+
+    public OccupazioneVeicoloDTO(Long veicoloId, String targa, String marca, String modello, boolean attivo, String occupazione) {
+        this.veicoloId = veicoloId;
+        this.targa = targa;
+        this.marca = marca;
+        this.modello = modello;
+        this.attivo = attivo;
+        this.occupazione = occupazione;
+    }
+
+    public Long getVeicoloId() { return veicoloId; }
+    public void setVeicoloId(Long veicoloId) { this.veicoloId = veicoloId; }
+
+    public String getTarga() { return targa; }
+    public void setTarga(String targa) { this.targa = targa; }
+
+    public String getMarca() { return marca; }
+    public void setMarca(String marca) { this.marca = marca; }
+
+    public String getModello() { return modello; }
+    public void setModello(String modello) { this.modello = modello; }
+
+    public boolean isAttivo() { return attivo; }
+    public void setAttivo(boolean attivo) { this.attivo = attivo; }
+
+    public String getOccupazione() { return occupazione; }
+    public void setOccupazione(String occupazione) { this.occupazione = occupazione; }
+}
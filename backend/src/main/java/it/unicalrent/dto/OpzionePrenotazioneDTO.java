@@ -0,0 +1,41 @@
+package it.unicalrent.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * Opzione temporanea su un veicolo: riserva l'intervallo all'utente fino alla scadenza,
+ * in attesa della conferma che la trasforma in prenotazione.
+ */
+public class OpzionePrenotazioneDTO {
+
+    private String id;
+    private Long veicoloId;
+    private LocalDateTime inizio;
+    private LocalDateTime fine;
+    private LocalDateTime scadenza;
+
+    public OpzionePrenotazioneDTO() {}
+
+    public OpzionePrenotazioneDTO(String id, Long veicoloId, LocalDateTime inizio, LocalDateTime fine, LocalDateTime scadenza) {
+        this.id = id;
+        this.veicoloId = veicoloId;
+        this.inizio = inizio;
+        this.fine = fine;
+        this.scadenza = scadenza;
+    }
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public Long getVeicoloId() { return veicoloId; }
+    public void setVeicoloId(Long veicoloId) { this.veicoloId = veicoloId; }
+
+    public LocalDateTime getInizio() { return inizio; }
+    public void setInizio(LocalDateTime inizio) { this.inizio = inizio; }
+
+    public LocalDateTime getFine() { return fine; }
+    public void setFine(LocalDateTime fine) { this.fine = fine; }
+
+    public LocalDateTime getScadenza() { return scadenza; }
+    public void setScadenza(LocalDateTime scadenza) { this.scadenza = scadenza; }
+}
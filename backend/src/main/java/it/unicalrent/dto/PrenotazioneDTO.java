@@ -11,6 +11,7 @@ public class PrenotazioneDTO {
     private Double costoTotale;
     private String note;
     private LocalDateTime dataCreazione;
+    private String serieId;
 
     private VeicoloDTO veicolo;
 
@@ -39,6 +40,9 @@ public class PrenotazioneDTO {
     public LocalDateTime getDataCreazione() { return dataCreazione; }
     public void setDataCreazione(LocalDateTime dataCreazione) { this.dataCreazione = dataCreazione; }
     
+    public String getSerieId() { return serieId; }
+    public void setSerieId(String serieId) { this.serieId = serieId; }
+    
     public VeicoloDTO getVeicolo() { return veicolo; }
     public void setVeicolo(VeicoloDTO veicolo) { this.veicolo = veicolo; }
     
@@ -0,0 +1,55 @@
+package it.unicalrent.dto;
+
+import it.unicalrent.entity.StatoAttesa;
+
+import java.time.LocalDateTime;
+
+/**
+ * Richiesta in lista d'attesa, in ingresso (veicoloId oppure tipo, inizio, fine, prenotaAutomaticamente)
+ * e in uscita con stato ed eventuale prenotazione creata.
+ */
+public class RichiestaAttesaDTO {
+
+    private Long id;
+    private Long veicoloId;
+    private String tipo;
+    private LocalDateTime inizio;
+    private LocalDateTime fine;
+    private boolean prenotaAutomaticamente;
+    private StatoAttesa stato;
+    private Long prenotazioneId;
+    private LocalDateTime dataCreazione;
+    private LocalDateTime dataAggiornamento;
+
+    public RichiestaAttesaDTO() {}
+
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public Long getVeicoloId() { return veicoloId; }
+    public void setVeicoloId(Long veicoloId) { this.veicoloId = veicoloId; }
+
+    public String getTipo() { return tipo; }
+    public void setTipo(String tipo) { this.tipo = tipo; }
+
+    public LocalDateTime getInizio() { return inizio; }
+    public void setInizio(LocalDateTime inizio) { this.inizio = inizio; }
+
+    public LocalDateTime getFine() { return fine; }
+    public void setFine(LocalDateTime fine) { this.fine = fine; }
+
+    public boolean isPrenotaAutomaticamente() { return prenotaAutomaticamente; }
+    public void setPrenotaAutomaticamente(boolean prenotaAutomaticamente) { this.prenotaAutomaticamente = prenotaAutomaticamente; }
+
+    public StatoAttesa getStato() { return stato; }
+    public void setStato(StatoAttesa stato) { this.stato = stato; }
+
+    public Long getPrenotazioneId() { return prenotazioneId; }
+    public void setPrenotazioneId(Long prenotazioneId) { this.prenotazioneId = prenotazioneId; }
+
+    public LocalDateTime getDataCreazione() { return dataCreazione; }
+    public void setDataCreazione(LocalDateTime dataCreazione) { this.dataCreazione = dataCreazione; }
+
+    public LocalDateTime getDataAggiornamento() { return dataAggiornamento; }
+    public void setDataAggiornamento(LocalDateTime dataAggiornamento) { this.dataAggiornamento = dataAggiornamento; }
+}
@@ -0,0 +1,29 @@
+package it.unicalrent.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Creazione dello stesso fermo su uno o più veicoli.
+ */
+public class RichiestaFermiDTO {
+
+    private List<Long> veicoliIds;
+    private LocalDateTime inizio;
+    private LocalDateTime fine;
+    private String motivo;
+
+    public RichiestaFermiDTO() {}
+
+    public List<Long> getVeicoliIds() { return veicoliIds; }
+    public void setVeicoliIds(List<Long> veicoliIds) { this.veicoliIds = veicoliIds; }
+
+    public LocalDateTime getInizio() { return inizio; }
+    public void setInizio(LocalDateTime inizio) { this.inizio = inizio; }
+
+    public LocalDateTime getFine() { return fine; }
+    public void setFine(LocalDateTime fine) { this.fine = fine; }
+
+    public String getMotivo() { return motivo; }
+    public void setMotivo(String motivo) { this.motivo = motivo; }
+}
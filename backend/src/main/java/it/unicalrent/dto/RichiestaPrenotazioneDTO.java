@@ -0,0 +1,37 @@
+package it.unicalrent.dto;
+
+import jakarta.validation.constraints.NotNull;
+
+import java.time.LocalDateTime;
+
+/**
+ * Singola richiesta di prenotazione all'interno di un lotto.
+ */
+public class RichiestaPrenotazioneDTO {
+
+    @NotNull(message = "Il veicolo è obbligatorio")
+    private Long veicoloId;
+
+    @NotNull(message = "La data di inizio è obbligatoria")
+    private LocalDateTime inizio;
+
+    @NotNull(message = "La data di fine è obbligatoria")
+    private LocalDateTime fine;
+
+    public RichiestaPrenotazioneDTO() {}
+
+    public RichiestaPrenotazioneDTO(Long veicoloId, LocalDateTime inizio, LocalDateTime fine) {
+        this.veicoloId = veicoloId;
+        this.inizio = inizio;
+        this.fine = fine;
+    }
+
+    public Long getVeicoloId() { return veicoloId; }
+    public void setVeicoloId(Long veicoloId) { this.veicoloId = veicoloId; }
+
+    public LocalDateTime getInizio() { return inizio; }
+    public void setInizio(LocalDateTime inizio) { this.inizio = inizio; }
+
+    public LocalDateTime getFine() { return fine; }
+    public void setFine(LocalDateTime fine) { this.fine = fine; }
+}
@@ -0,0 +1,55 @@
+package it.unicalrent.dto;
+
+import jakarta.validation.constraints.NotNull;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Richiesta di una serie di prenotazioni ricorrenti sullo stesso veicolo.
+ * inizio e fine sono quelli della prima occorrenza; la serie termina alla data fineSerie
+ * (inclusa) oppure dopo il numero di occorrenze indicato: va specificato uno solo dei due.
+ */
+public class RichiestaSerieDTO {
+
+    public enum Frequenza {
+        GIORNALIERA,
+        SETTIMANALE
+    }
+
+    @NotNull(message = "Il veicolo è obbligatorio")
+    private Long veicoloId;
+
+    @NotNull(message = "La data di inizio è obbligatoria")
+    private LocalDateTime inizio;
+
+    @NotNull(message = "La data di fine è obbligatoria")
+    private LocalDateTime fine;
+
+    @NotNull(message = "La frequenza è obbligatoria")
+    private Frequenza frequenza;
+
+    private LocalDate fineSerie;
+
+    private Integer occorrenze;
+
+    public RichiestaSerieDTO() {}
+
+    public Long getVeicoloId() { return veicoloId; }
+    public void setVeicoloId(Long veicoloId) { this.veicoloId = veicoloId; }
+
+    public LocalDateTime getInizio() { return inizio; }
+    public void setInizio(LocalDateTime inizio) { this.inizio = inizio; }
+
+    public LocalDateTime getFine() { return fine; }
+    public void setFine(LocalDateTime fine) { this.fine = fine; }
+
+    public Frequenza getFrequenza() { return frequenza; }
+    public void setFrequenza(Frequenza frequenza) { this.frequenza = frequenza; }
+
+    public LocalDate getFineSerie() { return fineSerie; }
+    public void setFineSerie(LocalDate fineSerie) { this.fineSerie = fineSerie; }
+
+    public Integer getOccorrenze() { return occorrenze; }
+    public void setOccorrenze(Integer occorrenze) { this.occorrenze = occorrenze; }
+}
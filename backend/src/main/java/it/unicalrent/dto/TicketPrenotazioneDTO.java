@@ -0,0 +1,72 @@
+package it.unicalrent.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * Stato di una richiesta di prenotazione asincrona, consultabile tramite il suo ticket.
+ */
+public class TicketPrenotazioneDTO {
+
+    public enum Stato {
+        IN_CODA,
+        IN_LAVORAZIONE,
+        COMPLETATA,
+        FALLITA
+    }
+
+    private String id;
+    private Stato stato;
+    private Long veicoloId;
+    private LocalDateTime inizio;
+    private LocalDateTime fine;
+    private Long prenotazioneId;
+    private String tipoErrore;
+    private String messaggio;
+    private LocalDateTime dataCreazione;
+    private LocalDateTime dataAggiornamento;
+
+    public TicketPrenotazioneDTO() {}
+
+    public TicketPrenotazioneDTO(TicketPrenotazioneDTO altro) {
+        this.id = altro.id;
+        this.stato = altro.stato;
+        this.veicoloId = altro.veicoloId;
+        this.inizio = altro.inizio;
+        this.fine = altro.fine;
+        this.prenotazioneId = altro.prenotazioneId;
+        this.tipoErrore = altro.tipoErrore;
+        this.messaggio = altro.messaggio;
+        this.dataCreazione = altro.dataCreazione;
+        this.dataAggiornamento = altro.dataAggiornamento;
+    }
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public Stato getStato() { return stato; }
+    public void setStato(Stato stato) { this.stato = stato; }
+
+    public Long getVeicoloId() { return veicoloId; }
+    public void setVeicoloId(Long veicoloId) { this.veicoloId = veicoloId; }
+
+    public LocalDateTime getInizio() { return inizio; }
+    public void setInizio(LocalDateTime inizio) { this.inizio = inizio; }
+
+    public LocalDateTime getFine() { return fine; }
+    public void setFine(LocalDateTime fine) { this.fine = fine; }
+
+    public Long getPrenotazioneId() { return prenotazioneId; }
+    public void setPrenotazioneId(Long prenotazioneId) { this.prenotazioneId = prenotazioneId; }
+
+    public String getTipoErrore() { return tipoErrore; }
+    public void setTipoErrore(String tipoErrore) { this.tipoErrore = tipoErrore; }
+
+    public String getMessaggio() { return messaggio; }
+    public void setMessaggio(String messaggio) { this.messaggio = messaggio; }
+
+    public LocalDateTime getDataCreazione() { return dataCreazione; }
+    public void setDataCreazione(LocalDateTime dataCreazione) { this.dataCreazione = dataCreazione; }
+
+    public LocalDateTime getDataAggiornamento() { return dataAggiornamento; }
+    public void setDataAggiornamento(LocalDateTime dataAggiornamento) { this.dataAggiornamento = dataAggiornamento; }
+}
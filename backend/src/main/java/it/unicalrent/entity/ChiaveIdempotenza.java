@@ -0,0 +1,103 @@
+package it.unicalrent.entity;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Chiave Idempotency-Key con cui un utente ha creato una prenotazione. La riga viene scritta
+ * nella stessa transazione della prenotazione, così una richiesta ripetuta su un'altra istanza
+ * trova l'esito già registrato. Le righe più vecchie del TTL configurato vengono rimosse.
+ */
+@Entity
+@Table(
+        name = "chiavi_idempotenza",
+        indexes = @Index(name = "idx_chiavi_idempotenza_data_creazione", columnList = "data_creazione")
+)
+public class ChiaveIdempotenza {
+
+    @EmbeddedId
+    private Id id;
+
+    @Column(name = "impronta", nullable = false, length = 200)
+    private String impronta;
+
+    @Column(name = "prenotazione_id", nullable = false)
+    private Long prenotazioneId;
+
+    @Column(name = "data_creazione", nullable = false)
+    private LocalDateTime dataCreazione;
+
+    /**
+     * Chiave composta: la stessa Idempotency-Key di due utenti diversi non collide.
+     */
+    @Embeddable
+    public static class Id implements java.io.Serializable {
+
+        @Column(name = "utente_id", nullable = false)
+        private String utenteId;
+
+        @Column(name = "chiave", nullable = false, length = 100)
+        private String chiave;
+
+        public Id() {
+        }
+
+        public Id(String utenteId, String chiave) {
+            this.utenteId = utenteId;
+            this.chiave = chiave;
+        }
+
+        public String getUtenteId() {
+            return utenteId;
+        }
+
+        public String getChiave() {
+            return chiave;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Id altro && utenteId.equals(altro.utenteId) && chiave.equals(altro.chiave);
+        }
+
+        @Override
+        public int hashCode() {
+            return java.util.Objects.hash(utenteId, chiave);
+        }
+    }
+
+    public ChiaveIdempotenza() {
+    }
+
+    public Id getId() {
+        return id;
+    }
+
+    public void setId(Id id) {
+        this.id = id;
+    }
+
+    public String getImpronta() {
+        return impronta;
+    }
+
+    public void setImpronta(String impronta) {
+        this.impronta = impronta;
+    }
+
+    public Long getPrenotazioneId() {
+        return prenotazioneId;
+    }
+
+    public void setPrenotazioneId(Long prenotazioneId) {
+        this.prenotazioneId = prenotazioneId;
+    }
+
+    public LocalDateTime getDataCreazione() {
+        return dataCreazione;
+    }
+
+    public void setDataCreazione(LocalDateTime dataCreazione) {
+        this.dataCreazione = dataCreazione;
+    }
+}
@@ -0,0 +1,87 @@
+package it.unicalrent.entity;
+
+import jakarta.persistence.*;
+import org.hibernate.annotations.CreationTimestamp;
+import java.time.LocalDateTime;
+
+/**
+ * Fermo programmato di un veicolo (manutenzione, revisione...): nell'intervallo [dataInizio, dataFine)
+ * il veicolo non è prenotabile, senza doverlo disattivare né prenotarlo a nome dell'amministratore.
+ */
+@Entity
+@Table(
+        name = "fermi_veicolo",
+        indexes = @Index(name = "idx_fermi_veicolo_periodo", columnList = "veicolo_id, data_inizio, data_fine")
+)
+public class FermoVeicolo {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "veicolo_id", nullable = false)
+    private Long veicoloId;
+
+    @Column(name = "data_inizio", nullable = false)
+    private LocalDateTime dataInizio;
+
+    @Column(name = "data_fine", nullable = false)
+    private LocalDateTime dataFine;
+
+    @Column(name = "motivo", length = 255)
+    private String motivo;
+
+    @CreationTimestamp
+    @Column(name = "data_creazione", nullable = false, updatable = false)
+    private LocalDateTime dataCreazione;
+
+    public FermoVeicolo() {
+    }
+
+    public FermoVeicolo(Long veicoloId, LocalDateTime dataInizio, LocalDateTime dataFine, String motivo) {
+        this.veicoloId = veicoloId;
+        this.dataInizio = dataInizio;
+        this.dataFine = dataFine;
+        this.motivo = motivo;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Long getVeicoloId() {
+        return veicoloId;
+    }
+
+    public void setVeicoloId(Long veicoloId) {
+        this.veicoloId = veicoloId;
+    }
+
+    public LocalDateTime getDataInizio() {
+        return dataInizio;
+    }
+
+    public void setDataInizio(LocalDateTime dataInizio) {
+        this.dataInizio = dataInizio;
+    }
+
+    public LocalDateTime getDataFine() {
+        return dataFine;
+    }
+
+    public void setDataFine(LocalDateTime dataFine) {
+        this.dataFine = dataFine;
+    }
+
+    public String getMotivo() {
+        return motivo;
+    }
+
+    public void setMotivo(String motivo) {
+        this.motivo = motivo;
+    }
+
+    public LocalDateTime getDataCreazione() {
+        return dataCreazione;
+    }
+}
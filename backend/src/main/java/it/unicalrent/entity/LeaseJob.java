@@ -0,0 +1,59 @@
+package it.unicalrent.entity;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Lease di un job schedulato condiviso tra le istanze dell'applicazione:
+ * solo il nodo proprietario di un lease non scaduto esegue il job.
+ */
+@Entity
+@Table(name = "lease_job")
+public class LeaseJob {
+
+    /**
+     * Nome del job, chiave primaria.
+     */
+    @Id
+    @Column(name = "nome", length = 100)
+    private String nome;
+
+    /**
+     * Identificativo del nodo che detiene il lease.
+     */
+    @Column(name = "proprietario", nullable = false, length = 200)
+    private String proprietario;
+
+    /**
+     * Istante (orologio del database) oltre il quale il lease può essere preso da un altro nodo.
+     */
+    @Column(name = "scadenza", nullable = false)
+    private LocalDateTime scadenza;
+
+    public LeaseJob() {
+    }
+
+    public String getNome() {
+        return nome;
+    }
+
+    public void setNome(String nome) {
+        this.nome = nome;
+    }
+
+    public String getProprietario() {
+        return proprietario;
+    }
+
+    public void setProprietario(String proprietario) {
+        this.proprietario = proprietario;
+    }
+
+    public LocalDateTime getScadenza() {
+        return scadenza;
+    }
+
+    public void setScadenza(LocalDateTime scadenza) {
+        this.scadenza = scadenza;
+    }
+}
@@ -0,0 +1,87 @@
+package it.unicalrent.entity;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Copia su tabella di un'opzione temporanea su un veicolo, usata quando più istanze
+ * dell'applicazione devono vedere le stesse opzioni. Le righe scadute vengono ignorate
+ * e rimosse alla successiva opzione sullo stesso veicolo.
+ */
+@Entity
+@Table(
+        name = "opzioni_prenotazione",
+        indexes = @Index(name = "idx_opzioni_prenotazione_veicolo", columnList = "veicolo_id")
+)
+public class OpzionePrenotazione {
+
+    @Id
+    @Column(name = "id", length = 36)
+    private String id;
+
+    @Column(name = "veicolo_id", nullable = false)
+    private Long veicoloId;
+
+    @Column(name = "utente_id", nullable = false)
+    private String utenteId;
+
+    @Column(name = "data_inizio", nullable = false)
+    private LocalDateTime dataInizio;
+
+    @Column(name = "data_fine", nullable = false)
+    private LocalDateTime dataFine;
+
+    @Column(name = "scadenza", nullable = false)
+    private LocalDateTime scadenza;
+
+    public OpzionePrenotazione() {
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public Long getVeicoloId() {
+        return veicoloId;
+    }
+
+    public void setVeicoloId(Long veicoloId) {
+        this.veicoloId = veicoloId;
+    }
+
+    public String getUtenteId() {
+        return utenteId;
+    }
+
+    public void setUtenteId(String utenteId) {
+        this.utenteId = utenteId;
+    }
+
+    public LocalDateTime getDataInizio() {
+        return dataInizio;
+    }
+
+    public void setDataInizio(LocalDateTime dataInizio) {
+        this.dataInizio = dataInizio;
+    }
+
+    public LocalDateTime getDataFine() {
+        return dataFine;
+    }
+
+    public void setDataFine(LocalDateTime dataFine) {
+        this.dataFine = dataFine;
+    }
+
+    public LocalDateTime getScadenza() {
+        return scadenza;
+    }
+
+    public void setScadenza(LocalDateTime scadenza) {
+        this.scadenza = scadenza;
+    }
+}
@@ -6,7 +6,13 @@ import org.hibernate.annotations.CreationTimestamp;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "prenotazioni")
+@Table(
+        name = "prenotazioni",
+        indexes = {
+                @Index(name = "idx_prenotazioni_veicolo_stato_periodo", columnList = "veicolo_id, stato, data_inizio, data_fine"),
+                @Index(name = "idx_prenotazioni_serie", columnList = "serie_id")
+        }
+)
 public class Prenotazione {
 
     @Id
@@ -41,6 +47,12 @@ public class Prenotazione {
     @Column(length = 2048)
     private String note;
 
+    /**
+     * Serie ricorrente a cui appartiene la prenotazione, null per le prenotazioni singole.
+     */
+    @Column(name = "serie_id", length = 36)
+    private String serieId;
+
     @CreationTimestamp
     @Column(name = "data_creazione", nullable = false, updatable = false)
     private LocalDateTime dataCreazione;
@@ -130,4 +142,12 @@ public class Prenotazione {
     public void setDataCreazione(LocalDateTime dataCreazione) {
         this.dataCreazione = dataCreazione;
     }
-}
\ No newline at end of file
+
+    public String getSerieId() {
+        return serieId;
+    }
+
+    public void setSerieId(String serieId) {
+        this.serieId = serieId;
+    }
+}
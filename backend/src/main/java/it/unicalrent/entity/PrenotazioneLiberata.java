@@ -0,0 +1,64 @@
+package it.unicalrent.entity;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Intervallo lasciato libero da una prenotazione ATTIVA che è stata annullata, completata, eliminata
+ * o spostata. Le righe vengono scritte da un trigger su prenotazioni, nella stessa transazione della
+ * modifica, e lette da tutte le istanze per evadere la lista d'attesa. Le righe più vecchie di un giorno
+ * vengono rimosse.
+ */
+@Entity
+@Table(
+        name = "prenotazioni_liberate",
+        indexes = @Index(name = "idx_prenotazioni_liberate_data_registrazione", columnList = "data_registrazione")
+)
+public class PrenotazioneLiberata {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "prenotazione_id", nullable = false)
+    private Long prenotazioneId;
+
+    @Column(name = "veicolo_id", nullable = false)
+    private Long veicoloId;
+
+    @Column(name = "data_inizio", nullable = false)
+    private LocalDateTime dataInizio;
+
+    @Column(name = "data_fine", nullable = false)
+    private LocalDateTime dataFine;
+
+    @Column(name = "data_registrazione", nullable = false)
+    private LocalDateTime dataRegistrazione;
+
+    public PrenotazioneLiberata() {
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Long getPrenotazioneId() {
+        return prenotazioneId;
+    }
+
+    public Long getVeicoloId() {
+        return veicoloId;
+    }
+
+    public LocalDateTime getDataInizio() {
+        return dataInizio;
+    }
+
+    public LocalDateTime getDataFine() {
+        return dataFine;
+    }
+
+    public LocalDateTime getDataRegistrazione() {
+        return dataRegistrazione;
+    }
+}
@@ -0,0 +1,149 @@
+package it.unicalrent.entity;
+
+import jakarta.persistence.*;
+import org.hibernate.annotations.CreationTimestamp;
+import java.time.LocalDateTime;
+
+/**
+ * Richiesta in lista d'attesa: l'utente aspetta che si liberi un veicolo specifico, oppure
+ * uno qualsiasi di un tipo, nell'intervallo indicato. Quando l'intervallo si libera la richiesta
+ * viene trasformata in prenotazione oppure segnata come notificata.
+ */
+@Entity
+@Table(
+        name = "lista_attesa",
+        indexes = {
+                @Index(name = "idx_lista_attesa_stato_inizio", columnList = "stato, data_inizio"),
+                @Index(name = "idx_lista_attesa_utente", columnList = "utente_id")
+        }
+)
+public class RichiestaAttesa {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "utente_id", nullable = false)
+    private String utenteId;
+
+    /**
+     * Veicolo richiesto; null se la richiesta è per tipo.
+     */
+    @Column(name = "veicolo_id")
+    private Long veicoloId;
+
+    /**
+     * Tipo di veicolo richiesto; null se la richiesta è per un veicolo specifico.
+     */
+    @Column(name = "tipo", length = 20)
+    private String tipo;
+
+    @Column(name = "data_inizio", nullable = false)
+    private LocalDateTime dataInizio;
+
+    @Column(name = "data_fine", nullable = false)
+    private LocalDateTime dataFine;
+
+    /**
+     * Se true l'intervallo liberato viene prenotato subito per l'utente, altrimenti l'utente viene solo avvisato.
+     */
+    @Column(name = "prenota_automaticamente", nullable = false)
+    private boolean prenotaAutomaticamente;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private StatoAttesa stato;
+
+    @Column(name = "prenotazione_id")
+    private Long prenotazioneId;
+
+    @CreationTimestamp
+    @Column(name = "data_creazione", nullable = false, updatable = false)
+    private LocalDateTime dataCreazione;
+
+    @Column(name = "data_aggiornamento")
+    private LocalDateTime dataAggiornamento;
+
+    public RichiestaAttesa() {
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getUtenteId() {
+        return utenteId;
+    }
+
+    public void setUtenteId(String utenteId) {
+        this.utenteId = utenteId;
+    }
+
+    public Long getVeicoloId() {
+        return veicoloId;
+    }
+
+    public void setVeicoloId(Long veicoloId) {
+        this.veicoloId = veicoloId;
+    }
+
+    public String getTipo() {
+        return tipo;
+    }
+
+    public void setTipo(String tipo) {
+        this.tipo = tipo;
+    }
+
+    public LocalDateTime getDataInizio() {
+        return dataInizio;
+    }
+
+    public void setDataInizio(LocalDateTime dataInizio) {
+        this.dataInizio = dataInizio;
+    }
+
+    public LocalDateTime getDataFine() {
+        return dataFine;
+    }
+
+    public void setDataFine(LocalDateTime dataFine) {
+        this.dataFine = dataFine;
+    }
+
+    public boolean isPrenotaAutomaticamente() {
+        return prenotaAutomaticamente;
+    }
+
+    public void setPrenotaAutomaticamente(boolean prenotaAutomaticamente) {
+        this.prenotaAutomaticamente = prenotaAutomaticamente;
+    }
+
+    public StatoAttesa getStato() {
+        return stato;
+    }
+
+    public void setStato(StatoAttesa stato) {
+        this.stato = stato;
+    }
+
+    public Long getPrenotazioneId() {
+        return prenotazioneId;
+    }
+
+    public void setPrenotazioneId(Long prenotazioneId) {
+        this.prenotazioneId = prenotazioneId;
+    }
+
+    public LocalDateTime getDataCreazione() {
+        return dataCreazione;
+    }
+
+    public LocalDateTime getDataAggiornamento() {
+        return dataAggiornamento;
+    }
+
+    public void setDataAggiornamento(LocalDateTime dataAggiornamento) {
+        this.dataAggiornamento = dataAggiornamento;
+    }
+}
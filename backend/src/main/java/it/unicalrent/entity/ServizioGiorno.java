@@ -54,6 +54,14 @@ public class ServizioGiorno {
     @Column(name = "numero_prenotazioni", nullable = false)
     private Integer numeroPrenotazioni = 0;
 
+    /**
+     * Maschera delle fasce orarie occupate nel giorno: il bit h indica l'ora [h:00, h+1:00).
+     * Le righe preesistenti ricevono il default "tutto occupato", che è conservativo
+     * finché i contatori non vengono ricalcolati.
+     */
+    @Column(name = "fasce_occupate", nullable = false, columnDefinition = "integer default 16777215")
+    private Integer fasceOccupate = 0;
+
     public ServizioGiorno() {
     }
 
@@ -61,6 +69,7 @@ public class ServizioGiorno {
         this.veicolo = veicolo;
         this.data = data;
         this.numeroPrenotazioni = 0;
+        this.fasceOccupate = 0;
     }
 
 
@@ -96,6 +105,25 @@ public class ServizioGiorno {
         this.numeroPrenotazioni = numeroPrenotazioni;
     }
 
+    public Integer getFasceOccupate() {
+        return fasceOccupate;
+    }
+
+    public void setFasceOccupate(Integer fasceOccupate) {
+        this.fasceOccupate = fasceOccupate;
+    }
+
+    /**
+     * Indica se nel giorno risultano prenotazioni che toccano almeno una delle fasce indicate.
+     */
+    public boolean occupaFasce(int maschera) {
+        return numeroPrenotazioni > 0 && (fasceOccupate & maschera) != 0;
+    }
+
+    public void aggiungiFasce(int maschera) {
+        this.fasceOccupate = this.fasceOccupate | maschera;
+    }
+
     public Integer incrementaPrenotazioni() {
         this.numeroPrenotazioni = this.numeroPrenotazioni + 1;
         return this.numeroPrenotazioni;
@@ -0,0 +1,9 @@
+package it.unicalrent.entity;
+
+public enum StatoAttesa {
+    IN_ATTESA,
+    PRENOTATA,
+    NOTIFICATA,
+    ANNULLATA,
+    SCADUTA
+}
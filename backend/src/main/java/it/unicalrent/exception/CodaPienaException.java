@@ -0,0 +1,12 @@
+package it.unicalrent.exception;
+
+/**
+ * Eccezione usata per segnalare che una coda di elaborazione è piena
+ * e la richiesta va ripetuta più tardi.
+ */
+public class CodaPienaException extends RuntimeException {
+
+    public CodaPienaException(String message) {
+        super(message);
+    }
+}
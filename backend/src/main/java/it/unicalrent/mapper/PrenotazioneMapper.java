@@ -28,6 +28,7 @@ public class PrenotazioneMapper {
         dto.setStato(prenotazione.getStato());
         dto.setCostoTotale(prenotazione.getCostoTotale());
         dto.setNote(prenotazione.getNote());
+        dto.setSerieId(prenotazione.getSerieId());
 
         dto.setDataCreazione(prenotazione.getDataCreazione() != null ?
                 prenotazione.getDataCreazione() : prenotazione.getDataInizio());
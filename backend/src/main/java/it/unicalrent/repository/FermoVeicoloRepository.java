@@ -0,0 +1,65 @@
+package it.unicalrent.repository;
+
+import it.unicalrent.entity.FermoVeicolo;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Repository dei fermi programmati dei veicoli.
+ */
+@Repository
+public interface FermoVeicoloRepository extends JpaRepository<FermoVeicolo, Long> {
+
+    /**
+     * Primo intero della chiave dei lock advisory sui fermi: lo spazio a due interi di PostgreSQL
+     * non si sovrappone a quello a un bigint usato per i lock advisory per veicolo.
+     */
+    int CHIAVE_LOCK_FERMI = 4608589;
+
+    /**
+     * Lock advisory condiviso sui fermi del veicolo, rilasciato al termine della transazione:
+     * le prenotazioni non si bloccano tra loro, ma attendono la creazione di un fermo in corso.
+     */
+    @Query(value = "SELECT 1 FROM pg_advisory_xact_lock_shared(" + CHIAVE_LOCK_FERMI + ", CAST(:veicoloId % 2147483647 AS integer))",
+           nativeQuery = true)
+    Integer lockCondivisoTransazione(@Param("veicoloId") Long veicoloId);
+
+    /**
+     * Lock advisory esclusivo sui fermi del veicolo, preso da chi crea un fermo: attende le prenotazioni
+     * in corso, che al commit risultano tra quelle da annullare.
+     */
+    @Query(value = "SELECT 1 FROM pg_advisory_xact_lock(" + CHIAVE_LOCK_FERMI + ", CAST(:veicoloId % 2147483647 AS integer))",
+           nativeQuery = true)
+    Integer lockEsclusivoTransazione(@Param("veicoloId") Long veicoloId);
+
+    /**
+     * Indica se il veicolo ha un fermo che si sovrappone a [inizio, fine).
+     */
+    boolean existsByVeicoloIdAndDataInizioLessThanAndDataFineGreaterThan(Long veicoloId, LocalDateTime fine, LocalDateTime inizio);
+
+    /**
+     * Fermi dei veicoli indicati che si sovrappongono a [inizio, fine).
+     */
+    List<FermoVeicolo> findByVeicoloIdInAndDataInizioLessThanAndDataFineGreaterThan(
+            Collection<Long> veicoliIds, LocalDateTime fine, LocalDateTime inizio);
+
+    /**
+     * Intervalli (id, veicoloId, inizio, fine) dei fermi che terminano dopo l'istante indicato,
+     * senza caricare le entity. Usato per l'indice in memoria.
+     */
+    @Query("SELECT f.id, f.veicoloId, f.dataInizio, f.dataFine FROM FermoVeicolo f WHERE f.dataFine > :da")
+    List<Object[]> findIntervalliDopo(@Param("da") LocalDateTime da);
+
+    /**
+     * Fermi non ancora conclusi, eventualmente di un solo veicolo, in ordine di inizio.
+     */
+    @Query("SELECT f FROM FermoVeicolo f WHERE f.dataFine > :da " +
+           "AND (:veicoloId IS NULL OR f.veicoloId = :veicoloId) ORDER BY f.dataInizio, f.id")
+    List<FermoVeicolo> findNonConclusi(@Param("da") LocalDateTime da, @Param("veicoloId") Long veicoloId);
+}
@@ -0,0 +1,61 @@
+package it.unicalrent.repository;
+
+import it.unicalrent.entity.RichiestaAttesa;
+import it.unicalrent.entity.StatoAttesa;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Repository delle richieste in lista d'attesa.
+ */
+@Repository
+public interface ListaAttesaRepository extends JpaRepository<RichiestaAttesa, Long> {
+
+    List<RichiestaAttesa> findByStato(StatoAttesa stato);
+
+    /**
+     * Richieste nello stato indicato registrate dopo l'istante dato, anche da altre istanze.
+     */
+    List<RichiestaAttesa> findByStatoAndDataCreazioneAfter(StatoAttesa stato, LocalDateTime da);
+
+    List<RichiestaAttesa> findByUtenteIdOrderByDataCreazioneDesc(String utenteId);
+
+    long countByUtenteIdAndStato(String utenteId, StatoAttesa stato);
+
+    /**
+     * Chiude una richiesta solo se è ancora in attesa, così due istanze non la evadono entrambe.
+     *
+     * @return 1 se la richiesta è stata chiusa, 0 se era già stata chiusa
+     */
+    @Modifying
+    @Query("UPDATE RichiestaAttesa r SET r.stato = :stato, r.prenotazioneId = :prenotazioneId, r.dataAggiornamento = :adesso " +
+           "WHERE r.id = :id AND r.stato = it.unicalrent.entity.StatoAttesa.IN_ATTESA")
+    int chiudi(@Param("id") Long id,
+               @Param("stato") StatoAttesa stato,
+               @Param("prenotazioneId") Long prenotazioneId,
+               @Param("adesso") LocalDateTime adesso);
+
+    /**
+     * Ritira una richiesta dell'utente solo se è ancora in attesa, qualunque istanza l'abbia registrata.
+     *
+     * @return 1 se la richiesta è stata ritirata, 0 se non esiste, non è dell'utente o non è più in attesa
+     */
+    @Modifying
+    @Query("UPDATE RichiestaAttesa r SET r.stato = it.unicalrent.entity.StatoAttesa.ANNULLATA, r.dataAggiornamento = :adesso " +
+           "WHERE r.id = :id AND r.utenteId = :utenteId AND r.stato = it.unicalrent.entity.StatoAttesa.IN_ATTESA")
+    int annulla(@Param("id") Long id, @Param("utenteId") String utenteId, @Param("adesso") LocalDateTime adesso);
+
+    /**
+     * Segna come scadute le richieste il cui intervallo è già iniziato.
+     */
+    @Modifying
+    @Query("UPDATE RichiestaAttesa r SET r.stato = it.unicalrent.entity.StatoAttesa.SCADUTA, r.dataAggiornamento = :adesso " +
+           "WHERE r.stato = it.unicalrent.entity.StatoAttesa.IN_ATTESA AND r.dataInizio <= :adesso")
+    int scadi(@Param("adesso") LocalDateTime adesso);
+}
@@ -3,11 +3,15 @@ package it.unicalrent.repository;
 import it.unicalrent.entity.Prenotazione;
 import it.unicalrent.entity.StatoPrenotazione;
 import it.unicalrent.entity.Veicolo;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 public interface PrenotazioneRepository extends JpaRepository<Prenotazione, Long> {
@@ -22,6 +26,11 @@ public interface PrenotazioneRepository extends JpaRepository<Prenotazione, Long
      */
     List<Prenotazione> findByVeicoloId(Long veicoloId);
 
+    /**
+     * Tutte le occorrenze di una serie ricorrente, in ordine di inizio.
+     */
+    List<Prenotazione> findBySerieIdOrderByDataInizio(String serieId);
+
     /**
      * Controlla se esiste una prenotazione ATTIVA sullo stesso veicolo che
      * inizi prima di dataFine e finisca dopo dataInizio (overlap).
@@ -33,6 +42,17 @@ public interface PrenotazioneRepository extends JpaRepository<Prenotazione, Long
             LocalDateTime dataInizio
     );
 
+    /**
+     * Come il precedente, escludendo la prenotazione indicata: usato quando la si sposta.
+     */
+    boolean existsByVeicoloAndStatoAndIdNotAndDataInizioLessThanAndDataFineGreaterThan(
+            Veicolo veicolo,
+            StatoPrenotazione stato,
+            Long id,
+            LocalDateTime dataFine,
+            LocalDateTime dataInizio
+    );
+
     /**
      * Trova tutte le prenotazioni attive (usato per gli ADMIN).
      */
@@ -67,9 +87,52 @@ public interface PrenotazioneRepository extends JpaRepository<Prenotazione, Long
         @Param("fine") LocalDateTime fine
     );
 
+    /**
+     * Prenotazioni ATTIVE non ancora iniziate dei veicoli indicati che si sovrappongono a [inizio, fine),
+     * con un'unica query per tutti i veicoli. Le righe restano bloccate fino al commit, così non possono
+     * essere annullate o modificate da altre transazioni nel frattempo.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT p FROM Prenotazione p WHERE p.veicolo.id IN :veicoliIds " +
+           "AND p.stato = it.unicalrent.entity.StatoPrenotazione.ATTIVA " +
+           "AND p.dataInizio > :adesso AND p.dataInizio < :fine AND p.dataFine > :inizio ORDER BY p.id")
+    List<Prenotazione> findFutureNelPeriodoPerAggiornamento(
+        @Param("veicoliIds") Collection<Long> veicoliIds,
+        @Param("adesso") LocalDateTime adesso,
+        @Param("inizio") LocalDateTime inizio,
+        @Param("fine") LocalDateTime fine
+    );
+
+    /**
+     * Annulla in blocco le prenotazioni indicate ancora ATTIVE.
+     *
+     * @return il numero di prenotazioni annullate
+     */
+    @Modifying
+    @Query("UPDATE Prenotazione p SET p.stato = it.unicalrent.entity.StatoPrenotazione.ANNULLATA, p.version = p.version + 1 " +
+           "WHERE p.id IN :ids AND p.stato = it.unicalrent.entity.StatoPrenotazione.ATTIVA")
+    int annullaAttive(@Param("ids") Collection<Long> ids);
+
     /**
      * Trova tutte le prenotazioni con un determinato stato e data fine precedente a quella specificata.
      */
     List<Prenotazione> findByStatoAndDataFineBefore(StatoPrenotazione stato, LocalDateTime dataFine);
 
+    /**
+     * Restituisce (id, veicoloId, dataInizio, dataFine) delle prenotazioni in un dato stato,
+     * senza idratare le entità. Usato per caricare l'indice in memoria.
+     */
+    @Query("SELECT p.id, p.veicolo.id, p.dataInizio, p.dataFine FROM Prenotazione p WHERE p.stato = :stato")
+    List<Object[]> findIntervalliByStato(@Param("stato") StatoPrenotazione stato);
+
+    /**
+     * Come {@link #findIntervalliByStato}, limitato a un singolo veicolo.
+     */
+    @Query("SELECT p.id, p.veicolo.id, p.dataInizio, p.dataFine FROM Prenotazione p " +
+           "WHERE p.veicolo.id = :veicoloId AND p.stato = :stato")
+    List<Object[]> findIntervalliByVeicoloIdAndStato(
+        @Param("veicoloId") Long veicoloId,
+        @Param("stato") StatoPrenotazione stato
+    );
+
 }
\ No newline at end of file
@@ -2,10 +2,17 @@ package it.unicalrent.repository;
 
 import it.unicalrent.entity.ServizioGiorno;
 import it.unicalrent.entity.Veicolo;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -20,4 +27,114 @@ public interface ServizioGiornoRepository extends JpaRepository<ServizioGiorno,
      * @return Optional contenente il ServizioGiorno se esistente, altrimenti vuoto
      */
     Optional<ServizioGiorno> findByVeicoloAndData(Veicolo veicolo, LocalDate data);
-}
\ No newline at end of file
+
+    /**
+     * Restituisce i contatori del veicolo compresi tra due date (estremi inclusi),
+     * ordinati per data.
+     */
+    List<ServizioGiorno> findByVeicoloAndDataBetweenOrderByData(Veicolo veicolo, LocalDate da, LocalDate a);
+
+    /**
+     * Restituisce i contatori del veicolo per le sole date indicate.
+     */
+    List<ServizioGiorno> findByVeicoloAndDataIn(Veicolo veicolo, Collection<LocalDate> date);
+
+    /**
+     * Come {@link #findByVeicoloAndDataIn}, ma la versione delle righe lette viene incrementata al commit
+     * anche se non cambiano: due transazioni che leggono gli stessi giorni vanno in conflitto ottimistico.
+     */
+    @Lock(LockModeType.OPTIMISTIC_FORCE_INCREMENT)
+    @Query("SELECT sg FROM ServizioGiorno sg WHERE sg.veicolo = :veicolo AND sg.data IN :date")
+    List<ServizioGiorno> findConVersioneByVeicoloAndDataIn(@Param("veicolo") Veicolo veicolo, @Param("date") Collection<LocalDate> date);
+
+    /**
+     * Incrementa con un'unica istruzione i contatori di tutti i giorni tra da e a (estremi inclusi),
+     * creando le righe mancanti. Il primo e l'ultimo giorno ricevono le rispettive maschere orarie,
+     * i giorni intermedi sono occupati per intero.
+     *
+     * @return numero di righe inserite o aggiornate
+     */
+    @Modifying
+    @Query(value = "INSERT INTO servizio_giorno (veicolo_id, data, numero_prenotazioni, fasce_occupate, version) " +
+            "SELECT :veicoloId, CAST(g.giorno AS date), 1, " +
+            "CASE WHEN CAST(g.giorno AS date) = :da THEN :mascheraPrimo " +
+            "WHEN CAST(g.giorno AS date) = :a THEN :mascheraUltimo " +
+            "ELSE 16777215 END, 0 " +
+            "FROM generate_series(CAST(:da AS timestamp), CAST(:a AS timestamp), interval '1 day') AS g(giorno) " +
+            "ON CONFLICT (veicolo_id, data) DO UPDATE SET " +
+            "numero_prenotazioni = servizio_giorno.numero_prenotazioni + 1, " +
+            "fasce_occupate = servizio_giorno.fasce_occupate | EXCLUDED.fasce_occupate, " +
+            "version = servizio_giorno.version + 1",
+            nativeQuery = true)
+    int incrementaIntervallo(
+            @Param("veicoloId") Long veicoloId,
+            @Param("da") LocalDate da,
+            @Param("a") LocalDate a,
+            @Param("mascheraPrimo") int mascheraPrimo,
+            @Param("mascheraUltimo") int mascheraUltimo
+    );
+
+    /**
+     * Incrementa con un'unica istruzione la versione dei contatori del veicolo tra due date
+     * (estremi inclusi), senza cambiarne il contenuto: le transazioni ottimistiche che avevano letto
+     * le stesse righe falliscono e ritentano.
+     *
+     * @return numero di righe aggiornate
+     */
+    @Modifying
+    @Query(value = "UPDATE servizio_giorno SET version = version + 1 " +
+            "WHERE veicolo_id = :veicoloId AND data BETWEEN :da AND :a",
+            nativeQuery = true)
+    int incrementaVersioneIntervallo(
+            @Param("veicoloId") Long veicoloId,
+            @Param("da") LocalDate da,
+            @Param("a") LocalDate a
+    );
+
+    /**
+     * Blocca (SELECT ... FOR UPDATE) i contatori del veicolo tra due date. Eseguito prima di
+     * {@link #decrementaIntervallo}, fa sì che quest'ultima parta da uno snapshot che include
+     * ogni prenotazione già registrata su quei giorni.
+     *
+     * @return numero di righe bloccate
+     */
+    @Query(value = "SELECT count(*) FROM (SELECT 1 FROM servizio_giorno " +
+            "WHERE veicolo_id = :veicoloId AND data BETWEEN :da AND :a FOR UPDATE) AS bloccate",
+            nativeQuery = true)
+    long bloccaIntervallo(
+            @Param("veicoloId") Long veicoloId,
+            @Param("da") LocalDate da,
+            @Param("a") LocalDate a
+    );
+
+    /**
+     * Decrementa con un'unica istruzione i contatori di tutti i giorni tra da e a (estremi inclusi)
+     * e ricalcola la maschera oraria di ciascun giorno dalle altre prenotazioni ATTIVE del veicolo,
+     * esclusa quella indicata. La versione viene incrementata, così le transazioni ottimistiche
+     * che avevano letto le stesse righe falliscono e ritentano.
+     *
+     * @return numero di righe aggiornate
+     */
+    @Modifying
+    @Query(value = "UPDATE servizio_giorno sg SET " +
+            "numero_prenotazioni = GREATEST(sg.numero_prenotazioni - 1, 0), " +
+            "fasce_occupate = COALESCE((" +
+            "SELECT bit_or(((1 << (o.ultima - o.prima + 1)) - 1) << o.prima) " +
+            "FROM prenotazioni p CROSS JOIN LATERAL (SELECT " +
+            "CASE WHEN p.data_inizio > CAST(sg.data AS timestamp) " +
+            "THEN CAST(EXTRACT(HOUR FROM p.data_inizio) AS integer) ELSE 0 END AS prima, " +
+            "CASE WHEN p.data_fine >= CAST(sg.data + 1 AS timestamp) " +
+            "THEN 23 ELSE CAST(EXTRACT(HOUR FROM p.data_fine - interval '1 microsecond') AS integer) END AS ultima) o " +
+            "WHERE p.veicolo_id = sg.veicolo_id AND p.stato = 'ATTIVA' AND p.id <> :prenotazioneId " +
+            "AND p.data_inizio < CAST(sg.data + 1 AS timestamp) AND p.data_fine > CAST(sg.data AS timestamp)" +
+            "), 0), " +
+            "version = sg.version + 1 " +
+            "WHERE sg.veicolo_id = :veicoloId AND sg.data BETWEEN :da AND :a",
+            nativeQuery = true)
+    int decrementaIntervallo(
+            @Param("veicoloId") Long veicoloId,
+            @Param("prenotazioneId") Long prenotazioneId,
+            @Param("da") LocalDate da,
+            @Param("a") LocalDate a
+    );
+}
@@ -1,9 +1,15 @@
 package it.unicalrent.repository;
 
+import it.unicalrent.entity.StatoPrenotazione;
 import it.unicalrent.entity.Veicolo;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -41,4 +47,47 @@ public interface VeicoloRepository extends JpaRepository<Veicolo, Long> {
     List<Veicolo> findByAttivoTrueAndTipoAndAlimentazione(String tipo, String alimentazione);
 
     Optional<Veicolo> findByIdAndAttivoTrue(Long id);
-}
\ No newline at end of file
+
+    /**
+     * Veicoli attivi senza prenotazioni nello stato indicato che si sovrappongono a [inizio, fine),
+     * con filtri opzionali (null = nessun filtro) su tipo, alimentazione e posti minimi.
+     * Un'unica query con anti-join sulle prenotazioni e sui fermi del veicolo.
+     */
+    @Query("SELECT v FROM Veicolo v WHERE v.attivo = true " +
+            "AND (:tipo IS NULL OR v.tipo = :tipo) " +
+            "AND (:alimentazione IS NULL OR v.alimentazione = :alimentazione) " +
+            "AND (:postiMin IS NULL OR v.posti >= :postiMin) " +
+            "AND NOT EXISTS (SELECT 1 FROM Prenotazione p WHERE p.veicolo = v AND p.stato = :stato " +
+            "AND p.dataInizio < :fine AND p.dataFine > :inizio) " +
+            "AND NOT EXISTS (SELECT 1 FROM FermoVeicolo f WHERE f.veicoloId = v.id " +
+            "AND f.dataInizio < :fine AND f.dataFine > :inizio) " +
+            "ORDER BY v.id")
+    List<Veicolo> findDisponibiliNelPeriodo(
+            @Param("inizio") LocalDateTime inizio,
+            @Param("fine") LocalDateTime fine,
+            @Param("tipo") String tipo,
+            @Param("alimentazione") String alimentazione,
+            @Param("postiMin") Integer postiMin,
+            @Param("stato") StatoPrenotazione stato
+    );
+
+    /**
+     * Legge il veicolo con SELECT ... FOR UPDATE, bloccando la riga fino al termine della transazione.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT v FROM Veicolo v WHERE v.id = :id")
+    Optional<Veicolo> findByIdPerAggiornamento(@Param("id") Long id);
+
+    /**
+     * Acquisisce il lock advisory di PostgreSQL associato al veicolo,
+     * rilasciato automaticamente al termine della transazione.
+     */
+    @Query(value = "SELECT 1 FROM pg_advisory_xact_lock(:veicoloId)", nativeQuery = true)
+    Integer lockAdvisoryTransazione(@Param("veicoloId") Long veicoloId);
+
+    /**
+     * Id di tutti i veicoli, attivi e non, in ordine crescente.
+     */
+    @Query("SELECT v.id FROM Veicolo v ORDER BY v.id")
+    List<Long> findAllIds();
+}
@@ -0,0 +1,24 @@
+package it.unicalrent.security;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Registra il controllo di ammissione sugli endpoint di creazione delle prenotazioni.
+ */
+@Configuration
+public class ConfigurazioneWeb implements WebMvcConfigurer {
+
+    private final ControlloAmmissionePrenotazioni controlloAmmissione;
+
+    public ConfigurazioneWeb(ControlloAmmissionePrenotazioni controlloAmmissione) {
+        this.controlloAmmissione = controlloAmmissione;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(controlloAmmissione)
+                .addPathPatterns("/api/prenotazioni", "/api/prenotazioni/lotto", "/api/prenotazioni/serie", "/api/prenotazioni/opzioni/*/conferma");
+    }
+}
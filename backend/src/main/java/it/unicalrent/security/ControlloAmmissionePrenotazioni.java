@@ -0,0 +1,200 @@
+package it.unicalrent.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.unicalrent.service.RegistroOpzioni;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Controllo di ammissione sulla creazione delle prenotazioni, applicato prima di entrare nel servizio:
+ * - un token bucket per utente (subject del JWT) limita la frequenza dei tentativi;
+ * - un tetto ai tentativi contemporanei per veicolo impedisce che un veicolo conteso occupi
+ *   tutte le connessioni al database. Il veicolo è letto dal parametro veicoloId o, per la conferma
+ *   di un'opzione, dall'opzione stessa. Lotti e serie hanno il veicolo nel corpo e sono limitati
+ *   solo dal token bucket: attendono comunque i lock dei loro veicoli prima di aprire la transazione.
+ * Le richieste in eccesso ricevono subito 429 con Retry-After. Limiti in {@code unicalrent.ammissione.*}.
+ */
+@Component
+public class ControlloAmmissionePrenotazioni implements HandlerInterceptor {
+
+    private static final String ATTRIBUTO_VEICOLO = ControlloAmmissionePrenotazioni.class.getName() + ".veicolo";
+    private static final long INATTIVITA_SECCHIO_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    /**
+     * Token bucket di un utente: si ricarica in modo continuo fino alla capacità massima.
+     */
+    private static final class Secchio {
+
+        private double gettoni;
+        private long ultimaRicarica;
+
+        Secchio(double capacita, long adesso) {
+            this.gettoni = capacita;
+            this.ultimaRicarica = adesso;
+        }
+
+        /**
+         * Consuma un gettone se disponibile.
+         *
+         * @return 0 se la richiesta è ammessa, altrimenti i secondi di attesa per il prossimo gettone
+         */
+        synchronized long consuma(double capacita, double gettoniAlSecondo, long adesso) {
+            gettoni = Math.min(capacita, gettoni + (adesso - ultimaRicarica) / 1e9 * gettoniAlSecondo);
+            ultimaRicarica = adesso;
+            if (gettoni >= 1) {
+                gettoni -= 1;
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((1 - gettoni) / gettoniAlSecondo));
+        }
+
+        synchronized boolean inattivo(long adesso) {
+            return adesso - ultimaRicarica > INATTIVITA_SECCHIO_NANOS;
+        }
+    }
+
+    private final ObjectMapper objectMapper;
+    private final RegistroOpzioni registroOpzioni;
+    private final boolean abilitato;
+    private final double capacita;
+    private final double gettoniAlSecondo;
+    private final int massimoInVoloPerVeicolo;
+
+    private final Map<String, Secchio> secchi = new ConcurrentHashMap<>();
+    private final Map<Long, AtomicInteger> inVolo = new ConcurrentHashMap<>();
+    private final AtomicInteger inVoloTotale = new AtomicInteger();
+
+    private final Counter rifiutateUtente;
+    private final Counter rifiutateVeicolo;
+
+    public ControlloAmmissionePrenotazioni(ObjectMapper objectMapper,
+                                           RegistroOpzioni registroOpzioni,
+                                           MeterRegistry registry,
+                                           @Value("${unicalrent.ammissione.abilitata:true}") boolean abilitato,
+                                           @Value("${unicalrent.ammissione.richieste-al-minuto:30}") int richiesteAlMinuto,
+                                           @Value("${unicalrent.ammissione.raffica:10}") int raffica,
+                                           @Value("${unicalrent.ammissione.max-in-volo-per-veicolo:4}") int massimoInVoloPerVeicolo) {
+        this.objectMapper = objectMapper;
+        this.registroOpzioni = registroOpzioni;
+        this.abilitato = abilitato;
+        this.capacita = raffica;
+        this.gettoniAlSecondo = richiesteAlMinuto / 60.0;
+        this.massimoInVoloPerVeicolo = massimoInVoloPerVeicolo;
+
+        this.rifiutateUtente = Counter.builder("unicalrent.prenotazioni.ammissione.rifiutate")
+                .description("Richieste di prenotazione rifiutate dal controllo di ammissione")
+                .tag("motivo", "utente")
+                .register(registry);
+        this.rifiutateVeicolo = Counter.builder("unicalrent.prenotazioni.ammissione.rifiutate")
+                .description("Richieste di prenotazione rifiutate dal controllo di ammissione")
+                .tag("motivo", "veicolo")
+                .register(registry);
+        Gauge.builder("unicalrent.prenotazioni.ammissione.in-volo", inVoloTotale, AtomicInteger::get)
+                .description("Tentativi di prenotazione in corso")
+                .register(registry);
+        Gauge.builder("unicalrent.prenotazioni.ammissione.utenti", secchi, Map::size)
+                .description("Utenti con un token bucket attivo")
+                .register(registry);
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws IOException {
+        if (!abilitato || !"POST".equals(request.getMethod())) {
+            return true;
+        }
+        Authentication autenticazione = SecurityContextHolder.getContext().getAuthentication();
+        if (autenticazione == null || !autenticazione.isAuthenticated()) {
+            // l'accesso viene negato più avanti dalla sicurezza sui metodi
+            return true;
+        }
+
+        long adesso = System.nanoTime();
+        long attesa = secchi.computeIfAbsent(autenticazione.getName(), u -> new Secchio(capacita, adesso))
+                .consuma(capacita, gettoniAlSecondo, adesso);
+        if (attesa > 0) {
+            rifiutateUtente.increment();
+            rifiuta(response, attesa, "Troppe richieste di prenotazione, riprova tra " + attesa + " secondi");
+            return false;
+        }
+
+        Long veicoloId = veicoloRichiesto(request, autenticazione.getName());
+        if (veicoloId == null) {
+            return true;
+        }
+        AtomicInteger contatore = inVolo.computeIfAbsent(veicoloId, id -> new AtomicInteger());
+        if (contatore.incrementAndGet() > massimoInVoloPerVeicolo) {
+            contatore.decrementAndGet();
+            rifiutateVeicolo.increment();
+            rifiuta(response, 1, "Troppe richieste contemporanee sul veicolo, riprova tra qualche istante");
+            return false;
+        }
+        inVoloTotale.incrementAndGet();
+        request.setAttribute(ATTRIBUTO_VEICOLO, veicoloId);
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        if (request.getAttribute(ATTRIBUTO_VEICOLO) instanceof Long veicoloId) {
+            inVoloTotale.decrementAndGet();
+            // i contatori non vengono mai rimossi: sono uno per veicolo della flotta
+            inVolo.get(veicoloId).decrementAndGet();
+        }
+    }
+
+    /**
+     * Rimuove i token bucket degli utenti inattivi, che ormai sarebbero comunque pieni.
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void rimuoviSecchiInattivi() {
+        long adesso = System.nanoTime();
+        secchi.values().removeIf(s -> s.inattivo(adesso));
+    }
+
+    private Long veicoloRichiesto(HttpServletRequest request, String userId) {
+        if (request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE) instanceof Map<?, ?> variabili
+                && variabili.get("id") instanceof String opzioneId) {
+            // conferma di un'opzione: il veicolo è quello opzionato
+            return registroOpzioni.trova(opzioneId, userId).map(RegistroOpzioni.Opzione::veicoloId).orElse(null);
+        }
+        String veicoloId = request.getParameter("veicoloId");
+        if (veicoloId == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(veicoloId);
+        } catch (NumberFormatException e) {
+            // il controller risponderà con l'errore di validazione
+            return null;
+        }
+    }
+
+    private void rifiuta(HttpServletResponse response, long secondi, String messaggio) throws IOException {
+        Map<String, Object> errore = new HashMap<>();
+        errore.put("tipo", "TOO_MANY_REQUESTS");
+        errore.put("messaggio", messaggio);
+        response.setStatus(429);
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(secondi));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), errore);
+    }
+}
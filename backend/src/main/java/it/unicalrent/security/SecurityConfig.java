@@ -37,6 +37,8 @@ public class SecurityConfig {
                     configuration.setAllowedOrigins(List.of("http://localhost:5173"));
                     configuration.setAllowedMethods(List.of("GET", "POST", "PUT", "DELETE", "OPTIONS"));
                     configuration.setAllowedHeaders(List.of("*"));
+                    // il client legge Retry-After sulle risposte 429 del controllo di ammissione
+                    configuration.setExposedHeaders(List.of("Retry-After"));
                     configuration.setAllowCredentials(true);
                     return configuration;
                 }))
@@ -50,6 +52,8 @@ public class SecurityConfig {
                         ).permitAll()
                         .requestMatchers(HttpMethod.OPTIONS, "/**").permitAll()
                         .requestMatchers("/", "/index.html", "/css/**", "/js/**", "/images/**").permitAll()
+                        .requestMatchers("/actuator/health").permitAll()
+                        .requestMatchers("/actuator/**").hasRole("ADMIN")
                         .requestMatchers(HttpMethod.GET, "/api/utenti/me").authenticated()
                         .requestMatchers(HttpMethod.GET, "/api/veicoli/**").permitAll()
                         .requestMatchers("/api/veicoli/**").hasRole("ADMIN")
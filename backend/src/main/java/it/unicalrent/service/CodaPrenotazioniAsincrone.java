@@ -0,0 +1,212 @@
+package it.unicalrent.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import it.unicalrent.dto.TicketPrenotazioneDTO;
+import it.unicalrent.entity.Prenotazione;
+import it.unicalrent.exception.BookingConflictException;
+import it.unicalrent.exception.CodaPienaException;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Pipeline asincrona delle prenotazioni: le richieste vengono accodate e restituiscono subito
+ * un ticket, mentre un gruppo di worker le elabora. Ogni veicolo è assegnato sempre allo stesso
+ * worker, così le richieste sullo stesso veicolo vengono eseguite in sequenza senza contesa.
+ * Le code sono limitate: a coda piena la richiesta viene rifiutata (backpressure).
+ * Attiva solo con {@code unicalrent.prenotazioni.async.abilitata=true}.
+ */
+@Component
+public class CodaPrenotazioniAsincrone {
+
+    private static final Logger logger = LoggerFactory.getLogger(CodaPrenotazioniAsincrone.class);
+
+    private final PrenotazioneService prenotazioneService;
+    private final boolean abilitata;
+    private final long ttlTicketMinuti;
+
+    private final ThreadPoolExecutor[] worker;
+    private final Map<String, Ticket> ticket = new ConcurrentHashMap<>();
+
+    private final Counter rifiutate;
+    private final Timer elaborazione;
+
+    /**
+     * Ticket con l'utente proprietario, che non viene esposto al client. Il DTO pubblicato nella mappa
+     * non viene più modificato: ogni cambio di stato ne pubblica una copia aggiornata.
+     */
+    private record Ticket(String userId, TicketPrenotazioneDTO dto) {
+    }
+
+    public CodaPrenotazioniAsincrone(PrenotazioneService prenotazioneService,
+                                     MeterRegistry registry,
+                                     @Value("${unicalrent.prenotazioni.async.abilitata:false}") boolean abilitata,
+                                     @Value("${unicalrent.prenotazioni.async.worker:4}") int numeroWorker,
+                                     @Value("${unicalrent.prenotazioni.async.capacita-coda:500}") int capacitaCoda,
+                                     @Value("${unicalrent.prenotazioni.async.ttl-ticket-minuti:60}") long ttlTicketMinuti) {
+        this.prenotazioneService = prenotazioneService;
+        this.abilitata = abilitata;
+        this.ttlTicketMinuti = ttlTicketMinuti;
+
+        int numero = abilitata ? numeroWorker : 0;
+        int capacitaPerWorker = Math.max(1, capacitaCoda / Math.max(1, numeroWorker));
+        this.worker = new ThreadPoolExecutor[numero];
+        for (int i = 0; i < numero; i++) {
+            int indice = i;
+            worker[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(capacitaPerWorker),
+                    r -> {
+                        Thread t = new Thread(r, "prenotazioni-async-" + indice);
+                        t.setDaemon(true);
+                        return t;
+                    });
+        }
+
+        this.rifiutate = Counter.builder("unicalrent.prenotazioni.async.rifiutate")
+                .description("Richieste asincrone rifiutate per coda piena")
+                .register(registry);
+        this.elaborazione = Timer.builder("unicalrent.prenotazioni.async.elaborazione")
+                .description("Tempo di elaborazione delle richieste asincrone")
+                .register(registry);
+        Gauge.builder("unicalrent.prenotazioni.async.coda", this, CodaPrenotazioniAsincrone::profondita)
+                .description("Richieste asincrone in attesa di elaborazione")
+                .register(registry);
+    }
+
+    public boolean isAbilitata() {
+        return abilitata;
+    }
+
+    /**
+     * Accoda una richiesta di prenotazione per l'utente autenticato corrente.
+     *
+     * @return il ticket da consultare per conoscere l'esito
+     * @throws CodaPienaException se la coda del veicolo è piena
+     */
+    public TicketPrenotazioneDTO accoda(String userId, Long veicoloId, LocalDateTime inizio, LocalDateTime fine) {
+        if (!abilitata) {
+            throw new IllegalStateException("Modalità asincrona non abilitata");
+        }
+
+        TicketPrenotazioneDTO dto = new TicketPrenotazioneDTO();
+        dto.setId(UUID.randomUUID().toString());
+        dto.setStato(TicketPrenotazioneDTO.Stato.IN_CODA);
+        dto.setVeicoloId(veicoloId);
+        dto.setInizio(inizio);
+        dto.setFine(fine);
+        dto.setDataCreazione(LocalDateTime.now());
+        dto.setDataAggiornamento(dto.getDataCreazione());
+
+        // il worker non ha contesto di sicurezza: riuso l'autenticazione del chiamante
+        Authentication autenticazione = SecurityContextHolder.getContext().getAuthentication();
+        ticket.put(dto.getId(), new Ticket(userId, dto));
+        try {
+            worker[Math.floorMod(Long.hashCode(veicoloId), worker.length)]
+                    .execute(() -> elabora(dto.getId(), autenticazione, userId, veicoloId, inizio, fine));
+        } catch (RejectedExecutionException e) {
+            ticket.remove(dto.getId());
+            rifiutate.increment();
+            throw new CodaPienaException("Troppe richieste in coda, riprova tra qualche istante");
+        }
+        return dto;
+    }
+
+    /**
+     * Restituisce il ticket se esiste ed è dell'utente indicato (o se l'utente è admin).
+     */
+    public Optional<TicketPrenotazioneDTO> getTicket(String ticketId, String userId, boolean admin) {
+        Ticket t = ticket.get(ticketId);
+        if (t == null || (!admin && !t.userId().equals(userId))) {
+            return Optional.empty();
+        }
+        return Optional.of(t.dto());
+    }
+
+    private void elabora(String ticketId, Authentication autenticazione, String userId,
+                         Long veicoloId, LocalDateTime inizioPrenotazione, LocalDateTime finePrenotazione) {
+        aggiorna(ticketId, TicketPrenotazioneDTO.Stato.IN_LAVORAZIONE, dto -> { });
+        SecurityContextHolder.getContext().setAuthentication(autenticazione);
+        long inizio = System.nanoTime();
+        try {
+            Prenotazione p = prenotazioneService.creaPrenotazione(userId, veicoloId, inizioPrenotazione, finePrenotazione);
+            aggiorna(ticketId, TicketPrenotazioneDTO.Stato.COMPLETATA, dto -> dto.setPrenotazioneId(p.getId()));
+        } catch (BookingConflictException e) {
+            fallisci(ticketId, "BOOKING_CONFLICT", e.getMessage());
+        } catch (IllegalArgumentException e) {
+            fallisci(ticketId, "VALIDATION_ERROR", e.getMessage());
+        } catch (Exception e) {
+            logger.warn("Errore nell'elaborazione asincrona del ticket {}", ticketId, e);
+            fallisci(ticketId, "INTERNAL_ERROR", e.getMessage());
+        } finally {
+            SecurityContextHolder.clearContext();
+            elaborazione.record(System.nanoTime() - inizio, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void fallisci(String ticketId, String tipoErrore, String messaggio) {
+        aggiorna(ticketId, TicketPrenotazioneDTO.Stato.FALLITA, dto -> {
+            dto.setTipoErrore(tipoErrore);
+            dto.setMessaggio(messaggio);
+        });
+    }
+
+    /**
+     * Pubblica una copia del ticket con il nuovo stato: chi ha già letto il ticket continua
+     * a serializzare la versione precedente, mai un oggetto modificato a metà.
+     */
+    private void aggiorna(String ticketId, TicketPrenotazioneDTO.Stato stato, Consumer<TicketPrenotazioneDTO> modifica) {
+        ticket.computeIfPresent(ticketId, (id, t) -> {
+            TicketPrenotazioneDTO nuovo = new TicketPrenotazioneDTO(t.dto());
+            modifica.accept(nuovo);
+            nuovo.setStato(stato);
+            nuovo.setDataAggiornamento(LocalDateTime.now());
+            return new Ticket(t.userId(), nuovo);
+        });
+    }
+
+    /**
+     * Rimuove dalla memoria i ticket conclusi da più del TTL configurato.
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void rimuoviTicketScaduti() {
+        LocalDateTime limite = LocalDateTime.now().minusMinutes(ttlTicketMinuti);
+        ticket.values().removeIf(t ->
+                (t.dto().getStato() == TicketPrenotazioneDTO.Stato.COMPLETATA
+                        || t.dto().getStato() == TicketPrenotazioneDTO.Stato.FALLITA)
+                        && t.dto().getDataAggiornamento().isBefore(limite));
+    }
+
+    private int profondita() {
+        int totale = 0;
+        for (ThreadPoolExecutor w : worker) {
+            totale += w.getQueue().size();
+        }
+        return totale;
+    }
+
+    @PreDestroy
+    public void arresta() {
+        for (ThreadPoolExecutor w : worker) {
+            w.shutdown();
+        }
+    }
+}
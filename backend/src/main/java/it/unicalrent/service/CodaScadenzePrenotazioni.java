@@ -0,0 +1,130 @@
+package it.unicalrent.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Completa le prenotazioni nell'istante in cui terminano, invece di attendere il controllo periodico.
+ * Una DelayQueue contiene la data di fine di ogni prenotazione ATTIVA: viene riempita dall'indice
+ * in memoria al caricamento e a ogni creazione o modifica. Quando una scadenza matura, la prenotazione
+ * viene completata solo se l'indice la contiene ancora con la stessa data di fine, così le voci
+ * di prenotazioni annullate o spostate vengono semplicemente scartate.
+ * Il controllo periodico di PrenotazioneSchedulerService resta come rete di sicurezza.
+ */
+@Component
+public class CodaScadenzePrenotazioni {
+
+    private static final Logger logger = LoggerFactory.getLogger(CodaScadenzePrenotazioni.class);
+
+    private static final int MAX_PER_AGGIORNAMENTO = 500;
+
+    private final IndicePrenotazioni indicePrenotazioni;
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean abilitata;
+
+    private final DelayQueue<Scadenza> scadenze = new DelayQueue<>();
+    private Thread worker;
+
+    /**
+     * Data di fine di una prenotazione, matura a partire da quell'istante.
+     */
+    private record Scadenza(Long prenotazioneId, LocalDateTime fine, long istanteNanos) implements Delayed {
+
+        static Scadenza di(Long prenotazioneId, LocalDateTime fine) {
+            long attesa = Duration.between(LocalDateTime.now(), fine).toNanos();
+            return new Scadenza(prenotazioneId, fine, System.nanoTime() + Math.max(0, attesa));
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(istanteNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed altra) {
+            return Long.compare(istanteNanos, ((Scadenza) altra).istanteNanos);
+        }
+    }
+
+    public CodaScadenzePrenotazioni(IndicePrenotazioni indicePrenotazioni,
+                                    JdbcTemplate jdbcTemplate,
+                                    @Value("${unicalrent.scadenze.evento.abilitato:true}") boolean abilitata) {
+        this.indicePrenotazioni = indicePrenotazioni;
+        this.jdbcTemplate = jdbcTemplate;
+        this.abilitata = abilitata;
+        if (abilitata) {
+            indicePrenotazioni.registraAscoltatore(i -> scadenze.put(Scadenza.di(i.id(), i.fine())));
+        }
+    }
+
+    @PostConstruct
+    public void avvia() {
+        if (!abilitata) {
+            return;
+        }
+        worker = new Thread(this::esegui, "scadenze-prenotazioni");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private void esegui() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                List<Scadenza> mature = new ArrayList<>();
+                mature.add(scadenze.take());
+                scadenze.drainTo(mature, MAX_PER_AGGIORNAMENTO - 1);
+                completa(mature);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                logger.error("Errore nel completamento delle prenotazioni scadute", e);
+            }
+        }
+    }
+
+    private void completa(List<Scadenza> mature) {
+        // scarto le voci di prenotazioni non più attive o spostate su un'altra data di fine
+        List<Long> ids = mature.stream()
+                .filter(s -> indicePrenotazioni.trova(s.prenotazioneId())
+                        .map(i -> i.fine().equals(s.fine()))
+                        .orElse(false))
+                .map(Scadenza::prenotazioneId)
+                .toList();
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        String segnaposti = String.join(",", Collections.nCopies(ids.size(), "?"));
+        List<Object> parametri = new ArrayList<>(ids);
+        // tolleranza di un secondo tra l'orologio monotono della coda e quello di sistema
+        parametri.add(Timestamp.valueOf(LocalDateTime.now().plusSeconds(1)));
+        List<Long> completate = jdbcTemplate.queryForList(
+                "UPDATE prenotazioni SET stato = 'COMPLETATA', version = version + 1 " +
+                        "WHERE id IN (" + segnaposti + ") AND stato = 'ATTIVA' AND data_fine <= ? RETURNING id",
+                Long.class, parametri.toArray());
+        completate.forEach(indicePrenotazioni::rimuovi);
+        logger.debug("Completate {} prenotazioni alla scadenza", completate.size());
+    }
+
+    @PreDestroy
+    public void arresta() {
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package it.unicalrent.service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Utility per le maschere di occupazione oraria di un giorno.
+ * Il bit h (0..23) è acceso se la fascia [h:00, h+1:00) è anche solo parzialmente occupata.
+ * Le maschere sono conservative: due prenotazioni con bit disgiunti non possono sovrapporsi.
+ */
+public final class FasceOrarie {
+
+    public static final int ORE_GIORNO = 24;
+
+    /**
+     * Maschera con tutte le fasce del giorno occupate.
+     */
+    public static final int GIORNO_PIENO = (1 << ORE_GIORNO) - 1;
+
+    private FasceOrarie() {
+    }
+
+    /**
+     * Calcola la maschera delle fasce del giorno toccate dall'intervallo [inizio, fine).
+     */
+    public static int maschera(LocalDate giorno, LocalDateTime inizio, LocalDateTime fine) {
+        LocalDateTime inizioGiorno = giorno.atStartOfDay();
+        LocalDateTime fineGiorno = giorno.plusDays(1).atStartOfDay();
+        if (!inizio.isBefore(fineGiorno) || !fine.isAfter(inizioGiorno)) {
+            return 0;
+        }
+
+        int primaOra = inizio.isAfter(inizioGiorno) ? inizio.getHour() : 0;
+        // fine esclusiva: 10:00 non occupa la fascia delle 10, 10:30 sì
+        int ultimaOra;
+        if (!fine.isBefore(fineGiorno)) {
+            ultimaOra = ORE_GIORNO - 1;
+        } else {
+            LocalDateTime ultimoIstante = fine.minusNanos(1);
+            ultimaOra = ultimoIstante.getHour();
+        }
+
+        int bits = ultimaOra - primaOra + 1;
+        return ((1 << bits) - 1) << primaOra;
+    }
+
+    /**
+     * Rappresentazione compatta: 24 caratteri '0'/'1', uno per ora a partire da mezzanotte.
+     */
+    public static String comeStringa(int maschera) {
+        StringBuilder sb = new StringBuilder(ORE_GIORNO);
+        for (int h = 0; h < ORE_GIORNO; h++) {
+            sb.append((maschera & (1 << h)) != 0 ? '1' : '0');
+        }
+        return sb.toString();
+    }
+}
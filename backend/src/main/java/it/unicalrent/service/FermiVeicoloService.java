@@ -0,0 +1,161 @@
+package it.unicalrent.service;
+
+import it.unicalrent.dto.EsitoFermiDTO;
+import it.unicalrent.dto.FermoVeicoloDTO;
+import it.unicalrent.dto.RichiestaFermiDTO;
+import it.unicalrent.entity.FermoVeicolo;
+import it.unicalrent.entity.Prenotazione;
+import it.unicalrent.repository.FermoVeicoloRepository;
+import it.unicalrent.repository.PrenotazioneRepository;
+import it.unicalrent.repository.VeicoloRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fermi programmati dei veicoli (manutenzione, revisione...). Creare un fermo annulla in blocco
+ * le prenotazioni ATTIVE future che vi ricadono; i fermi non passano dai contatori giornalieri e vengono
+ * verificati esplicitamente su ogni percorso di prenotazione.
+ */
+@Service
+public class FermiVeicoloService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FermiVeicoloService.class);
+
+    private final FermoVeicoloRepository fermoRepo;
+    private final VeicoloRepository veicoloRepo;
+    private final PrenotazioneRepository prenotazioneRepo;
+    private final ServizioGiornoService servizioGiornoService;
+    private final IndicePrenotazioni indicePrenotazioni;
+    private final GestoreLockVeicoli gestoreLock;
+    private final StrategiaConcorrenza strategiaConcorrenza;
+    private final TransactionTemplate transactionTemplate;
+    private final int dimensioneBlocco;
+
+    public FermiVeicoloService(FermoVeicoloRepository fermoRepo,
+                               VeicoloRepository veicoloRepo,
+                               PrenotazioneRepository prenotazioneRepo,
+                               ServizioGiornoService servizioGiornoService,
+                               IndicePrenotazioni indicePrenotazioni,
+                               GestoreLockVeicoli gestoreLock,
+                               StrategiaConcorrenza strategiaConcorrenza,
+                               PlatformTransactionManager transactionManager,
+                               @Value("${unicalrent.fermi.dimensione-blocco:500}") int dimensioneBlocco) {
+        this.fermoRepo = fermoRepo;
+        this.veicoloRepo = veicoloRepo;
+        this.prenotazioneRepo = prenotazioneRepo;
+        this.servizioGiornoService = servizioGiornoService;
+        this.indicePrenotazioni = indicePrenotazioni;
+        this.gestoreLock = gestoreLock;
+        this.strategiaConcorrenza = strategiaConcorrenza;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.dimensioneBlocco = dimensioneBlocco;
+    }
+
+    /**
+     * Crea lo stesso fermo su tutti i veicoli indicati e annulla le prenotazioni ATTIVE non ancora
+     * iniziate che vi ricadono, in un'unica transazione con i lock di tutti i veicoli. Le prenotazioni
+     * vengono lette con una sola query e annullate a blocchi di {@code unicalrent.fermi.dimensione-blocco}.
+     */
+    @PreAuthorize("hasRole('ADMIN')")
+    public EsitoFermiDTO creaFermi(RichiestaFermiDTO richiesta) {
+        if (richiesta.getVeicoliIds() == null || richiesta.getVeicoliIds().isEmpty()) {
+            throw new IllegalArgumentException("Indicare almeno un veicolo.");
+        }
+        if (richiesta.getInizio() == null || richiesta.getFine() == null) {
+            throw new IllegalArgumentException("Le date di inizio e fine sono obbligatorie.");
+        }
+        if (!richiesta.getInizio().isBefore(richiesta.getFine())) {
+            throw new IllegalArgumentException("La data di inizio deve essere precedente alla data di fine.");
+        }
+        if (!richiesta.getFine().isAfter(LocalDateTime.now())) {
+            throw new IllegalArgumentException("Non è possibile creare un fermo già concluso.");
+        }
+        List<Long> veicoliIds = richiesta.getVeicoliIds().stream().distinct().sorted().toList();
+        if (veicoloRepo.findAllById(veicoliIds).size() != veicoliIds.size()) {
+            throw new IllegalArgumentException("Uno o più veicoli non esistono.");
+        }
+
+        long avvio = System.nanoTime();
+        EsitoFermiDTO esito = gestoreLock.eseguiInEsclusiva(veicoliIds,
+                () -> transactionTemplate.execute(status -> creaFermiInterno(veicoliIds, richiesta)));
+        esito.setDurataMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - avvio));
+        if (!esito.getPrenotazioniAnnullate().isEmpty()) {
+            logger.info("Creati {} fermi dal {} al {}: annullate {} prenotazioni", esito.getFermi().size(),
+                    richiesta.getInizio(), richiesta.getFine(), esito.getPrenotazioniAnnullate().size());
+        }
+        return esito;
+    }
+
+    private EsitoFermiDTO creaFermiInterno(List<Long> veicoliIds, RichiestaFermiDTO richiesta) {
+        // Il lock esclusivo sui fermi attende le prenotazioni in corso sugli stessi veicoli, anche su altre
+        // istanze, e blocca le nuove fino al commit: quelle già scritte vengono lette più sotto
+        for (Long veicoloId : veicoliIds) {
+            fermoRepo.lockEsclusivoTransazione(veicoloId);
+            strategiaConcorrenza.acquisisci(veicoloId);
+        }
+
+        List<FermoVeicolo> fermi = new ArrayList<>();
+        for (Long veicoloId : veicoliIds) {
+            fermi.add(new FermoVeicolo(veicoloId, richiesta.getInizio(), richiesta.getFine(), richiesta.getMotivo()));
+        }
+        fermi = fermoRepo.saveAll(fermi);
+        // registrati nell'indice prima delle rimozioni, così la lista d'attesa non riprenota nel fermo
+        for (FermoVeicolo fermo : fermi) {
+            indicePrenotazioni.aggiungiFermo(fermo.getId(), fermo.getVeicoloId(), fermo.getDataInizio(), fermo.getDataFine());
+        }
+
+        // Solo le prenotazioni non ancora iniziate: quelle in corso o concluse restano invariate
+        List<Prenotazione> spostate = prenotazioneRepo.findFutureNelPeriodoPerAggiornamento(
+                veicoliIds, LocalDateTime.now(), richiesta.getInizio(), richiesta.getFine());
+        List<Long> annullate = new ArrayList<>();
+        for (int da = 0; da < spostate.size(); da += dimensioneBlocco) {
+            List<Prenotazione> blocco = spostate.subList(da, Math.min(da + dimensioneBlocco, spostate.size()));
+            // le righe sono bloccate dalla lettura: un numero diverso vuol dire che sono cambiate altrove
+            int aggiornate = prenotazioneRepo.annullaAttive(blocco.stream().map(Prenotazione::getId).toList());
+            if (aggiornate != blocco.size()) {
+                throw new IllegalStateException("Prenotazioni modificate durante la creazione del fermo, riprova");
+            }
+            for (Prenotazione p : blocco) {
+                servizioGiornoService.rilascia(p);
+                indicePrenotazioni.rimuovi(p.getId());
+                annullate.add(p.getId());
+            }
+        }
+
+        return new EsitoFermiDTO(fermi.stream().map(FermoVeicoloDTO::new).toList(), annullate, 0);
+    }
+
+    /**
+     * Elimina un fermo: il tempo liberato torna prenotabile e viene proposto alla lista d'attesa.
+     */
+    @PreAuthorize("hasRole('ADMIN')")
+    @Transactional
+    public void eliminaFermo(Long id) {
+        FermoVeicolo fermo = fermoRepo.findById(id)
+                .orElseThrow(() -> new IllegalArgumentException("Fermo non trovato"));
+        fermoRepo.delete(fermo);
+        indicePrenotazioni.rimuoviFermo(fermo.getId(), fermo.getVeicoloId());
+    }
+
+    /**
+     * Fermi non ancora conclusi, di tutti i veicoli o di quello indicato.
+     */
+    @PreAuthorize("hasRole('ADMIN')")
+    @Transactional(readOnly = true)
+    public List<FermoVeicoloDTO> listaFermi(Long veicoloId) {
+        return fermoRepo.findNonConclusi(LocalDateTime.now(), veicoloId).stream()
+                .map(FermoVeicoloDTO::new)
+                .toList();
+    }
+}
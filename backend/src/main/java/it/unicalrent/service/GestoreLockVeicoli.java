@@ -0,0 +1,125 @@
+package it.unicalrent.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Lock a strisce per veicolo: serializza all'interno della JVM i tentativi di prenotazione
+ * sullo stesso veicolo, così le richieste in conflitto attendono in coda senza occupare
+ * una connessione al database. Il lock va acquisito prima di aprire la transazione.
+ * Espone le metriche di tempo di attesa, richieste in coda e timeout.
+ */
+@Component
+public class GestoreLockVeicoli {
+
+    private final ReentrantLock[] strisce;
+    private final long timeoutMs;
+    private final boolean abilitato;
+
+    private final AtomicInteger inAttesa = new AtomicInteger();
+    private final Timer tempoAttesa;
+    private final Counter timeout;
+
+    public GestoreLockVeicoli(MeterRegistry registry,
+                              @Value("${unicalrent.lock.stripe:64}") int numeroStrisce,
+                              @Value("${unicalrent.lock.timeout-ms:5000}") long timeoutMs,
+                              @Value("${unicalrent.lock.abilitato:true}") boolean abilitato) {
+        this.strisce = new ReentrantLock[numeroStrisce];
+        for (int i = 0; i < numeroStrisce; i++) {
+            strisce[i] = new ReentrantLock(true);
+        }
+        this.timeoutMs = timeoutMs;
+        this.abilitato = abilitato;
+
+        this.tempoAttesa = Timer.builder("unicalrent.prenotazioni.lock.attesa")
+                .description("Tempo di attesa del lock per veicolo")
+                .publishPercentiles(0.5, 0.99)
+                .register(registry);
+        this.timeout = Counter.builder("unicalrent.prenotazioni.lock.timeout")
+                .description("Tentativi scaduti in attesa del lock per veicolo")
+                .register(registry);
+        Gauge.builder("unicalrent.prenotazioni.lock.coda", inAttesa, AtomicInteger::get)
+                .description("Richieste in attesa del lock per veicolo")
+                .register(registry);
+    }
+
+    /**
+     * Esegue l'azione tenendo il lock della striscia associata al veicolo.
+     * Con {@code unicalrent.lock.abilitato=false} l'azione viene eseguita direttamente,
+     * ad esempio per confrontare le sole strategie di concorrenza sul database.
+     *
+     * @throws IllegalStateException se il lock non viene ottenuto entro il timeout configurato
+     */
+    public <T> T eseguiInEsclusiva(Long veicoloId, Supplier<T> azione) {
+        if (!abilitato) {
+            return azione.get();
+        }
+        ReentrantLock lock = strisce[striscia(veicoloId)];
+        acquisisci(lock);
+        try {
+            return azione.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Esegue l'azione tenendo i lock di tutti i veicoli indicati. Le strisce vengono acquisite
+     * in ordine crescente e una sola volta ciascuna, così due lotti concorrenti non vanno in deadlock.
+     */
+    public <T> T eseguiInEsclusiva(Collection<Long> veicoliIds, Supplier<T> azione) {
+        if (!abilitato) {
+            return azione.get();
+        }
+        int[] indici = veicoliIds.stream()
+                .mapToInt(this::striscia)
+                .distinct()
+                .sorted()
+                .toArray();
+        int acquisiti = 0;
+        try {
+            for (int indice : indici) {
+                acquisisci(strisce[indice]);
+                acquisiti++;
+            }
+            return azione.get();
+        } finally {
+            for (int k = acquisiti - 1; k >= 0; k--) {
+                strisce[indici[k]].unlock();
+            }
+        }
+    }
+
+    private void acquisisci(ReentrantLock lock) {
+        inAttesa.incrementAndGet();
+        long inizio = System.nanoTime();
+        boolean acquisito;
+        try {
+            acquisito = lock.tryLock(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Operazione interrotta");
+        } finally {
+            inAttesa.decrementAndGet();
+            tempoAttesa.record(System.nanoTime() - inizio, TimeUnit.NANOSECONDS);
+        }
+        if (!acquisito) {
+            timeout.increment();
+            throw new IllegalStateException("Concorrenza troppo alta, riprova più tardi");
+        }
+    }
+
+    private int striscia(Long veicoloId) {
+        return Math.floorMod(Long.hashCode(veicoloId), strisce.length);
+    }
+}
@@ -0,0 +1,398 @@
+package it.unicalrent.service;
+
+import it.unicalrent.entity.StatoPrenotazione;
+import it.unicalrent.repository.FermoVeicoloRepository;
+import it.unicalrent.repository.PrenotazioneRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Indice in memoria degli intervalli [inizio, fine) delle prenotazioni ATTIVE, per veicolo.
+ * Per ogni veicolo mantiene un array ordinato per data di inizio insieme al massimo
+ * progressivo delle date di fine: la verifica di sovrapposizione è quindi una ricerca
+ * binaria, O(log n), senza accessi al database.
+ * L'indice viene caricato all'avvio e aggiornato dai percorsi di creazione, modifica, annullamento,
+ * eliminazione e completamento. Il database resta la fonte di verità e conferma la scrittura finale.
+ * Con la stessa struttura tiene anche i fermi programmati dei veicoli, che occupano il veicolo
+ * come una prenotazione ma non vengono notificati come prenotazioni aggiunte.
+ */
+@Component
+public class IndicePrenotazioni {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndicePrenotazioni.class);
+
+    /**
+     * Intervallo occupato da una prenotazione.
+     */
+    public record Intervallo(Long id, Long veicoloId, LocalDateTime inizio, LocalDateTime fine) {
+    }
+
+    /**
+     * Notificato per ogni intervallo che entra nell'indice: al caricamento, alla ricarica
+     * di un veicolo e, dopo il commit, a ogni creazione o modifica.
+     */
+    public interface Ascoltatore {
+        void aggiunto(Intervallo intervallo);
+
+        /**
+         * Notificato dopo il commit quando un intervallo esce dall'indice (annullamento, eliminazione,
+         * completamento) o viene sostituito da una modifica: il tempo che occupava può essere libero.
+         */
+        default void rimosso(Intervallo intervallo) {
+        }
+    }
+
+    private static final Intervallo[] NESSUNO = new Intervallo[0];
+
+    private final PrenotazioneRepository prenotazioneRepo;
+    private final FermoVeicoloRepository fermoRepo;
+
+    private final Map<Long, IntervalliVeicolo> perVeicolo = new ConcurrentHashMap<>();
+    private final Map<Long, IntervalliVeicolo> fermiPerVeicolo = new ConcurrentHashMap<>();
+    private final Map<Long, Long> veicoloPerPrenotazione = new ConcurrentHashMap<>();
+    private final List<Ascoltatore> ascoltatori = new CopyOnWriteArrayList<>();
+
+    public IndicePrenotazioni(PrenotazioneRepository prenotazioneRepo, FermoVeicoloRepository fermoRepo) {
+        this.prenotazioneRepo = prenotazioneRepo;
+        this.fermoRepo = fermoRepo;
+    }
+
+    public void registraAscoltatore(Ascoltatore ascoltatore) {
+        ascoltatori.add(ascoltatore);
+    }
+
+    /**
+     * Carica all'avvio tutte le prenotazioni attive.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void carica() {
+        List<Object[]> righe = prenotazioneRepo.findIntervalliByStato(StatoPrenotazione.ATTIVA);
+
+        Map<Long, List<Intervallo>> raggruppati = new HashMap<>();
+        for (Object[] riga : righe) {
+            Intervallo intervallo = daRiga(riga);
+            raggruppati.computeIfAbsent(intervallo.veicoloId(), k -> new ArrayList<>()).add(intervallo);
+        }
+
+        perVeicolo.clear();
+        veicoloPerPrenotazione.clear();
+        raggruppati.forEach((veicoloId, intervalli) -> {
+            perVeicolo.put(veicoloId, IntervalliVeicolo.di(intervalli));
+            intervalli.forEach(i -> veicoloPerPrenotazione.put(i.id(), veicoloId));
+        });
+        raggruppati.values().forEach(intervalli -> intervalli.forEach(this::notifica));
+
+        List<Object[]> fermi = fermoRepo.findIntervalliDopo(LocalDateTime.now());
+        fermiPerVeicolo.clear();
+        fermi.stream()
+                .map(IndicePrenotazioni::daRiga)
+                .forEach(f -> fermiPerVeicolo.merge(f.veicoloId(), IntervalliVeicolo.di(List.of(f)), (a, b) -> a.con(f)));
+
+        logger.info("Indice prenotazioni caricato: {} prenotazioni attive su {} veicoli, {} fermi",
+                righe.size(), raggruppati.size(), fermi.size());
+    }
+
+    /**
+     * Ricarica dal database gli intervalli di un solo veicolo.
+     * Usato quando l'indice risulta disallineato rispetto al database. Gli ascoltatori ricevono
+     * solo gli intervalli che l'indice non conteneva già uguali.
+     */
+    public void ricaricaVeicolo(Long veicoloId) {
+        List<Intervallo> intervalli = prenotazioneRepo.findIntervalliByVeicoloIdAndStato(veicoloId, StatoPrenotazione.ATTIVA)
+                .stream()
+                .map(IndicePrenotazioni::daRiga)
+                .toList();
+
+        Set<Intervallo> giaIndicizzati = new HashSet<>();
+        perVeicolo.compute(veicoloId, (id, precedenti) -> {
+            if (precedenti != null) {
+                for (Intervallo i : precedenti.intervalli) {
+                    veicoloPerPrenotazione.remove(i.id());
+                    giaIndicizzati.add(i);
+                }
+            }
+            intervalli.forEach(i -> veicoloPerPrenotazione.put(i.id(), veicoloId));
+            return intervalli.isEmpty() ? null : IntervalliVeicolo.di(intervalli);
+        });
+        // solo gli intervalli mancanti o cambiati: gli altri sono già stati notificati quando sono entrati
+        intervalli.stream().filter(i -> !giaIndicizzati.contains(i)).forEach(this::notifica);
+        logger.debug("Indice prenotazioni ricaricato per il veicolo {}", veicoloId);
+    }
+
+    /**
+     * Indica se l'intervallo [inizio, fine) si sovrappone a una prenotazione attiva del veicolo.
+     */
+    public boolean sovrapposta(Long veicoloId, LocalDateTime inizio, LocalDateTime fine) {
+        IntervalliVeicolo intervalli = perVeicolo.get(veicoloId);
+        if (intervalli != null && intervalli.sovrapposta(inizio, fine)) {
+            return true;
+        }
+        return inFermo(veicoloId, inizio, fine);
+    }
+
+    /**
+     * Indica se l'intervallo [inizio, fine) ricade in un fermo programmato del veicolo.
+     */
+    public boolean inFermo(Long veicoloId, LocalDateTime inizio, LocalDateTime fine) {
+        IntervalliVeicolo fermi = fermiPerVeicolo.get(veicoloId);
+        return fermi != null && fermi.sovrapposta(inizio, fine);
+    }
+
+    /**
+     * Cerca le finestre libere di durata pari a {@code durata} comprese in [da, a), scegliendo in ogni
+     * intervallo libero l'inizio più vicino a {@code riferimento}. Restituisce le {@code quante} finestre
+     * più vicine al riferimento, ordinate per inizio. Prenotazioni e fermi vengono letti dai rispettivi
+     * array ordinati a partire da {@code da}, senza copiarli né riordinarli.
+     */
+    public List<Intervallo> finestreLibere(Long veicoloId, Duration durata, LocalDateTime riferimento,
+                                           LocalDateTime da, LocalDateTime a, int quante) {
+        IntervalliVeicolo prenotazioni = perVeicolo.get(veicoloId);
+        IntervalliVeicolo fermi = fermiPerVeicolo.get(veicoloId);
+        Intervallo[] occupatePrenotazioni = prenotazioni != null ? prenotazioni.intervalli : NESSUNO;
+        Intervallo[] occupatiFermi = fermi != null ? fermi.intervalli : NESSUNO;
+        // si parte dal primo intervallo che può ancora finire dopo da, per ricerca binaria sulle fini massime
+        int i = prenotazioni != null ? prenotazioni.primoConFineDopo(da) : 0;
+        int j = fermi != null ? fermi.primoConFineDopo(da) : 0;
+
+        // fusione delle due sequenze già ordinate per inizio, fino al primo intervallo che inizia dopo a
+        List<LocalDateTime[]> liberi = new ArrayList<>();
+        LocalDateTime cursore = da;
+        while (i < occupatePrenotazioni.length || j < occupatiFermi.length) {
+            Intervallo occupato = j >= occupatiFermi.length || (i < occupatePrenotazioni.length && !occupatePrenotazioni[i].inizio().isAfter(occupatiFermi[j].inizio()))
+                    ? occupatePrenotazioni[i++] : occupatiFermi[j++];
+            if (!occupato.inizio().isBefore(a)) {
+                break;
+            }
+            if (!occupato.fine().isAfter(cursore)) {
+                continue;
+            }
+            if (occupato.inizio().isAfter(cursore)) {
+                liberi.add(new LocalDateTime[]{cursore, occupato.inizio()});
+            }
+            cursore = occupato.fine();
+        }
+        if (cursore.isBefore(a)) {
+            liberi.add(new LocalDateTime[]{cursore, a});
+        }
+
+        List<Intervallo> finestre = new ArrayList<>();
+        for (LocalDateTime[] libero : liberi) {
+            LocalDateTime ultimoInizio = libero[1].minus(durata);
+            if (ultimoInizio.isBefore(libero[0])) {
+                continue;
+            }
+            LocalDateTime inizio = riferimento.isBefore(libero[0]) ? libero[0]
+                    : riferimento.isAfter(ultimoInizio) ? ultimoInizio : riferimento;
+            finestre.add(new Intervallo(null, veicoloId, inizio, inizio.plus(durata)));
+        }
+        return finestre.stream()
+                .sorted(Comparator.comparing(f -> Duration.between(f.inizio(), riferimento).abs()))
+                .limit(quante)
+                .sorted(Comparator.comparing(Intervallo::inizio))
+                .toList();
+    }
+
+    /**
+     * Registra una nuova prenotazione attiva.
+     * Se è attiva una transazione, l'aggiornamento avviene solo dopo il commit.
+     */
+    public void aggiungi(Long prenotazioneId, Long veicoloId, LocalDateTime inizio, LocalDateTime fine) {
+        Intervallo intervallo = new Intervallo(prenotazioneId, veicoloId, inizio, fine);
+        dopoCommit(() -> {
+            Optional<Intervallo> precedente = trova(prenotazioneId);
+            perVeicolo.compute(veicoloId, (id, attuali) ->
+                    attuali == null ? IntervalliVeicolo.di(List.of(intervallo)) : attuali.con(intervallo));
+            veicoloPerPrenotazione.put(prenotazioneId, veicoloId);
+            notifica(intervallo);
+            precedente.ifPresent(this::notificaRimosso);
+        });
+    }
+
+    /**
+     * Restituisce l'intervallo attualmente indicizzato per la prenotazione, se presente.
+     */
+    public Optional<Intervallo> trova(Long prenotazioneId) {
+        Long veicoloId = veicoloPerPrenotazione.get(prenotazioneId);
+        IntervalliVeicolo intervalli = veicoloId != null ? perVeicolo.get(veicoloId) : null;
+        if (intervalli == null) {
+            return Optional.empty();
+        }
+        return Arrays.stream(intervalli.intervalli)
+                .filter(i -> i.id().equals(prenotazioneId))
+                .findFirst();
+    }
+
+    /**
+     * Rimuove una prenotazione dall'indice (annullata, eliminata o completata).
+     * Se è attiva una transazione, l'aggiornamento avviene solo dopo il commit.
+     */
+    public void rimuovi(Long prenotazioneId) {
+        dopoCommit(() -> {
+            Optional<Intervallo> rimosso = trova(prenotazioneId);
+            Long veicoloId = veicoloPerPrenotazione.remove(prenotazioneId);
+            if (veicoloId != null) {
+                perVeicolo.computeIfPresent(veicoloId, (id, attuali) -> attuali.senza(prenotazioneId));
+            }
+            rimosso.ifPresent(this::notificaRimosso);
+        });
+    }
+
+    /**
+     * Registra un fermo programmato del veicolo, dopo il commit se è attiva una transazione.
+     */
+    public void aggiungiFermo(Long fermoId, Long veicoloId, LocalDateTime inizio, LocalDateTime fine) {
+        Intervallo fermo = new Intervallo(fermoId, veicoloId, inizio, fine);
+        dopoCommit(() -> fermiPerVeicolo.compute(veicoloId, (id, attuali) ->
+                attuali == null ? IntervalliVeicolo.di(List.of(fermo)) : attuali.con(fermo)));
+    }
+
+    /**
+     * Rimuove un fermo dopo il commit; il tempo liberato viene notificato agli ascoltatori.
+     */
+    public void rimuoviFermo(Long fermoId, Long veicoloId) {
+        dopoCommit(() -> {
+            IntervalliVeicolo attuali = fermiPerVeicolo.get(veicoloId);
+            Optional<Intervallo> rimosso = attuali == null ? Optional.empty()
+                    : Arrays.stream(attuali.intervalli).filter(i -> i.id().equals(fermoId)).findFirst();
+            fermiPerVeicolo.computeIfPresent(veicoloId, (id, fermi) -> fermi.senza(fermoId));
+            rimosso.ifPresent(this::notificaRimosso);
+        });
+    }
+
+    private void notifica(Intervallo intervallo) {
+        for (Ascoltatore ascoltatore : ascoltatori) {
+            ascoltatore.aggiunto(intervallo);
+        }
+    }
+
+    private void notificaRimosso(Intervallo intervallo) {
+        for (Ascoltatore ascoltatore : ascoltatori) {
+            ascoltatore.rimosso(intervallo);
+        }
+    }
+
+    private static void dopoCommit(Runnable azione) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    azione.run();
+                }
+            });
+        } else {
+            azione.run();
+        }
+    }
+
+    private static Intervallo daRiga(Object[] riga) {
+        return new Intervallo((Long) riga[0], (Long) riga[1], (LocalDateTime) riga[2], (LocalDateTime) riga[3]);
+    }
+
+    /**
+     * Istantanea immutabile degli intervalli di un veicolo, ordinati per inizio.
+     * maxFine[i] è la fine più lontana tra gli intervalli 0..i, così la ricerca
+     * resta corretta anche se nel database esistono intervalli sovrapposti.
+     */
+    private static final class IntervalliVeicolo {
+
+        private static final Comparator<Intervallo> ORDINE =
+                Comparator.comparing(Intervallo::inizio).thenComparing(Intervallo::id);
+
+        private final Intervallo[] intervalli;
+        private final LocalDateTime[] maxFine;
+
+        private IntervalliVeicolo(Intervallo[] intervalli) {
+            this.intervalli = intervalli;
+            this.maxFine = new LocalDateTime[intervalli.length];
+            for (int i = 0; i < intervalli.length; i++) {
+                LocalDateTime fine = intervalli[i].fine();
+                maxFine[i] = i > 0 && maxFine[i - 1].isAfter(fine) ? maxFine[i - 1] : fine;
+            }
+        }
+
+        static IntervalliVeicolo di(List<Intervallo> intervalli) {
+            Intervallo[] ordinati = intervalli.toArray(new Intervallo[0]);
+            Arrays.sort(ordinati, ORDINE);
+            return new IntervalliVeicolo(ordinati);
+        }
+
+        IntervalliVeicolo con(Intervallo nuovo) {
+            List<Intervallo> lista = new ArrayList<>(intervalli.length + 1);
+            for (Intervallo i : intervalli) {
+                if (!i.id().equals(nuovo.id())) {
+                    lista.add(i);
+                }
+            }
+            lista.add(nuovo);
+            return di(lista);
+        }
+
+        IntervalliVeicolo senza(Long prenotazioneId) {
+            Intervallo[] rimasti = Arrays.stream(intervalli)
+                    .filter(i -> !i.id().equals(prenotazioneId))
+                    .toArray(Intervallo[]::new);
+            return rimasti.length == 0 ? null : new IntervalliVeicolo(rimasti);
+        }
+
+        boolean sovrapposta(LocalDateTime inizio, LocalDateTime fine) {
+            int i = ultimoConInizioPrimaDi(fine);
+            return i >= 0 && maxFine[i].isAfter(inizio);
+        }
+
+        /**
+         * Indice del primo intervallo dal quale la fine massima supera t, oppure il numero di intervalli:
+         * quelli precedenti finiscono tutti entro t.
+         */
+        int primoConFineDopo(LocalDateTime t) {
+            int basso = 0;
+            int alto = maxFine.length;
+            while (basso < alto) {
+                int medio = (basso + alto) >>> 1;
+                if (maxFine[medio].isAfter(t)) {
+                    alto = medio;
+                } else {
+                    basso = medio + 1;
+                }
+            }
+            return basso;
+        }
+
+        /**
+         * Indice dell'ultimo intervallo con inizio strettamente precedente a t, oppure -1.
+         */
+        private int ultimoConInizioPrimaDi(LocalDateTime t) {
+            int basso = 0;
+            int alto = intervalli.length - 1;
+            int risultato = -1;
+            while (basso <= alto) {
+                int medio = (basso + alto) >>> 1;
+                if (intervalli[medio].inizio().isBefore(t)) {
+                    risultato = medio;
+                    basso = medio + 1;
+                } else {
+                    alto = medio - 1;
+                }
+            }
+            return risultato;
+        }
+    }
+}
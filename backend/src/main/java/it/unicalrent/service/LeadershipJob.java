@@ -0,0 +1,92 @@
+package it.unicalrent.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Elezione del nodo che esegue i job schedulati quando più istanze condividono il database.
+ * Ogni job ha un lease nella tabella lease_job: a ogni esecuzione il nodo prova a prenderlo o
+ * rinnovarlo con un'unica istruzione atomica, che riesce solo se il lease è già suo o è scaduto.
+ * Le scadenze usano l'orologio del database, così gli scostamenti tra i nodi non contano;
+ * se il leader si ferma, il lease scade e il primo nodo che esegue il job ne prende il posto.
+ */
+@Component
+public class LeadershipJob {
+
+    private static final Logger logger = LoggerFactory.getLogger(LeadershipJob.class);
+
+    private static final String ACQUISISCI = "INSERT INTO lease_job (nome, proprietario, scadenza) " +
+            "VALUES (?, ?, LOCALTIMESTAMP + make_interval(secs => ?)) " +
+            "ON CONFLICT (nome) DO UPDATE SET proprietario = EXCLUDED.proprietario, scadenza = EXCLUDED.scadenza " +
+            "WHERE lease_job.proprietario = EXCLUDED.proprietario OR lease_job.scadenza < LOCALTIMESTAMP";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String nodoId;
+    private final Map<String, Boolean> leader = new ConcurrentHashMap<>();
+
+    public LeadershipJob(JdbcTemplate jdbcTemplate, @Value("${unicalrent.cluster.nodo-id:}") String nodoId) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.nodoId = nodoId.isBlank() ? nodoPredefinito() : nodoId;
+    }
+
+    public String getNodoId() {
+        return nodoId;
+    }
+
+    /**
+     * Prende o rinnova il lease del job per la durata indicata.
+     *
+     * @return true se questo nodo è il leader del job fino alla nuova scadenza
+     */
+    public boolean acquisisci(String job, Duration durata) {
+        boolean acquisito = jdbcTemplate.update(ACQUISISCI, job, nodoId, durata.toMillis() / 1000.0) == 1;
+        Boolean precedente = leader.put(job, acquisito);
+        if (precedente == null || precedente != acquisito) {
+            logger.info("Nodo {}: {} il lease del job {}", nodoId, acquisito ? "acquisito" : "non detiene", job);
+        }
+        return acquisito;
+    }
+
+    /**
+     * Esegue il job solo se questo nodo ne detiene il lease. La durata deve superare l'intervallo
+     * tra due esecuzioni, così il leader lo rinnova prima che scada e gli altri nodi lo prendono
+     * solo quando il leader smette di eseguirlo.
+     *
+     * @return true se il job è stato eseguito
+     */
+    public boolean eseguiSeLeader(String job, Duration durata, Runnable azione) {
+        if (!acquisisci(job, durata)) {
+            return false;
+        }
+        azione.run();
+        return true;
+    }
+
+    /**
+     * Rilascia il lease, ad esempio all'arresto del nodo, così un altro nodo subentra subito.
+     */
+    public void rilascia(String job) {
+        jdbcTemplate.update("DELETE FROM lease_job WHERE nome = ? AND proprietario = ?", job, nodoId);
+        leader.remove(job);
+    }
+
+    private static String nodoPredefinito() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "nodo";
+        }
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
@@ -0,0 +1,530 @@
+package it.unicalrent.service;
+
+import it.unicalrent.dto.RichiestaAttesaDTO;
+import it.unicalrent.dto.RichiestaPrenotazioneDTO;
+import it.unicalrent.entity.Prenotazione;
+import it.unicalrent.entity.RichiestaAttesa;
+import it.unicalrent.entity.StatoAttesa;
+import it.unicalrent.entity.Utente;
+import it.unicalrent.entity.Veicolo;
+import it.unicalrent.repository.ListaAttesaRepository;
+import it.unicalrent.repository.UtenteRepository;
+import it.unicalrent.repository.VeicoloRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Lista d'attesa sui veicoli: un utente registra l'interesse per un veicolo (o per un tipo di veicolo)
+ * in un intervallo e, quando una prenotazione viene annullata, eliminata, completata o spostata,
+ * le richieste compatibili con il tempo liberato vengono prenotate automaticamente o notificate,
+ * in ordine di registrazione.
+ * Le richieste in attesa sono indicizzate in memoria per veicolo e per tipo in un albero di intervalli
+ * aumentato con la fine massima di ogni sottoalbero: la ricerca delle candidate per un intervallo liberato
+ * visita solo i rami che contengono richieste sovrapposte, senza scorrere l'intera lista.
+ * La tabella lista_attesa resta la fonte di verità tra più istanze: prima di ogni evasione l'indice
+ * riceve le richieste registrate altrove, e ogni chiusura è un aggiornamento condizionato sul database.
+ * Il tempo liberato su questa istanza viene evaso subito dall'ascoltatore dell'indice; quello liberato
+ * su qualsiasi istanza viene letto periodicamente da {@link RegistroPrenotazioniLiberate}, così anche
+ * gli annullamenti fatti altrove promuovono le richieste in attesa.
+ * Una richiesta ritirata su un'altra istanza può restare nell'indice locale finché non viene trovata
+ * già chiusa o scade.
+ */
+@Service
+public class ListaAttesaService implements IndicePrenotazioni.Ascoltatore {
+
+    private static final Logger logger = LoggerFactory.getLogger(ListaAttesaService.class);
+
+    /**
+     * Durata massima di una richiesta in lista d'attesa.
+     */
+    private static final Duration DURATA_MASSIMA = Duration.ofDays(30);
+
+    /**
+     * Margine sulla data di creazione nella sincronizzazione: copre le transazioni che registrano
+     * una richiesta mentre la sincronizzazione precedente era in corso.
+     */
+    private static final Duration MARGINE_SINCRONIZZAZIONE = Duration.ofMinutes(1);
+
+    /**
+     * Richiesta in attesa come vista dall'indice.
+     */
+    private record Voce(Long id, String userId, Long veicoloId, String tipo,
+                        LocalDateTime inizio, LocalDateTime fine, boolean prenotaAutomaticamente) {
+
+        static Voce di(RichiestaAttesa r) {
+            return new Voce(r.getId(), r.getUtenteId(), r.getVeicoloId(), r.getTipo(),
+                    r.getDataInizio(), r.getDataFine(), r.isPrenotaAutomaticamente());
+        }
+    }
+
+    private static final Comparator<Voce> ORDINE = Comparator.comparing(Voce::inizio).thenComparing(Voce::id);
+
+    private final ListaAttesaRepository listaAttesaRepo;
+    private final VeicoloRepository veicoloRepo;
+    private final UtenteRepository utenteRepo;
+    private final UtenteService utenteService;
+    private final PrenotazioneService prenotazioneService;
+    private final IndicePrenotazioni indicePrenotazioni;
+    private final RegistroOpzioni registroOpzioni;
+    private final RegistroPrenotazioniLiberate registroLiberate;
+    private final TransactionTemplate transactionTemplate;
+    private final int massimoPerUtente;
+
+    private final Map<Long, AlberoVoci> perVeicolo = new ConcurrentHashMap<>();
+    private final Map<String, AlberoVoci> perTipo = new ConcurrentHashMap<>();
+    private final Map<Long, Voce> perId = new ConcurrentHashMap<>();
+    private volatile LocalDateTime ultimaSincronizzazione;
+    // data di registrazione più recente letta da prenotazioni_liberate, secondo l'orologio del database
+    private volatile LocalDateTime ultimaLiberazione;
+    private final Map<Long, LocalDateTime> liberazioniEvase = new ConcurrentHashMap<>();
+
+    // un solo thread: gli intervalli liberati vengono evasi in ordine, fuori dalla richiesta che li libera
+    private final ExecutorService esecutore = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "lista-attesa");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public ListaAttesaService(ListaAttesaRepository listaAttesaRepo,
+                              VeicoloRepository veicoloRepo,
+                              UtenteRepository utenteRepo,
+                              UtenteService utenteService,
+                              PrenotazioneService prenotazioneService,
+                              IndicePrenotazioni indicePrenotazioni,
+                              RegistroOpzioni registroOpzioni,
+                              RegistroPrenotazioniLiberate registroLiberate,
+                              PlatformTransactionManager transactionManager,
+                              @Value("${unicalrent.lista-attesa.massimo-per-utente:5}") int massimoPerUtente) {
+        this.listaAttesaRepo = listaAttesaRepo;
+        this.veicoloRepo = veicoloRepo;
+        this.utenteRepo = utenteRepo;
+        this.utenteService = utenteService;
+        this.prenotazioneService = prenotazioneService;
+        this.indicePrenotazioni = indicePrenotazioni;
+        this.registroOpzioni = registroOpzioni;
+        this.registroLiberate = registroLiberate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.massimoPerUtente = massimoPerUtente;
+        indicePrenotazioni.registraAscoltatore(this);
+    }
+
+    /**
+     * Carica all'avvio le richieste ancora in attesa.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void carica() {
+        ultimaSincronizzazione = LocalDateTime.now();
+        List<RichiestaAttesa> inAttesa = listaAttesaRepo.findByStato(StatoAttesa.IN_ATTESA);
+        inAttesa.forEach(r -> indicizza(Voce.di(r)));
+        logger.info("Lista d'attesa caricata: {} richieste in attesa", inAttesa.size());
+    }
+
+    /**
+     * Aggiunge all'indice le richieste in attesa registrate dopo l'ultima sincronizzazione,
+     * comprese quelle delle altre istanze.
+     */
+    private void sincronizza() {
+        LocalDateTime adesso = LocalDateTime.now();
+        List<RichiestaAttesa> nuove = ultimaSincronizzazione == null
+                ? listaAttesaRepo.findByStato(StatoAttesa.IN_ATTESA)
+                : listaAttesaRepo.findByStatoAndDataCreazioneAfter(StatoAttesa.IN_ATTESA, ultimaSincronizzazione.minus(MARGINE_SINCRONIZZAZIONE));
+        for (RichiestaAttesa r : nuove) {
+            if (!perId.containsKey(r.getId())) {
+                indicizza(Voce.di(r));
+            }
+        }
+        ultimaSincronizzazione = adesso;
+    }
+
+    /**
+     * Registra una richiesta in lista d'attesa per l'utente.
+     *
+     * @throws IllegalArgumentException se la richiesta non è valida o il veicolo è già libero
+     * @throws IllegalStateException    se l'utente ha già il numero massimo di richieste in attesa
+     */
+    @PreAuthorize("hasAnyRole('UTENTE','ADMIN')")
+    public RichiestaAttesaDTO registra(String userId, RichiestaAttesaDTO richiesta) {
+        if ((richiesta.getVeicoloId() == null) == (richiesta.getTipo() == null || richiesta.getTipo().isBlank())) {
+            throw new IllegalArgumentException("Indicare un veicolo oppure un tipo di veicolo.");
+        }
+        if (richiesta.getInizio() == null || richiesta.getFine() == null || !richiesta.getInizio().isBefore(richiesta.getFine())) {
+            throw new IllegalArgumentException("La data di inizio deve essere precedente alla data di fine.");
+        }
+        if (!richiesta.getInizio().isAfter(LocalDateTime.now())) {
+            throw new IllegalArgumentException("L'intervallo richiesto è già iniziato.");
+        }
+        if (Duration.between(richiesta.getInizio(), richiesta.getFine()).compareTo(DURATA_MASSIMA) > 0) {
+            throw new IllegalArgumentException("L'intervallo in lista d'attesa può durare al massimo " + DURATA_MASSIMA.toDays() + " giorni.");
+        }
+        if (richiesta.getVeicoloId() != null) {
+            if (veicoloRepo.findByIdAndAttivoTrue(richiesta.getVeicoloId()).isEmpty()) {
+                throw new IllegalArgumentException("Veicolo non trovato");
+            }
+            if (libero(richiesta.getVeicoloId(), userId, richiesta.getInizio(), richiesta.getFine())) {
+                throw new IllegalArgumentException("Il veicolo è già disponibile nell'intervallo richiesto: prenotalo direttamente.");
+            }
+        }
+        if (listaAttesaRepo.countByUtenteIdAndStato(userId, StatoAttesa.IN_ATTESA) >= massimoPerUtente) {
+            throw new IllegalStateException("Hai già " + massimoPerUtente + " richieste in lista d'attesa.");
+        }
+        if (richiesta.isPrenotaAutomaticamente()) {
+            // carta di credito e utente verificati ora, mentre c'è il JWT dell'utente
+            prenotazioneService.preparaRichiedente(userId);
+        }
+
+        RichiestaAttesa nuova = new RichiestaAttesa();
+        nuova.setUtenteId(userId);
+        nuova.setVeicoloId(richiesta.getVeicoloId());
+        nuova.setTipo(richiesta.getVeicoloId() == null ? richiesta.getTipo() : null);
+        nuova.setDataInizio(richiesta.getInizio());
+        nuova.setDataFine(richiesta.getFine());
+        nuova.setPrenotaAutomaticamente(richiesta.isPrenotaAutomaticamente());
+        nuova.setStato(StatoAttesa.IN_ATTESA);
+        RichiestaAttesa salvata = listaAttesaRepo.save(nuova);
+        indicizza(Voce.di(salvata));
+        return toDTO(salvata);
+    }
+
+    /**
+     * Richieste in lista d'attesa dell'utente, dalla più recente.
+     */
+    @PreAuthorize("hasRole('ADMIN') or #userId == authentication.name")
+    public List<RichiestaAttesaDTO> listaPerUtente(String userId) {
+        return listaAttesaRepo.findByUtenteIdOrderByDataCreazioneDesc(userId).stream()
+                .map(ListaAttesaService::toDTO)
+                .toList();
+    }
+
+    /**
+     * Ritira una richiesta ancora in attesa dell'utente, anche se registrata da un'altra istanza.
+     *
+     * @return false se la richiesta non esiste, non è dell'utente o non è più in attesa
+     */
+    @PreAuthorize("hasAnyRole('UTENTE','ADMIN')")
+    public boolean annulla(Long id, String userId) {
+        Integer ritirate = transactionTemplate.execute(status -> listaAttesaRepo.annulla(id, userId, LocalDateTime.now()));
+        Voce voce = perId.get(id);
+        if (voce != null && voce.userId().equals(userId)) {
+            deindicizza(voce);
+        }
+        return ritirate != null && ritirate > 0;
+    }
+
+    @Override
+    public void aggiunto(IndicePrenotazioni.Intervallo intervallo) {
+        // una nuova prenotazione non libera nulla
+    }
+
+    /**
+     * Tempo liberato sul veicolo: le richieste compatibili vengono evase sul thread della lista d'attesa.
+     */
+    @Override
+    public void rimosso(IndicePrenotazioni.Intervallo intervallo) {
+        if (intervallo.fine().isAfter(LocalDateTime.now())) {
+            esecutore.execute(() -> evadi(intervallo));
+        }
+    }
+
+    /**
+     * Evade il tempo liberato su qualsiasi istanza dopo l'ultima lettura. Le righe vengono rilette con lo
+     * stesso margine della sincronizzazione, per le transazioni che le hanno scritte con una data
+     * precedente ma sono terminate dopo, e quelle già evase vengono saltate. Prima dell'evasione l'indice
+     * delle prenotazioni del veicolo viene ricaricato, perché su questa istanza può contenere ancora
+     * la prenotazione liberata altrove. Il tempo liberato su questa istanza, già evaso dall'ascoltatore,
+     * viene ritrovato qui senza effetti: le richieste evase sono già uscite dall'indice.
+     */
+    @Scheduled(fixedDelayString = "${unicalrent.lista-attesa.intervallo-liberate-ms:5000}")
+    public void sincronizzaLiberate() {
+        LocalDateTime ultima = ultimaLiberazione;
+        if (ultima == null) {
+            ultimaLiberazione = registroLiberate.adesso();
+            return;
+        }
+        List<RegistroPrenotazioniLiberate.Liberazione> nuove = registroLiberate.registrateDopo(ultima.minus(MARGINE_SINCRONIZZAZIONE))
+                .stream()
+                .filter(l -> liberazioniEvase.putIfAbsent(l.id(), l.dataRegistrazione()) == null)
+                .toList();
+        for (RegistroPrenotazioniLiberate.Liberazione l : nuove) {
+            if (l.dataRegistrazione().isAfter(ultima)) {
+                ultima = l.dataRegistrazione();
+            }
+        }
+        ultimaLiberazione = ultima;
+        LocalDateTime limite = ultima.minus(MARGINE_SINCRONIZZAZIONE);
+        liberazioniEvase.values().removeIf(d -> d.isBefore(limite));
+        if (nuove.isEmpty()) {
+            return;
+        }
+
+        esecutore.execute(() -> {
+            nuove.stream()
+                    .map(l -> l.intervallo().veicoloId())
+                    .distinct()
+                    .forEach(indicePrenotazioni::ricaricaVeicolo);
+            nuove.forEach(l -> evadi(l.intervallo()));
+        });
+    }
+
+    private void evadi(IndicePrenotazioni.Intervallo liberato) {
+        try {
+            Optional<Veicolo> veicolo = veicoloRepo.findByIdAndAttivoTrue(liberato.veicoloId());
+            if (veicolo.isEmpty()) {
+                return;
+            }
+            sincronizza();
+            List<Voce> candidate = new ArrayList<>(candidate(perVeicolo.get(liberato.veicoloId()), liberato));
+            candidate.addAll(candidate(perTipo.get(veicolo.get().getTipo()), liberato));
+            // in ordine di registrazione
+            candidate.sort(Comparator.comparing(Voce::id));
+
+            LocalDateTime adesso = LocalDateTime.now();
+            for (Voce voce : candidate) {
+                if (voce.inizio().isAfter(adesso) && libero(liberato.veicoloId(), voce.userId(), voce.inizio(), voce.fine())) {
+                    evadi(voce, veicolo.get());
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Errore nell'evasione della lista d'attesa per la prenotazione {}", liberato.id(), e);
+        }
+    }
+
+    private void evadi(Voce voce, Veicolo veicolo) {
+        if (!voce.prenotaAutomaticamente()) {
+            if (chiudi(voce, StatoAttesa.NOTIFICATA, null)) {
+                logger.info("Lista d'attesa {}: veicolo {} disponibile dal {} al {}, utente {} avvisato",
+                        voce.id(), veicolo.getId(), voce.inizio(), voce.fine(), voce.userId());
+            }
+            return;
+        }
+
+        Optional<Utente> utente = utenteRepo.findById(voce.userId());
+        if (utente.isEmpty() || !utenteService.hasCartaCreditoValida(voce.userId())) {
+            // senza carta valida non si può prenotare: l'utente viene solo avvisato
+            chiudi(voce, StatoAttesa.NOTIFICATA, null);
+            return;
+        }
+        // la richiesta viene chiusa nella stessa transazione della prenotazione: se nel frattempo è stata
+        // ritirata o evasa da un'altra istanza, anche la prenotazione viene annullata
+        PrenotazioneService.EsitoGruppo esito;
+        try {
+            esito = prenotazioneService.scriviGruppo(
+                    List.of(utente.get()),
+                    List.of(new RichiestaPrenotazioneDTO(veicolo.getId(), voce.inizio(), voce.fine())),
+                    esiti -> {
+                        Prenotazione creata = esiti.get(0).prenotazione();
+                        if (creata != null && listaAttesaRepo.chiudi(voce.id(), StatoAttesa.PRENOTATA, creata.getId(), LocalDateTime.now()) == 0) {
+                            throw new RichiestaGiaChiusaException();
+                        }
+                    }).get(0);
+        } catch (RichiestaGiaChiusaException e) {
+            deindicizza(voce);
+            return;
+        }
+        if (esito.errore() != null) {
+            // l'intervallo è stato preso nel frattempo: la richiesta resta in attesa
+            return;
+        }
+        deindicizza(voce);
+        logger.info("Lista d'attesa {}: creata la prenotazione {} per l'utente {}",
+                voce.id(), esito.prenotazione().getId(), voce.userId());
+    }
+
+    /**
+     * Segnala che la richiesta non era più in attesa al momento della prenotazione automatica.
+     */
+    private static final class RichiestaGiaChiusaException extends RuntimeException {
+        RichiestaGiaChiusaException() {
+            super("Richiesta non più in attesa", null, false, false);
+        }
+    }
+
+    /**
+     * Richieste dell'albero che si sovrappongono all'intervallo liberato.
+     */
+    private static List<Voce> candidate(AlberoVoci voci, IndicePrenotazioni.Intervallo liberato) {
+        if (voci == null) {
+            return List.of();
+        }
+        List<Voce> sovrapposte = new ArrayList<>();
+        voci.sovrapposte(liberato.inizio(), liberato.fine(), sovrapposte);
+        return sovrapposte;
+    }
+
+    private boolean libero(Long veicoloId, String userId, LocalDateTime inizio, LocalDateTime fine) {
+        return !indicePrenotazioni.sovrapposta(veicoloId, inizio, fine)
+                && registroOpzioni.riservatoDaAltri(veicoloId, userId, inizio, fine).isEmpty();
+    }
+
+    /**
+     * Chiude la richiesta sul database (solo se ancora in attesa) e la toglie dall'indice.
+     */
+    private boolean chiudi(Voce voce, StatoAttesa stato, Long prenotazioneId) {
+        Integer chiuse = transactionTemplate.execute(status ->
+                listaAttesaRepo.chiudi(voce.id(), stato, prenotazioneId, LocalDateTime.now()));
+        deindicizza(voce);
+        return chiuse != null && chiuse > 0;
+    }
+
+    /**
+     * Segna come scadute le richieste il cui intervallo è iniziato senza che si liberasse.
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void rimuoviScadute() {
+        LocalDateTime adesso = LocalDateTime.now();
+        if (perId.values().stream().noneMatch(v -> !v.inizio().isAfter(adesso))) {
+            return;
+        }
+        transactionTemplate.executeWithoutResult(status -> listaAttesaRepo.scadi(adesso));
+        perId.values().stream()
+                .filter(v -> !v.inizio().isAfter(adesso))
+                .toList()
+                .forEach(this::deindicizza);
+    }
+
+    private void indicizza(Voce voce) {
+        perId.put(voce.id(), voce);
+        if (voce.veicoloId() != null) {
+            perVeicolo.compute(voce.veicoloId(), (k, voci) -> voci == null ? AlberoVoci.di(List.of(voce)) : voci.con(voce));
+        } else {
+            perTipo.compute(voce.tipo(), (k, voci) -> voci == null ? AlberoVoci.di(List.of(voce)) : voci.con(voce));
+        }
+    }
+
+    private void deindicizza(Voce voce) {
+        perId.remove(voce.id());
+        if (voce.veicoloId() != null) {
+            perVeicolo.computeIfPresent(voce.veicoloId(), (k, voci) -> voci.senza(voce.id()));
+        } else {
+            perTipo.computeIfPresent(voce.tipo(), (k, voci) -> voci.senza(voce.id()));
+        }
+    }
+
+    /**
+     * Istantanea immutabile delle richieste di un veicolo o di un tipo, ordinate per inizio e viste come
+     * un albero binario bilanciato implicito: la radice di [basso, alto) è l'elemento centrale e
+     * maxFine[medio] è la fine più lontana del suo sottoalbero. Un sottoalbero la cui fine massima
+     * non supera l'inizio cercato viene saltato, come tutto ciò che inizia dalla fine cercata in poi.
+     * Gli aggiornamenti sostituiscono l'istantanea, come in {@link IndicePrenotazioni}.
+     */
+    private static final class AlberoVoci {
+
+        private final Voce[] voci;
+        private final LocalDateTime[] maxFine;
+
+        private AlberoVoci(Voce[] voci) {
+            this.voci = voci;
+            this.maxFine = new LocalDateTime[voci.length];
+            costruisci(0, voci.length);
+        }
+
+        static AlberoVoci di(List<Voce> voci) {
+            Voce[] ordinate = voci.toArray(new Voce[0]);
+            Arrays.sort(ordinate, ORDINE);
+            return new AlberoVoci(ordinate);
+        }
+
+        AlberoVoci con(Voce nuova) {
+            List<Voce> lista = new ArrayList<>(voci.length + 1);
+            for (Voce v : voci) {
+                if (!v.id().equals(nuova.id())) {
+                    lista.add(v);
+                }
+            }
+            lista.add(nuova);
+            return di(lista);
+        }
+
+        AlberoVoci senza(Long id) {
+            Voce[] rimaste = Arrays.stream(voci)
+                    .filter(v -> !v.id().equals(id))
+                    .toArray(Voce[]::new);
+            return rimaste.length == 0 ? null : new AlberoVoci(rimaste);
+        }
+
+        /**
+         * Aggiunge a {@code risultato} le voci che si sovrappongono a [inizio, fine), in ordine di inizio.
+         */
+        void sovrapposte(LocalDateTime inizio, LocalDateTime fine, List<Voce> risultato) {
+            cerca(0, voci.length, inizio, fine, risultato);
+        }
+
+        private void cerca(int basso, int alto, LocalDateTime inizio, LocalDateTime fine, List<Voce> risultato) {
+            if (basso >= alto) {
+                return;
+            }
+            int medio = (basso + alto) >>> 1;
+            if (!maxFine[medio].isAfter(inizio)) {
+                // tutto il sottoalbero finisce entro l'inizio cercato
+                return;
+            }
+            cerca(basso, medio, inizio, fine, risultato);
+            if (!voci[medio].inizio().isBefore(fine)) {
+                // la radice e il ramo destro iniziano dalla fine cercata in poi
+                return;
+            }
+            if (voci[medio].fine().isAfter(inizio)) {
+                risultato.add(voci[medio]);
+            }
+            cerca(medio + 1, alto, inizio, fine, risultato);
+        }
+
+        private LocalDateTime costruisci(int basso, int alto) {
+            if (basso >= alto) {
+                return null;
+            }
+            int medio = (basso + alto) >>> 1;
+            LocalDateTime massimo = voci[medio].fine();
+            LocalDateTime sinistro = costruisci(basso, medio);
+            LocalDateTime destro = costruisci(medio + 1, alto);
+            if (sinistro != null && sinistro.isAfter(massimo)) {
+                massimo = sinistro;
+            }
+            if (destro != null && destro.isAfter(massimo)) {
+                massimo = destro;
+            }
+            maxFine[medio] = massimo;
+            return massimo;
+        }
+    }
+
+    private static RichiestaAttesaDTO toDTO(RichiestaAttesa r) {
+        RichiestaAttesaDTO dto = new RichiestaAttesaDTO();
+        dto.setId(r.getId());
+        dto.setVeicoloId(r.getVeicoloId());
+        dto.setTipo(r.getTipo());
+        dto.setInizio(r.getDataInizio());
+        dto.setFine(r.getDataFine());
+        dto.setPrenotaAutomaticamente(r.isPrenotaAutomaticamente());
+        dto.setStato(r.getStato());
+        dto.setPrenotazioneId(r.getPrenotazioneId());
+        dto.setDataCreazione(r.getDataCreazione());
+        dto.setDataAggiornamento(r.getDataAggiornamento());
+        return dto;
+    }
+
+    @PreDestroy
+    public void arresta() {
+        esecutore.shutdownNow();
+    }
+}
@@ -1,83 +1,131 @@
 package it.unicalrent.service;
 
-import it.unicalrent.entity.Prenotazione;
-import it.unicalrent.entity.StatoPrenotazione;
-import it.unicalrent.repository.PrenotazioneRepository;
+import it.unicalrent.dto.EsitoScadenzeDTO;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Servizio per la gestione automatica degli stati delle prenotazioni.
- * Aggiorna automaticamente le prenotazioni scadute da ATTIVA a COMPLETATA.
+ * Aggiorna periodicamente le prenotazioni scadute da ATTIVA a COMPLETATA.
  */
 @Service
 public class PrenotazioneSchedulerService {
 
     private static final Logger logger = LoggerFactory.getLogger(PrenotazioneSchedulerService.class);
-    
-    private final PrenotazioneRepository prenotazioneRepo;
 
-    public PrenotazioneSchedulerService(PrenotazioneRepository prenotazioneRepo) {
-        this.prenotazioneRepo = prenotazioneRepo;
+    /**
+     * Passa a COMPLETATA un blocco di prenotazioni ATTIVE scadute e ne restituisce gli id.
+     * Le righe bloccate da altre transazioni vengono saltate e riprese al giro successivo.
+     */
+    private static final String COMPLETA_BLOCCO = "WITH scadute AS (" +
+            "SELECT id FROM prenotazioni WHERE stato = 'ATTIVA' AND data_fine < ? " +
+            "ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED) " +
+            "UPDATE prenotazioni p SET stato = 'COMPLETATA', version = p.version + 1 " +
+            "FROM scadute s WHERE p.id = s.id RETURNING p.id";
+
+    private static final String JOB_SCADENZE = "scadenze-prenotazioni";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final IndicePrenotazioni indicePrenotazioni;
+    private final LeadershipJob leadership;
+    private final int dimensioneBlocco;
+    private final Duration durataLease;
+
+    public PrenotazioneSchedulerService(JdbcTemplate jdbcTemplate,
+                                        PlatformTransactionManager transactionManager,
+                                        IndicePrenotazioni indicePrenotazioni,
+                                        LeadershipJob leadership,
+                                        @Value("${unicalrent.scadenze.dimensione-blocco:500}") int dimensioneBlocco,
+                                        @Value("${unicalrent.scadenze.intervallo-controllo-ms:3600000}") long intervalloControlloMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.indicePrenotazioni = indicePrenotazioni;
+        this.leadership = leadership;
+        this.dimensioneBlocco = dimensioneBlocco;
+        // il lease dura una volta e mezza l'intervallo: il leader lo rinnova sempre in tempo
+        this.durataLease = Duration.ofMillis(intervalloControlloMs * 3 / 2);
     }
 
     /**
-     * Task schedulato che viene eseguito ogni 5 minuti per aggiornare
-     * le prenotazioni attive scadute a completate.
+     * Task schedulato che aggiorna le prenotazioni attive scadute a completate.
+     * Le prenotazioni vengono già completate alla scadenza da CodaScadenzePrenotazioni:
+     * questo controllo, di default ogni ora, recupera solo quelle eventualmente sfuggite.
      */
-    @Scheduled(fixedRate = 300000) // Ogni 5 minuti
-    @Transactional
+    @Scheduled(fixedRateString = "${unicalrent.scadenze.intervallo-controllo-ms:3600000}")
     public void aggiornaPrenotazioniScadute() {
         try {
-            LocalDateTime now = LocalDateTime.now();
-            
-            // tutte le prenotazioni attive con data fine passata
-            List<Prenotazione> prenotazioniScadute = prenotazioneRepo.findByStatoAndDataFineBefore(StatoPrenotazione.ATTIVA, now);
-            
-            if (!prenotazioniScadute.isEmpty()) {
-                logger.info("Trovate {} prenotazioni scadute da aggiornare", prenotazioniScadute.size());
-                
-                // Aggiorna lo stato a COMPLETATA
-                for (Prenotazione prenotazione : prenotazioniScadute) {
-                    prenotazione.setStato(StatoPrenotazione.COMPLETATA);
-                    prenotazioneRepo.save(prenotazione);
-                    
-                    logger.debug("Prenotazione ID {} aggiornata da ATTIVA a COMPLETATA (scaduta il {})", 
-                        prenotazione.getId(), prenotazione.getDataFine());
+            // con più istanze sullo stesso database il controllo viene eseguito solo dal leader
+            leadership.eseguiSeLeader(JOB_SCADENZE, durataLease, () -> {
+                EsitoScadenzeDTO esito = completaScadute();
+                if (esito.getAggiornate() > 0) {
+                    logger.info("Aggiornate {} prenotazioni da ATTIVA a COMPLETATA in {} blocchi ({} ms)",
+                            esito.getAggiornate(), esito.getBlocchi(), esito.getDurataMs());
                 }
-                
-                logger.info("Aggiornate {} prenotazioni da ATTIVA a COMPLETATA", prenotazioniScadute.size());
-            }
-            
+            });
         } catch (Exception e) {
             logger.error("Errore durante l'aggiornamento delle prenotazioni scadute", e);
         }
     }
-    
+
     /**
      * Metodo manuale per forzare l'aggiornamento delle prenotazioni scadute.
      */
-    @Transactional
-    public int aggiornaPrenotazioniScaduteManuale() {
-        LocalDateTime now = LocalDateTime.now();
-        
-        List<Prenotazione> prenotazioniScadute = prenotazioneRepo
-            .findByStatoAndDataFineBefore(StatoPrenotazione.ATTIVA, now);
-        
-        for (Prenotazione prenotazione : prenotazioniScadute) {
-            prenotazione.setStato(StatoPrenotazione.COMPLETATA);
-            prenotazioneRepo.save(prenotazione);
+    public EsitoScadenzeDTO aggiornaPrenotazioniScaduteManuale() {
+        EsitoScadenzeDTO esito = completaScadute();
+        logger.info("Aggiornamento manuale: {} prenotazioni aggiornate da ATTIVA a COMPLETATA in {} blocchi ({} ms)",
+                esito.getAggiornate(), esito.getBlocchi(), esito.getDurataMs());
+        return esito;
+    }
+
+    /**
+     * Completa le prenotazioni scadute a blocchi di dimensione fissa, ognuno con un unico UPDATE
+     * nella propria transazione: la memoria usata non dipende dal numero di prenotazioni arretrate.
+     */
+    private EsitoScadenzeDTO completaScadute() {
+        long inizio = System.nanoTime();
+        Timestamp limite = Timestamp.valueOf(LocalDateTime.now());
+        int aggiornate = 0;
+        int blocchi = 0;
+
+        List<Long> completate;
+        do {
+            completate = transactionTemplate.execute(status ->
+                    jdbcTemplate.queryForList(COMPLETA_BLOCCO, Long.class, limite, dimensioneBlocco));
+            if (completate.isEmpty()) {
+                break;
+            }
+            completate.forEach(indicePrenotazioni::rimuovi);
+            aggiornate += completate.size();
+            blocchi++;
+            logger.debug("Blocco {}: {} prenotazioni passate a COMPLETATA", blocchi, completate.size());
+        } while (completate.size() == dimensioneBlocco);
+
+        return new EsitoScadenzeDTO(aggiornate, blocchi, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inizio));
+    }
+
+    /**
+     * All'arresto rilascia il lease, così un altro nodo subentra senza attenderne la scadenza.
+     */
+    @PreDestroy
+    public void rilasciaLease() {
+        try {
+            leadership.rilascia(JOB_SCADENZE);
+        } catch (Exception e) {
+            logger.debug("Lease {} non rilasciato all'arresto", JOB_SCADENZE, e);
         }
-        
-        logger.info("Aggiornamento manuale: {} prenotazioni aggiornate da ATTIVA a COMPLETATA", 
-            prenotazioniScadute.size());
-        
-        return prenotazioniScadute.size();
     }
-}
\ No newline at end of file
+}
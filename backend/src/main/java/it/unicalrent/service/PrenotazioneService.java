@@ -1,26 +1,43 @@
 package it.unicalrent.service;
 
+import it.unicalrent.dto.EsitoPrenotazioneDTO;
+import it.unicalrent.dto.EsitoRicalcoloDTO;
+import it.unicalrent.dto.EsitoSerieDTO;
+import it.unicalrent.dto.FinestraLiberaDTO;
+import it.unicalrent.dto.RichiestaPrenotazioneDTO;
+import it.unicalrent.dto.RichiestaSerieDTO;
 import it.unicalrent.entity.*;
 import it.unicalrent.exception.BookingConflictException;
 import it.unicalrent.repository.*;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.Period;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
  * Servizio per la gestione delle prenotazioni, con supporto a:
  * - validazione temporale,
+ * - verifica delle sovrapposizioni tramite indice in memoria,
  * - mutua esclusione tramite ServizioGiorno,
  * - optimistic locking,
  * - estrazione utente da JWT.
@@ -28,18 +45,36 @@ import java.util.stream.Collectors;
 @Service
 public class PrenotazioneService {
 
+    private static final int MAX_SUGGERIMENTI = 3;
+    private static final long GIORNI_SUGGERIMENTI = 14;
+    private static final int MAX_OCCORRENZE_SERIE = 100;
+
     private final UtenteRepository utenteRepo;
     private final VeicoloRepository veicoloRepo;
     private final PrenotazioneRepository prenotazioneRepo;
-    private final ServizioGiornoRepository servizioGiornoRepo;
+    private final ServizioGiornoService servizioGiornoService;
     private final UtenteService utenteService;
+    private final IndicePrenotazioni indicePrenotazioni;
+    private final GestoreLockVeicoli gestoreLock;
+    private final StrategiaConcorrenza strategiaConcorrenza;
+    private final RegistroOpzioni registroOpzioni;
+    private final RegistroIdempotenza registroIdempotenza;
+    private final FermoVeicoloRepository fermoRepo;
+    private final TransactionTemplate transactionTemplate;
 
-    public PrenotazioneService(UtenteRepository utenteRepo, VeicoloRepository veicoloRepo, PrenotazioneRepository prenotazioneRepo, ServizioGiornoRepository servizioGiornoRepo, UtenteService utenteService) {
+    public PrenotazioneService(UtenteRepository utenteRepo, VeicoloRepository veicoloRepo, PrenotazioneRepository prenotazioneRepo, ServizioGiornoService servizioGiornoService, UtenteService utenteService, IndicePrenotazioni indicePrenotazioni, GestoreLockVeicoli gestoreLock, StrategiaConcorrenza strategiaConcorrenza, RegistroOpzioni registroOpzioni, RegistroIdempotenza registroIdempotenza, FermoVeicoloRepository fermoRepo, PlatformTransactionManager transactionManager) {
         this.utenteRepo = utenteRepo;
         this.veicoloRepo = veicoloRepo;
         this.prenotazioneRepo = prenotazioneRepo;
-        this.servizioGiornoRepo = servizioGiornoRepo;
+        this.servizioGiornoService = servizioGiornoService;
         this.utenteService = utenteService;
+        this.indicePrenotazioni = indicePrenotazioni;
+        this.gestoreLock = gestoreLock;
+        this.strategiaConcorrenza = strategiaConcorrenza;
+        this.registroOpzioni = registroOpzioni;
+        this.registroIdempotenza = registroIdempotenza;
+        this.fermoRepo = fermoRepo;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
     }
 
     /**
@@ -73,38 +108,135 @@ public class PrenotazioneService {
 
     /**
      * Crea una nuova prenotazione con gestione ottimale della concorrenza.
+     * I tentativi sullo stesso veicolo vengono serializzati in JVM dal lock per veicolo,
+     * acquisito prima di aprire la transazione: chi attende non occupa connessioni.
      */
-    @Transactional
     @PreAuthorize("hasAnyRole('UTENTE','ADMIN')")
     public Prenotazione creaPrenotazione(String userId, Long veicoloId, LocalDateTime inizio, LocalDateTime fine) {
+        return creaPrenotazione(userId, veicoloId, inizio, fine, null);
+    }
+
+    /**
+     * Come {@link #creaPrenotazione(String, Long, LocalDateTime, LocalDateTime)}, ma con una chiave
+     * di idempotenza fornita dal client: se l'utente ha già creato una prenotazione con la stessa chiave
+     * viene restituita quella, senza ripetere i controlli né toccare ServizioGiorno.
+     *
+     * @param chiaveIdempotenza valore dell'header Idempotency-Key, oppure null
+     * @throws IllegalArgumentException se la chiave è già stata usata per una richiesta diversa
+     */
+    @PreAuthorize("hasAnyRole('UTENTE','ADMIN')")
+    public Prenotazione creaPrenotazione(String userId, Long veicoloId, LocalDateTime inizio, LocalDateTime fine,
+                                         String chiaveIdempotenza) {
+        String impronta = null;
+        if (chiaveIdempotenza != null) {
+            RegistroIdempotenza.validaChiave(chiaveIdempotenza);
+            impronta = RegistroIdempotenza.impronta(veicoloId, inizio, fine);
+            Optional<Prenotazione> giaCreata = prenotazioneGiaCreata(userId, chiaveIdempotenza, impronta);
+            if (giaCreata.isPresent()) {
+                return giaCreata.get();
+            }
+        }
+
         if (!utenteService.hasCartaCreditoValida(userId)) {
             throw new IllegalStateException("È necessario inserire una carta di credito valida prima di effettuare una prenotazione");
         }
 
+        String improntaRichiesta = impronta;
+        return gestoreLock.eseguiInEsclusiva(veicoloId, () -> {
+            if (chiaveIdempotenza == null) {
+                return creaConRetry(userId, veicoloId, inizio, fine, null, null);
+            }
+            // Un tentativo ripetuto può essere rimasto in coda sul lock dietro quello originale
+            Optional<Prenotazione> giaCreata = prenotazioneGiaCreata(userId, chiaveIdempotenza, improntaRichiesta);
+            if (giaCreata.isPresent()) {
+                return giaCreata.get();
+            }
+            try {
+                return creaConRetry(userId, veicoloId, inizio, fine, chiaveIdempotenza, improntaRichiesta);
+            } catch (BookingConflictException | DataIntegrityViolationException ex) {
+                // La stessa richiesta può essere stata completata nel frattempo su un'altra istanza
+                return prenotazioneGiaCreata(userId, chiaveIdempotenza, improntaRichiesta).orElseThrow(() -> ex);
+            }
+        });
+    }
+
+    /**
+     * Prenotazione già creata dall'utente con la chiave indicata. Se nel frattempo è stata eliminata
+     * la chiave viene dimenticata e la richiesta torna a essere trattata come nuova.
+     */
+    private Optional<Prenotazione> prenotazioneGiaCreata(String userId, String chiave, String impronta) {
+        Optional<Long> prenotazioneId = registroIdempotenza.cerca(userId, chiave, impronta);
+        if (prenotazioneId.isEmpty()) {
+            return Optional.empty();
+        }
+        Optional<Prenotazione> prenotazione = prenotazioneRepo.findById(prenotazioneId.get());
+        if (prenotazione.isEmpty()) {
+            registroIdempotenza.dimentica(userId, chiave);
+        }
+        return prenotazione;
+    }
+
+    /**
+     * Esegue la creazione in una transazione dedicata per ogni tentativo.
+     * Con il lock in JVM i conflitti di versione arrivano solo da altre istanze dell'applicazione,
+     * quindi si ritenta subito con una transazione nuova, senza attese a connessione aperta.
+     */
+    private Prenotazione creaConRetry(String userId, Long veicoloId, LocalDateTime inizio, LocalDateTime fine,
+                                      String chiaveIdempotenza, String impronta) {
         int maxRetry = 3;
         for (int tentativo = 1; tentativo <= maxRetry; tentativo++) {
             try {
-                return creaPrenotazioneInterno(userId, veicoloId, inizio, fine);
+                return transactionTemplate.execute(status -> {
+                    Prenotazione creata = creaPrenotazioneInterno(userId, veicoloId, inizio, fine);
+                    if (chiaveIdempotenza != null) {
+                        // stessa transazione della prenotazione: o esistono entrambe o nessuna delle due
+                        registroIdempotenza.registra(userId, chiaveIdempotenza, impronta, creata.getId());
+                    }
+                    return creata;
+                });
             } catch (OptimisticLockingFailureException ex) {
                 if (tentativo == maxRetry) {
                     throw new IllegalStateException("Concorrenza troppo alta, riprova più tardi");
                 }
-                try {
-                    Thread.sleep(100 * tentativo);
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                    throw new IllegalStateException("Operazione interrotta");
-                }
             }
         }
         throw new IllegalStateException("Errore imprevisto nella creazione della prenotazione");
     }
     
     /**
-     * Metodo interno che implementa la logica di creazione con optimistic locking.
+     * Metodo interno che implementa la logica di creazione,
+     * protetta dalla strategia di concorrenza configurata.
      */
     @Transactional
     protected Prenotazione creaPrenotazioneInterno(String userId, Long veicoloId, LocalDateTime inizio, LocalDateTime fine) {
+        validaIntervallo(inizio, fine);
+
+        Utente utente = getOrCreateUtenteDaJWT(userId);
+        // Lock della strategia di concorrenza configurata (nessuno per quella ottimistica)
+        strategiaConcorrenza.acquisisci(veicoloId);
+
+        Veicolo veicolo = veicoloRepo.findById(veicoloId)
+                .orElseThrow(() -> new IllegalArgumentException("Veicolo non trovato"));
+        registroOpzioni.verificaLibero(veicoloId, userId, inizio, fine);
+        verificaFermi(veicoloId, inizio, fine);
+
+        if (strategiaConcorrenza.serializzaVeicolo()) {
+            // Con il veicolo bloccato fino al commit basta una sola query sull'intero intervallo
+            verificaSovrapposizione(veicolo, inizio, fine);
+        } else if (indicePrenotazioni.sovrapposta(veicoloId, inizio, fine)) {
+            // Verifica rapida sull'indice in memoria: una sovrapposizione segnalata viene confermata
+            // sul database prima di rifiutare, altrimenti l'indice era disallineato e lo ricarico.
+            verificaSovrapposizione(veicolo, inizio, fine);
+            indicePrenotazioni.ricaricaVeicolo(veicoloId);
+        }
+
+        return scriviPrenotazione(utente, veicolo, inizio, fine);
+    }
+
+    /**
+     * Controlli sull'intervallo richiesto: ordine delle date e durata minima di un'ora.
+     */
+    private void validaIntervallo(LocalDateTime inizio, LocalDateTime fine) {
         if (!inizio.isBefore(fine)) {
             throw new IllegalArgumentException("La data di inizio deve essere precedente alla data di fine.");
         }
@@ -113,42 +245,18 @@ public class PrenotazioneService {
         if (minutiDurata < 60) {
             throw new IllegalArgumentException("La durata minima della prenotazione deve essere di almeno un'ora.");
         }
+    }
 
-        Utente utente = getOrCreateUtenteDaJWT(userId);
-        Veicolo veicolo = veicoloRepo.findById(veicoloId)
-                .orElseThrow(() -> new IllegalArgumentException("Veicolo non trovato"));
-    
-        // PRIMA incremento ServizioGiorno per ogni giorno (questo forza il lock)
-        LocalDate giorno = inizio.toLocalDate();
-        while (!giorno.isAfter(fine.toLocalDate())) {
-            ServizioGiorno sg = servizioGiornoRepo.findByVeicoloAndData(veicolo, giorno)
-                    .orElse(new ServizioGiorno(veicolo, giorno));
-            
-            // Controllo se il veicolo è già prenotato in questo giorno
-            // DOPO aver acquisito il lock tramite ServizioGiorno
-            if (sg.getNumeroPrenotazioni() > 0) {
-                // Verifica dettagliata delle sovrapposizioni per questo giorno specifico
-                LocalDateTime inizioGiorno = giorno.atStartOfDay();
-                LocalDateTime fineGiorno = giorno.plusDays(1).atStartOfDay();
-                
-                boolean sovrapposta = prenotazioneRepo.existsByVeicoloAndStatoAndDataInizioLessThanAndDataFineGreaterThan(
-                    veicolo,
-                    StatoPrenotazione.ATTIVA,
-                    Math.max(inizio.toEpochSecond(java.time.ZoneOffset.UTC), inizioGiorno.toEpochSecond(java.time.ZoneOffset.UTC)) == inizio.toEpochSecond(java.time.ZoneOffset.UTC) ? fine : fineGiorno,
-                    Math.min(fine.toEpochSecond(java.time.ZoneOffset.UTC), fineGiorno.toEpochSecond(java.time.ZoneOffset.UTC)) == fine.toEpochSecond(java.time.ZoneOffset.UTC) ? inizio : inizioGiorno
-                );
-                
-                if (sovrapposta) {
-                    throw new BookingConflictException("Il veicolo non è disponibile nella fascia richiesta per il giorno " + giorno);
-                }
-            }
-            
-            // Incremento il contatore (questo scatena l'optimistic lock se c'è concorrenza)
-            sg.incrementaPrenotazioni();
-            servizioGiornoRepo.save(sg);
-            giorno = giorno.plusDays(1);
-        }
-    
+    /**
+     * Calcola il costo, aggiorna i contatori giornalieri e salva la prenotazione ATTIVA.
+     * Va invocato nella transazione di prenotazione, dopo il lock della strategia di concorrenza;
+     * con una strategia che serializza il veicolo il chiamante deve aver già escluso le sovrapposizioni.
+     */
+    private Prenotazione scriviPrenotazione(Utente utente, Veicolo veicolo, LocalDateTime inizio, LocalDateTime fine) {
+        return scriviPrenotazione(utente, veicolo, inizio, fine, null);
+    }
+
+    private Prenotazione scriviPrenotazione(Utente utente, Veicolo veicolo, LocalDateTime inizio, LocalDateTime fine, String serieId) {
         // Calcolo del costo totale
         long minuti = java.time.Duration.between(inizio, fine).toMinutes();
         double ore = minuti / 60.0;
@@ -158,25 +266,526 @@ public class PrenotazioneService {
         Prenotazione pren = new Prenotazione(utente, veicolo, inizio, fine);
         pren.setStato(StatoPrenotazione.ATTIVA); // Cambiato da RICHIESTA ad ATTIVA
         pren.setCostoTotale(costoTotale);
+        pren.setSerieId(serieId);
     
-        return prenotazioneRepo.save(pren);
+        Prenotazione salvata;
+        if (strategiaConcorrenza.vincoloDatabase()) {
+            // L'inserimento stesso è il controllo di conflitto (vincolo di esclusione su prenotazioni);
+            // i contatori giornalieri vengono aggiornati con un'unica istruzione, senza leggerli.
+            salvata = salvaConVincolo(pren);
+            servizioGiornoService.registraInBlocco(veicolo, inizio, fine);
+        } else if (strategiaConcorrenza.serializzaVeicolo()) {
+            // Nessun altro scrive sul veicolo fino al commit: contatori aggiornati in blocco
+            servizioGiornoService.registraInBlocco(veicolo, inizio, fine);
+            salvata = prenotazioneRepo.save(pren);
+        } else {
+            // Incremento ServizioGiorno per ogni giorno (questo scatena l'optimistic lock se c'è concorrenza).
+            // Se le fasce orarie già occupate non intersecano quelle richieste non può esserci sovrapposizione,
+            // altrimenti confermo sul database con un'unica query sull'intero intervallo.
+            if (servizioGiornoService.registra(veicolo, inizio, fine)) {
+                verificaSovrapposizione(veicolo, inizio, fine);
+            }
+            salvata = prenotazioneRepo.save(pren);
+        }
+        indicePrenotazioni.aggiungi(salvata.getId(), veicolo.getId(), inizio, fine);
+        return salvata;
     }
 
     /**
-     * Modifica una prenotazione esistente con gli stessi controlli della creazione.
+     * Crea più prenotazioni dello stesso utente in un'unica transazione.
+     * Carta di credito e utente vengono verificati una sola volta; i veicoli vengono bloccati in ordine
+     * di id per evitare deadlock e i conflitti sono valutati con una sola query per veicolo.
+     *
+     * @param atomico se true non viene creata nessuna prenotazione a meno che lo siano tutte;
+     *                altrimenti vengono create quelle valide e restituito l'esito di ciascuna
+     */
+    @PreAuthorize("hasAnyRole('UTENTE','ADMIN')")
+    public List<EsitoPrenotazioneDTO> creaPrenotazioniLotto(String userId, List<RichiestaPrenotazioneDTO> richieste, boolean atomico) {
+        Utente utente = preparaRichiedente(userId);
+
+        List<Long> veicoliIds = richieste.stream()
+                .map(RichiestaPrenotazioneDTO::getVeicoloId)
+                .filter(Objects::nonNull)
+                .distinct()
+                .sorted()
+                .toList();
+
+        return gestoreLock.eseguiInEsclusiva(veicoliIds, () -> {
+            int maxRetry = 3;
+            for (int tentativo = 1; tentativo <= maxRetry; tentativo++) {
+                try {
+                    return transactionTemplate.execute(status -> eseguiLotto(Collections.nCopies(richieste.size(), utente), veicoliIds, richieste, atomico, null));
+                } catch (OptimisticLockingFailureException | BookingConflictException ex) {
+                    // Scrittura concorrente di un'altra istanza (contatori o vincolo di esclusione):
+                    // al tentativo successivo il lotto viene rivalutato e la richiesta risulta in CONFLITTO
+                    if (tentativo == maxRetry) {
+                        throw new IllegalStateException("Concorrenza troppo alta, riprova più tardi");
+                    }
+                }
+            }
+            throw new IllegalStateException("Errore imprevisto nella creazione delle prenotazioni");
+        });
+    }
+
+    /**
+     * Valuta e scrive un lotto di richieste nella transazione corrente.
+     *
+     * @param richiedenti l'utente di ciascuna richiesta, nello stesso ordine di richieste
+     * @param serieId     serie ricorrente a cui assegnare le prenotazioni create, oppure null
+     */
+    private List<EsitoPrenotazioneDTO> eseguiLotto(List<Utente> richiedenti, List<Long> veicoliIds,
+                                                   List<RichiestaPrenotazioneDTO> richieste, boolean atomico, String serieId) {
+        Map<Long, Veicolo> veicoli = new HashMap<>();
+        List<EsitoPrenotazioneDTO> esiti = valutaLotto(richiedenti, veicoliIds, richieste, veicoli);
+        boolean tutteValide = esiti.stream().allMatch(e -> e.getEsito() == EsitoPrenotazioneDTO.Esito.CREATA);
+
+        if (atomico && !tutteValide) {
+            for (EsitoPrenotazioneDTO esito : esiti) {
+                if (esito.getEsito() == EsitoPrenotazioneDTO.Esito.CREATA) {
+                    esito.setEsito(EsitoPrenotazioneDTO.Esito.NON_ESEGUITA);
+                    esito.setMessaggio("Lotto annullato: almeno una richiesta non è valida o è in conflitto.");
+                }
+            }
+            return esiti;
+        }
+
+        for (int i = 0; i < esiti.size(); i++) {
+            EsitoPrenotazioneDTO esito = esiti.get(i);
+            if (esito.getEsito() == EsitoPrenotazioneDTO.Esito.CREATA) {
+                Prenotazione creata = scriviPrenotazione(richiedenti.get(i), veicoli.get(esito.getVeicoloId()), esito.getInizio(), esito.getFine(), serieId);
+                esito.setPrenotazioneId(creata.getId());
+            }
+        }
+        return esiti;
+    }
+
+    /**
+     * Crea una serie di prenotazioni ricorrenti sullo stesso veicolo. Le occorrenze vengono generate
+     * qui, confrontate con le prenotazioni attive con una sola query sull'intero arco della serie
+     * e scritte tutte nella stessa transazione, con lo stesso serieId.
+     *
+     * @param atomica se true non viene creata nessuna occorrenza a meno che lo siano tutte;
+     *                altrimenti vengono create quelle libere e le altre riportate come conflitti
+     * @throws IllegalArgumentException se la ricorrenza non è valida
+     */
+    @PreAuthorize("hasAnyRole('UTENTE','ADMIN')")
+    public EsitoSerieDTO creaSerie(String userId, RichiestaSerieDTO serie, boolean atomica) {
+        List<RichiestaPrenotazioneDTO> occorrenze = espandiSerie(serie);
+        Utente utente = preparaRichiedente(userId);
+        List<Long> veicoliIds = List.of(serie.getVeicoloId());
+        String serieId = UUID.randomUUID().toString();
+
+        return gestoreLock.eseguiInEsclusiva(serie.getVeicoloId(), () -> {
+            int maxRetry = 3;
+            for (int tentativo = 1; tentativo <= maxRetry; tentativo++) {
+                try {
+                    List<EsitoPrenotazioneDTO> esiti = transactionTemplate.execute(status -> eseguiLotto(
+                            Collections.nCopies(occorrenze.size(), utente), veicoliIds, occorrenze, atomica, serieId));
+                    return new EsitoSerieDTO(serieId, esiti);
+                } catch (OptimisticLockingFailureException | BookingConflictException ex) {
+                    if (tentativo == maxRetry) {
+                        throw new IllegalStateException("Concorrenza troppo alta, riprova più tardi");
+                    }
+                }
+            }
+            throw new IllegalStateException("Errore imprevisto nella creazione della serie");
+        });
+    }
+
+    /**
+     * Genera le occorrenze di una serie, spostando la prima di un giorno o di una settimana alla volta.
+     */
+    private static List<RichiestaPrenotazioneDTO> espandiSerie(RichiestaSerieDTO serie) {
+        if (serie.getVeicoloId() == null || serie.getInizio() == null || serie.getFine() == null || serie.getFrequenza() == null) {
+            throw new IllegalArgumentException("Veicolo, inizio, fine e frequenza sono obbligatori.");
+        }
+        if ((serie.getFineSerie() == null) == (serie.getOccorrenze() == null)) {
+            throw new IllegalArgumentException("Indicare la data di fine della serie oppure il numero di occorrenze.");
+        }
+        Period passo = serie.getFrequenza() == RichiestaSerieDTO.Frequenza.SETTIMANALE ? Period.ofWeeks(1) : Period.ofDays(1);
+        if (serie.getFine().isAfter(serie.getInizio().plus(passo))) {
+            throw new IllegalArgumentException("Ogni occorrenza deve terminare prima dell'inizio della successiva.");
+        }
+
+        List<RichiestaPrenotazioneDTO> occorrenze = new ArrayList<>();
+        for (int k = 0; ; k++) {
+            LocalDateTime inizio = serie.getInizio().plus(passo.multipliedBy(k));
+            boolean finita = serie.getOccorrenze() != null
+                    ? k >= serie.getOccorrenze()
+                    : inizio.toLocalDate().isAfter(serie.getFineSerie());
+            if (finita) {
+                break;
+            }
+            if (occorrenze.size() == MAX_OCCORRENZE_SERIE) {
+                throw new IllegalArgumentException("Una serie può avere al massimo " + MAX_OCCORRENZE_SERIE + " occorrenze.");
+            }
+            occorrenze.add(new RichiestaPrenotazioneDTO(serie.getVeicoloId(), inizio, serie.getFine().plus(passo.multipliedBy(k))));
+        }
+        if (occorrenze.isEmpty()) {
+            throw new IllegalArgumentException("La serie non ha nessuna occorrenza.");
+        }
+        return occorrenze;
+    }
+
+    /**
+     * Annulla tutte le occorrenze ancora annullabili di una serie dell'utente, cioè quelle ATTIVE
+     * che iniziano tra più di 2 ore; le occorrenze già iniziate o concluse restano invariate.
+     *
+     * @return il numero di occorrenze annullate
      */
     @Transactional
     @PreAuthorize("hasAnyRole('UTENTE','ADMIN')")
+    public int cancellaSerie(String serieId, String userId) {
+        List<Prenotazione> occorrenze = prenotazioneRepo.findBySerieIdOrderByDataInizio(serieId);
+        if (occorrenze.isEmpty()) {
+            throw new IllegalArgumentException("Serie non trovata");
+        }
+        if (!occorrenze.get(0).getUtente().getId().equals(userId)) {
+            throw new SecurityException("Non puoi cancellare una serie altrui");
+        }
+
+        LocalDateTime limite = LocalDateTime.now().plusHours(2);
+        int annullate = 0;
+        for (Prenotazione prenotazione : occorrenze) {
+            if (prenotazione.getStato() != StatoPrenotazione.ATTIVA || prenotazione.getDataInizio().isBefore(limite)) {
+                continue;
+            }
+            prenotazione.setStato(StatoPrenotazione.ANNULLATA);
+            servizioGiornoService.rilascia(prenotazione);
+            indicePrenotazioni.rimuovi(prenotazione.getId());
+            annullate++;
+        }
+        prenotazioneRepo.saveAll(occorrenze);
+        return annullate;
+    }
+
+    /**
+     * Esito di una richiesta scritta con {@link #scriviGruppo}: la prenotazione creata
+     * oppure l'errore da restituire a chi l'ha inviata.
+     */
+    public record EsitoGruppo(Prenotazione prenotazione, RuntimeException errore) {
+    }
+
+    /**
+     * Controlli sull'utente che vanno fatti nel thread della richiesta, dove c'è il JWT:
+     * carta di credito valida e creazione dell'utente al primo accesso.
+     */
+    @PreAuthorize("hasAnyRole('UTENTE','ADMIN')")
+    public Utente preparaRichiedente(String userId) {
+        if (!utenteService.hasCartaCreditoValida(userId)) {
+            throw new IllegalStateException("È necessario inserire una carta di credito valida prima di effettuare una prenotazione");
+        }
+        return getOrCreateUtenteDaJWT(userId);
+    }
+
+    /**
+     * Scrive in un'unica transazione un gruppo di richieste di utenti diversi (group commit),
+     * usato dallo scrittore unico per veicolo. Le richieste vengono valutate come un lotto non atomico:
+     * quelle in conflitto con prenotazioni esistenti o con una richiesta precedente del gruppo
+     * ricevono l'errore, le altre vengono create insieme. Se la transazione fallisce per una scrittura
+     * concorrente di un'altra istanza l'intero gruppo viene rivalutato.
+     * Gli utenti devono essere già stati preparati con {@link #preparaRichiedente}.
+     *
+     * @return un esito per ogni richiesta, nello stesso ordine
+     */
+    public List<EsitoGruppo> scriviGruppo(List<Utente> richiedenti, List<RichiestaPrenotazioneDTO> richieste) {
+        return scriviGruppo(richiedenti, richieste, esiti -> { });
+    }
+
+    /**
+     * Come {@link #scriviGruppo(List, List)}, eseguendo {@code nellaTransazione} sugli esiti prima del commit:
+     * un'eccezione sollevata lì annulla anche le prenotazioni del gruppo.
+     */
+    public List<EsitoGruppo> scriviGruppo(List<Utente> richiedenti, List<RichiestaPrenotazioneDTO> richieste,
+                                          Consumer<List<EsitoGruppo>> nellaTransazione) {
+        List<Long> veicoliIds = richieste.stream()
+                .map(RichiestaPrenotazioneDTO::getVeicoloId)
+                .distinct()
+                .sorted()
+                .toList();
+
+        return gestoreLock.eseguiInEsclusiva(veicoliIds, () -> {
+            int maxRetry = 3;
+            for (int tentativo = 1; tentativo <= maxRetry; tentativo++) {
+                try {
+                    return transactionTemplate.execute(status -> {
+                        List<EsitoGruppo> esiti = scriviGruppoInterno(richiedenti, veicoliIds, richieste);
+                        nellaTransazione.accept(esiti);
+                        return esiti;
+                    });
+                } catch (OptimisticLockingFailureException | BookingConflictException ex) {
+                    if (tentativo == maxRetry) {
+                        throw new IllegalStateException("Concorrenza troppo alta, riprova più tardi");
+                    }
+                }
+            }
+            throw new IllegalStateException("Errore imprevisto nella creazione delle prenotazioni");
+        });
+    }
+
+    private List<EsitoGruppo> scriviGruppoInterno(List<Utente> richiedenti, List<Long> veicoliIds,
+                                                  List<RichiestaPrenotazioneDTO> richieste) {
+        Map<Long, Veicolo> veicoli = new HashMap<>();
+        List<EsitoPrenotazioneDTO> valutazioni = valutaLotto(richiedenti, veicoliIds, richieste, veicoli);
+
+        List<EsitoGruppo> esiti = new ArrayList<>(valutazioni.size());
+        for (int i = 0; i < valutazioni.size(); i++) {
+            EsitoPrenotazioneDTO valutazione = valutazioni.get(i);
+            esiti.add(switch (valutazione.getEsito()) {
+                case CREATA -> new EsitoGruppo(scriviPrenotazione(richiedenti.get(i), veicoli.get(valutazione.getVeicoloId()),
+                        valutazione.getInizio(), valutazione.getFine()), null);
+                case CONFLITTO -> new EsitoGruppo(null, new BookingConflictException(valutazione.getMessaggio()));
+                default -> new EsitoGruppo(null, new IllegalArgumentException(valutazione.getMessaggio()));
+            });
+        }
+        return esiti;
+    }
+
+    /**
+     * Decide quali richieste del lotto si possono creare, senza scrivere nulla: le richieste vengono
+     * confrontate con le prenotazioni attive lette con una sola query per veicolo e con quelle
+     * già accettate nello stesso lotto. Le accettate restano con esito CREATA.
+     *
+     * @param veicoli riempita con i veicoli letti, per la successiva scrittura
+     */
+    private List<EsitoPrenotazioneDTO> valutaLotto(List<Utente> richiedenti, List<Long> veicoliIds,
+                                                   List<RichiestaPrenotazioneDTO> richieste, Map<Long, Veicolo> veicoli) {
+        veicoliIds.forEach(strategiaConcorrenza::acquisisci);
+        veicoli.putAll(veicoloRepo.findAllById(veicoliIds).stream()
+                .collect(Collectors.toMap(Veicolo::getId, Function.identity())));
+
+        // Una sola query per veicolo sull'arco temporale coperto dalle sue richieste
+        Map<Long, List<Prenotazione>> occupate = new HashMap<>();
+        for (Veicolo veicolo : veicoli.values()) {
+            List<RichiestaPrenotazioneDTO> delVeicolo = richieste.stream()
+                    .filter(r -> veicolo.getId().equals(r.getVeicoloId()) && r.getInizio() != null && r.getFine() != null)
+                    .toList();
+            if (delVeicolo.isEmpty()) {
+                continue;
+            }
+            LocalDateTime da = delVeicolo.stream().map(RichiestaPrenotazioneDTO::getInizio).min(LocalDateTime::compareTo).get();
+            LocalDateTime a = delVeicolo.stream().map(RichiestaPrenotazioneDTO::getFine).max(LocalDateTime::compareTo).get();
+            occupate.put(veicolo.getId(), new ArrayList<>(
+                    prenotazioneRepo.findByVeicoloAndStatoAndPeriodo(veicolo, StatoPrenotazione.ATTIVA, da, a)));
+        }
+
+        // Fermi programmati di tutti i veicoli del lotto con un'unica query, dopo i lock condivisi sui fermi
+        veicoliIds.stream().filter(veicoli::containsKey).forEach(fermoRepo::lockCondivisoTransazione);
+        List<FermoVeicolo> fermi = !veicoli.isEmpty() && richieste.stream().anyMatch(r -> r.getInizio() != null && r.getFine() != null)
+                ? fermoRepo.findByVeicoloIdInAndDataInizioLessThanAndDataFineGreaterThan(veicoli.keySet(),
+                        richieste.stream().map(RichiestaPrenotazioneDTO::getFine).filter(Objects::nonNull).max(LocalDateTime::compareTo).get(),
+                        richieste.stream().map(RichiestaPrenotazioneDTO::getInizio).filter(Objects::nonNull).min(LocalDateTime::compareTo).get())
+                : List.of();
+
+        List<EsitoPrenotazioneDTO> esiti = new ArrayList<>();
+        Map<Long, List<RichiestaPrenotazioneDTO>> accettate = new HashMap<>();
+        for (int i = 0; i < richieste.size(); i++) {
+            RichiestaPrenotazioneDTO richiesta = richieste.get(i);
+            EsitoPrenotazioneDTO esito = new EsitoPrenotazioneDTO(richiesta);
+            esiti.add(esito);
+            try {
+                if (richiesta.getVeicoloId() == null || richiesta.getInizio() == null || richiesta.getFine() == null) {
+                    throw new IllegalArgumentException("Veicolo, inizio e fine sono obbligatori.");
+                }
+                validaIntervallo(richiesta.getInizio(), richiesta.getFine());
+                if (!veicoli.containsKey(richiesta.getVeicoloId())) {
+                    throw new IllegalArgumentException("Veicolo non trovato");
+                }
+            } catch (IllegalArgumentException e) {
+                esito.setEsito(EsitoPrenotazioneDTO.Esito.NON_VALIDA);
+                esito.setMessaggio(e.getMessage());
+                continue;
+            }
+
+            if (registroOpzioni.riservatoDaAltri(richiesta.getVeicoloId(), richiedenti.get(i).getId(), richiesta.getInizio(), richiesta.getFine()).isPresent()) {
+                esito.setEsito(EsitoPrenotazioneDTO.Esito.CONFLITTO);
+                esito.setMessaggio("Il veicolo è temporaneamente riservato da un altro utente.");
+                continue;
+            }
+
+            if (fermi.stream().anyMatch(f -> f.getVeicoloId().equals(richiesta.getVeicoloId())
+                    && siSovrappongono(f.getDataInizio(), f.getDataFine(), richiesta.getInizio(), richiesta.getFine()))) {
+                esito.setEsito(EsitoPrenotazioneDTO.Esito.CONFLITTO);
+                esito.setMessaggio("Il veicolo è fermo per manutenzione nella fascia richiesta.");
+                continue;
+            }
+
+            List<RichiestaPrenotazioneDTO> giaAccettate = accettate.computeIfAbsent(richiesta.getVeicoloId(), k -> new ArrayList<>());
+            boolean conflitto = occupate.getOrDefault(richiesta.getVeicoloId(), List.of()).stream()
+                    .anyMatch(p -> siSovrappongono(p.getDataInizio(), p.getDataFine(), richiesta.getInizio(), richiesta.getFine()))
+                    || giaAccettate.stream()
+                    .anyMatch(r -> siSovrappongono(r.getInizio(), r.getFine(), richiesta.getInizio(), richiesta.getFine()));
+            if (conflitto) {
+                esito.setEsito(EsitoPrenotazioneDTO.Esito.CONFLITTO);
+                esito.setMessaggio("Il veicolo non è disponibile nella fascia richiesta.");
+                continue;
+            }
+
+            giaAccettate.add(richiesta);
+            esito.setEsito(EsitoPrenotazioneDTO.Esito.CREATA);
+        }
+
+        return esiti;
+    }
+
+    private static boolean siSovrappongono(LocalDateTime inizioA, LocalDateTime fineA, LocalDateTime inizioB, LocalDateTime fineB) {
+        return inizioA.isBefore(fineB) && fineA.isAfter(inizioB);
+    }
+
+    /**
+     * Salva e scrive subito la prenotazione, traducendo la violazione del vincolo
+     * di esclusione (SQLSTATE 23P01) in BookingConflictException.
+     */
+    private Prenotazione salvaConVincolo(Prenotazione prenotazione) {
+        try {
+            return prenotazioneRepo.saveAndFlush(prenotazione);
+        } catch (DataIntegrityViolationException ex) {
+            if (VincoloEsclusionePrenotazioni.isViolazione(ex)) {
+                throw new BookingConflictException("Il veicolo non è disponibile nella fascia richiesta dal "
+                        + prenotazione.getDataInizio() + " al " + prenotazione.getDataFine());
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Verifica sul database che l'intervallo non ricada in un fermo programmato del veicolo:
+     * i fermi non passano dai contatori giornalieri, quindi vanno controllati sempre. Il lock advisory
+     * condiviso fa attendere la creazione di un fermo in corso su un'altra istanza.
+     */
+    private void verificaFermi(Long veicoloId, LocalDateTime inizio, LocalDateTime fine) {
+        fermoRepo.lockCondivisoTransazione(veicoloId);
+        if (fermoRepo.existsByVeicoloIdAndDataInizioLessThanAndDataFineGreaterThan(veicoloId, fine, inizio)) {
+            throw new BookingConflictException("Il veicolo è fermo per manutenzione nella fascia richiesta dal " + inizio + " al " + fine);
+        }
+    }
+
+    /**
+     * Solleva BookingConflictException se sul database esiste una prenotazione ATTIVA
+     * del veicolo che si sovrappone all'intervallo [inizio, fine).
+     */
+    private void verificaSovrapposizione(Veicolo veicolo, LocalDateTime inizio, LocalDateTime fine) {
+        boolean sovrapposta = prenotazioneRepo.existsByVeicoloAndStatoAndDataInizioLessThanAndDataFineGreaterThan(
+                veicolo, StatoPrenotazione.ATTIVA, fine, inizio);
+        if (sovrapposta) {
+            throw new BookingConflictException("Il veicolo non è disponibile nella fascia richiesta dal " + inizio + " al " + fine);
+        }
+    }
+
+    /**
+     * Finestre libere della stessa durata più vicine all'intervallo richiesto sullo stesso veicolo,
+     * calcolate dall'indice in memoria entro qualche giorno prima e dopo e mai nel passato.
+     */
+    @PreAuthorize("hasAnyRole('UTENTE','ADMIN')")
+    public List<FinestraLiberaDTO> suggerisciFinestre(Long veicoloId, LocalDateTime inizio, LocalDateTime fine) {
+        java.time.Duration durata = java.time.Duration.between(inizio, fine);
+        LocalDateTime adesso = LocalDateTime.now();
+        LocalDateTime da = inizio.minusDays(GIORNI_SUGGERIMENTI);
+        if (da.isBefore(adesso)) {
+            da = adesso;
+        }
+        return indicePrenotazioni.finestreLibere(veicoloId, durata, inizio, da, fine.plusDays(GIORNI_SUGGERIMENTI), MAX_SUGGERIMENTI)
+                .stream()
+                .map(f -> new FinestraLiberaDTO(f.inizio(), f.fine()))
+                .toList();
+    }
+
+    /**
+     * Altri veicoli attivi dello stesso tipo liberi nell'intervallo richiesto, secondo l'indice in memoria.
+     */
+    @Transactional(readOnly = true)
+    @PreAuthorize("hasAnyRole('UTENTE','ADMIN')")
+    public List<Veicolo> suggerisciVeicoli(Long veicoloId, LocalDateTime inizio, LocalDateTime fine) {
+        Veicolo richiesto = veicoloRepo.findById(veicoloId).orElse(null);
+        if (richiesto == null || richiesto.getTipo() == null) {
+            return List.of();
+        }
+        return veicoloRepo.findByAttivoTrueAndTipo(richiesto.getTipo()).stream()
+                .filter(v -> !v.getId().equals(veicoloId))
+                .filter(v -> !indicePrenotazioni.sovrapposta(v.getId(), inizio, fine))
+                .limit(MAX_SUGGERIMENTI)
+                .toList();
+    }
+
+    /**
+     * Trasforma un'opzione dell'utente in una prenotazione, con gli stessi controlli della creazione.
+     * L'opzione dell'utente stesso non blocca la prenotazione e viene rimossa solo a prenotazione avvenuta.
+     */
+    @PreAuthorize("hasAnyRole('UTENTE','ADMIN')")
+    public Prenotazione confermaOpzione(String opzioneId, String userId) {
+        RegistroOpzioni.Opzione opzione = registroOpzioni.trova(opzioneId, userId)
+                .orElseThrow(() -> new IllegalArgumentException("Opzione non trovata o scaduta"));
+        Prenotazione prenotazione = creaPrenotazione(userId, opzione.veicoloId(), opzione.inizio(), opzione.fine());
+        registroOpzioni.rimuovi(opzioneId, userId);
+        return prenotazione;
+    }
+
+    /**
+     * Sposta una prenotazione ATTIVA su un nuovo intervallo aggiornando la riga esistente,
+     * che mantiene id e data di creazione. I contatori giornalieri vengono aggiornati solo
+     * per i giorni che cambiano; la sovrapposizione è verificata sull'intero nuovo intervallo.
+     */
+    @PreAuthorize("hasAnyRole('UTENTE','ADMIN')")
     public Prenotazione modificaPrenotazione(Long prenId, String userId, LocalDateTime nuovoInizio, LocalDateTime nuovoFine) {
         Prenotazione esistente = prenotazioneRepo.findById(prenId)
                 .orElseThrow(() -> new IllegalArgumentException("Prenotazione non trovata"));
+        Long veicoloId = esistente.getVeicolo().getId();
+
+        return gestoreLock.eseguiInEsclusiva(veicoloId, () -> {
+            int maxRetry = 3;
+            for (int tentativo = 1; tentativo <= maxRetry; tentativo++) {
+                try {
+                    return transactionTemplate.execute(status -> modificaPrenotazioneInterno(prenId, userId, nuovoInizio, nuovoFine));
+                } catch (OptimisticLockingFailureException | DataIntegrityViolationException ex) {
+                    // Versione cambiata, oppure riga ServizioGiorno di un giorno nuovo creata nel frattempo
+                    // da un'altra transazione (uc_servizio_giorno_veicolo_data): al tentativo successivo viene letta
+                    if (tentativo == maxRetry) {
+                        throw new IllegalStateException("Concorrenza troppo alta, riprova più tardi");
+                    }
+                }
+            }
+            throw new IllegalStateException("Errore imprevisto nella modifica della prenotazione");
+        });
+    }
 
+    private Prenotazione modificaPrenotazioneInterno(Long prenId, String userId, LocalDateTime nuovoInizio, LocalDateTime nuovoFine) {
+        validaIntervallo(nuovoInizio, nuovoFine);
+
+        Prenotazione esistente = prenotazioneRepo.findById(prenId)
+                .orElseThrow(() -> new IllegalArgumentException("Prenotazione non trovata"));
         if (!esistente.getUtente().getId().equals(userId)) {
             throw new SecurityException("Non puoi modificare una prenotazione altrui");
         }
+        if (esistente.getStato() != StatoPrenotazione.ATTIVA) {
+            throw new IllegalArgumentException("Solo le prenotazioni attive possono essere modificate");
+        }
+
+        LocalDateTime vecchioInizio = esistente.getDataInizio();
+        LocalDateTime vecchioFine = esistente.getDataFine();
+        if (vecchioInizio.equals(nuovoInizio) && vecchioFine.equals(nuovoFine)) {
+            return esistente;
+        }
+
+        Veicolo veicolo = esistente.getVeicolo();
+        strategiaConcorrenza.acquisisci(veicolo.getId());
+        registroOpzioni.verificaLibero(veicolo.getId(), userId, nuovoInizio, nuovoFine);
+        verificaFermi(veicolo.getId(), nuovoInizio, nuovoFine);
 
-        prenotazioneRepo.delete(esistente);
-        return creaPrenotazione(userId, esistente.getVeicolo().getId(), nuovoInizio, nuovoFine);
+        long minuti = java.time.Duration.between(nuovoInizio, nuovoFine).toMinutes();
+        esistente.setDataInizio(nuovoInizio);
+        esistente.setDataFine(nuovoFine);
+        esistente.setCostoTotale(Math.round(minuti / 60.0 * veicolo.getCostoOrario() * 100.0) / 100.0);
+
+        // Verifica della sovrapposizione sull'intero nuovo intervallo e aggiornamento dei contatori
+        if (servizioGiornoService.sposta(esistente, vecchioInizio, vecchioFine)) {
+            throw new BookingConflictException("Il veicolo non è disponibile nella fascia richiesta dal " + nuovoInizio + " al " + nuovoFine);
+        }
+
+        Prenotazione salvata = strategiaConcorrenza.vincoloDatabase()
+                ? salvaConVincolo(esistente)
+                : prenotazioneRepo.save(esistente);
+        indicePrenotazioni.aggiungi(salvata.getId(), veicolo.getId(), nuovoInizio, nuovoFine);
+        return salvata;
     }
 
     /**
@@ -208,18 +817,10 @@ public class PrenotazioneService {
         prenotazione.setStato(StatoPrenotazione.ANNULLATA);
         
         // Decrementa i contatori ServizioGiorno
-        LocalDate giorno = prenotazione.getDataInizio().toLocalDate();
-        while (!giorno.isAfter(prenotazione.getDataFine().toLocalDate())) {
-            Optional<ServizioGiorno> sgOpt = servizioGiornoRepo.findByVeicoloAndData(prenotazione.getVeicolo(), giorno);
-            if (sgOpt.isPresent()) {
-                ServizioGiorno sg = sgOpt.get();
-                sg.decrementaPrenotazioni();
-                servizioGiornoRepo.save(sg);
-            }
-            giorno = giorno.plusDays(1);
-        }
+        servizioGiornoService.rilascia(prenotazione);
         
         prenotazioneRepo.save(prenotazione);
+        indicePrenotazioni.rimuovi(prenId);
     }
 
     @Transactional(readOnly = true)
@@ -239,29 +840,9 @@ public class PrenotazioneService {
      * Metodo di utilità per ricalcolare tutti i contatori ServizioGiorno
      * basandosi sulle prenotazioni attive nel database.
      */
-    @Transactional
     @PreAuthorize("hasRole('ADMIN')")
-    public void ricalcolaContatori() {
-        List<ServizioGiorno> tuttiServizi = servizioGiornoRepo.findAll();
-        for (ServizioGiorno sg : tuttiServizi) {
-            sg.setNumeroPrenotazioni(0);
-            servizioGiornoRepo.save(sg);
-        }
-
-        List<Prenotazione> prenotazioniAttive = prenotazioneRepo.findAll().stream()
-                .filter(p -> p.getStato() == StatoPrenotazione.ATTIVA)
-                .collect(Collectors.toList());
-        
-        for (Prenotazione p : prenotazioniAttive) {
-            LocalDate giorno = p.getDataInizio().toLocalDate();
-            while (!giorno.isAfter(p.getDataFine().toLocalDate())) {
-                ServizioGiorno sg = servizioGiornoRepo.findByVeicoloAndData(p.getVeicolo(), giorno)
-                        .orElse(new ServizioGiorno(p.getVeicolo(), giorno));
-                sg.incrementaPrenotazioni();
-                servizioGiornoRepo.save(sg);
-                giorno = giorno.plusDays(1);
-            }
-        }
+    public EsitoRicalcoloDTO ricalcolaContatori() {
+        return servizioGiornoService.ricalcola();
     }
     
 
@@ -272,17 +853,9 @@ public class PrenotazioneService {
                 .orElseThrow(() -> new IllegalArgumentException("Prenotazione non trovata"));
 
         if (prenotazione.getStato() == StatoPrenotazione.ATTIVA) {
-            LocalDate giorno = prenotazione.getDataInizio().toLocalDate();
-            while (!giorno.isAfter(prenotazione.getDataFine().toLocalDate())) {
-                Optional<ServizioGiorno> sgOpt = servizioGiornoRepo.findByVeicoloAndData(prenotazione.getVeicolo(), giorno);
-                if (sgOpt.isPresent()) {
-                    ServizioGiorno sg = sgOpt.get();
-                    sg.decrementaPrenotazioni();
-                    servizioGiornoRepo.save(sg);
-                }
-                giorno = giorno.plusDays(1);
-            }
+            servizioGiornoService.rilascia(prenotazione);
         }
         prenotazioneRepo.delete(prenotazione);
+        indicePrenotazioni.rimuovi(prenId);
     }
 }
\ No newline at end of file
@@ -0,0 +1,165 @@
+package it.unicalrent.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Esiti delle creazioni di prenotazione con header Idempotency-Key. Una richiesta ripetuta con la
+ * stessa chiave restituisce la prenotazione già creata, senza ripetere i controlli di conflitto né
+ * toccare ServizioGiorno. Le chiavi recenti stanno in una cache in memoria limitata e con TTL;
+ * la tabella chiavi_idempotenza, scritta nella transazione della prenotazione, copre le richieste
+ * che arrivano su un'altra istanza o dopo un riavvio.
+ */
+@Component
+public class RegistroIdempotenza {
+
+    public static final int LUNGHEZZA_MASSIMA_CHIAVE = 100;
+
+    private record Esito(String impronta, Long prenotazioneId, LocalDateTime dataCreazione) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final long ttlOre;
+    private final Map<String, Esito> cache;
+
+    public RegistroIdempotenza(JdbcTemplate jdbcTemplate,
+                               @Value("${unicalrent.idempotenza.ttl-ore:24}") long ttlOre,
+                               @Value("${unicalrent.idempotenza.capacita-cache:10000}") int capacitaCache) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.ttlOre = ttlOre;
+        // ordine di accesso: a cache piena esce la chiave usata meno di recente
+        this.cache = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Esito> piuVecchia) {
+                return size() > capacitaCache;
+            }
+        };
+    }
+
+    /**
+     * Controlla formato e lunghezza della chiave ricevuta dal client.
+     */
+    public static void validaChiave(String chiave) {
+        if (chiave.isBlank() || chiave.length() > LUNGHEZZA_MASSIMA_CHIAVE) {
+            throw new IllegalArgumentException("Idempotency-Key deve avere tra 1 e " + LUNGHEZZA_MASSIMA_CHIAVE + " caratteri.");
+        }
+    }
+
+    /**
+     * Impronta della richiesta, per riconoscere una chiave riusata con parametri diversi.
+     */
+    public static String impronta(Long veicoloId, LocalDateTime inizio, LocalDateTime fine) {
+        return veicoloId + "|" + inizio + "|" + fine;
+    }
+
+    /**
+     * Restituisce l'id della prenotazione già creata dall'utente con questa chiave, se non scaduta.
+     *
+     * @throws IllegalArgumentException se la chiave è stata usata per una richiesta diversa
+     */
+    public Optional<Long> cerca(String userId, String chiave, String impronta) {
+        LocalDateTime limite = LocalDateTime.now().minusHours(ttlOre);
+        String voce = voce(userId, chiave);
+
+        Esito esito;
+        synchronized (cache) {
+            esito = cache.get(voce);
+        }
+        if (esito == null) {
+            esito = jdbcTemplate.query("SELECT impronta, prenotazione_id, data_creazione FROM chiavi_idempotenza " +
+                                    "WHERE utente_id = ? AND chiave = ?",
+                            (rs, n) -> new Esito(rs.getString("impronta"), rs.getLong("prenotazione_id"),
+                                    rs.getTimestamp("data_creazione").toLocalDateTime()),
+                            userId, chiave)
+                    .stream().findFirst().orElse(null);
+            if (esito != null) {
+                memorizza(voce, esito);
+            }
+        }
+        if (esito == null || esito.dataCreazione().isBefore(limite)) {
+            return Optional.empty();
+        }
+        if (!esito.impronta().equals(impronta)) {
+            throw new IllegalArgumentException("Idempotency-Key già usata per una richiesta diversa.");
+        }
+        return Optional.of(esito.prenotazioneId());
+    }
+
+    /**
+     * Registra la chiave nella transazione corrente, insieme alla prenotazione appena creata.
+     * La cache viene aggiornata solo a commit avvenuto. Una chiave scaduta ancora presente
+     * in tabella viene sovrascritta.
+     *
+     * @throws DuplicateKeyException se la chiave è già registrata e non scaduta
+     */
+    public void registra(String userId, String chiave, String impronta, Long prenotazioneId) {
+        LocalDateTime adesso = LocalDateTime.now();
+        int righe = jdbcTemplate.update("INSERT INTO chiavi_idempotenza (utente_id, chiave, impronta, prenotazione_id, data_creazione) " +
+                        "VALUES (?, ?, ?, ?, ?) " +
+                        "ON CONFLICT (utente_id, chiave) DO UPDATE SET impronta = EXCLUDED.impronta, " +
+                        "prenotazione_id = EXCLUDED.prenotazione_id, data_creazione = EXCLUDED.data_creazione " +
+                        "WHERE chiavi_idempotenza.data_creazione < ?",
+                userId, chiave, impronta, prenotazioneId, Timestamp.valueOf(adesso),
+                Timestamp.valueOf(adesso.minusHours(ttlOre)));
+        if (righe == 0) {
+            // la stessa chiave è stata registrata da una richiesta concorrente: annullo questa prenotazione
+            throw new DuplicateKeyException("Idempotency-Key già registrata per l'utente " + userId);
+        }
+
+        Esito esito = new Esito(impronta, prenotazioneId, adesso);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    memorizza(voce(userId, chiave), esito);
+                }
+            });
+        } else {
+            memorizza(voce(userId, chiave), esito);
+        }
+    }
+
+    /**
+     * Dimentica una chiave la cui prenotazione non esiste più.
+     */
+    public void dimentica(String userId, String chiave) {
+        synchronized (cache) {
+            cache.remove(voce(userId, chiave));
+        }
+        jdbcTemplate.update("DELETE FROM chiavi_idempotenza WHERE utente_id = ? AND chiave = ?", userId, chiave);
+    }
+
+    /**
+     * Rimuove le chiavi più vecchie del TTL dalla cache e dalla tabella.
+     * La cancellazione è idempotente, quindi può girare su tutte le istanze.
+     */
+    @Scheduled(fixedDelay = 3600000)
+    public void rimuoviScadute() {
+        LocalDateTime limite = LocalDateTime.now().minusHours(ttlOre);
+        synchronized (cache) {
+            cache.values().removeIf(e -> e.dataCreazione().isBefore(limite));
+        }
+        jdbcTemplate.update("DELETE FROM chiavi_idempotenza WHERE data_creazione < ?", Timestamp.valueOf(limite));
+    }
+
+    private void memorizza(String voce, Esito esito) {
+        synchronized (cache) {
+            cache.put(voce, esito);
+        }
+    }
+
+    private static String voce(String userId, String chiave) {
+        return userId + "\u0000" + chiave;
+    }
+}
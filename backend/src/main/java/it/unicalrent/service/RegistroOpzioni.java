@@ -0,0 +1,246 @@
+package it.unicalrent.service;
+
+import it.unicalrent.dto.OpzionePrenotazioneDTO;
+import it.unicalrent.entity.StatoPrenotazione;
+import it.unicalrent.entity.Veicolo;
+import it.unicalrent.exception.BookingConflictException;
+import it.unicalrent.repository.FermoVeicoloRepository;
+import it.unicalrent.repository.PrenotazioneRepository;
+import it.unicalrent.repository.VeicoloRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Opzioni temporanee su un veicolo: un utente riserva un intervallo per alcuni minuti mentre completa
+ * la prenotazione, e nel frattempo gli altri utenti non possono prenotarlo né opzionarlo.
+ * Le opzioni vivono in memoria e scadono da sole, senza scritture sul database. Con
+ * {@code unicalrent.opzioni.tabella=true} vengono invece scritte nella tabella opzioni_prenotazione,
+ * così tutte le istanze dell'applicazione le vedono.
+ */
+@Component
+public class RegistroOpzioni {
+
+    private static final DateTimeFormatter ORARIO = DateTimeFormatter.ofPattern("HH:mm");
+
+    /**
+     * Opzione con l'utente proprietario, che non viene esposto al client.
+     */
+    public record Opzione(String id, String userId, Long veicoloId, LocalDateTime inizio, LocalDateTime fine,
+                          LocalDateTime scadenza) {
+
+        boolean attiva(LocalDateTime adesso) {
+            return scadenza.isAfter(adesso);
+        }
+
+        boolean siSovrappone(LocalDateTime da, LocalDateTime a) {
+            return inizio.isBefore(a) && fine.isAfter(da);
+        }
+
+        public OpzionePrenotazioneDTO toDTO() {
+            return new OpzionePrenotazioneDTO(id, veicoloId, inizio, fine, scadenza);
+        }
+    }
+
+    private static final RowMapper<Opzione> RIGA = (rs, n) -> new Opzione(
+            rs.getString("id"),
+            rs.getString("utente_id"),
+            rs.getLong("veicolo_id"),
+            rs.getTimestamp("data_inizio").toLocalDateTime(),
+            rs.getTimestamp("data_fine").toLocalDateTime(),
+            rs.getTimestamp("scadenza").toLocalDateTime());
+
+    private final VeicoloRepository veicoloRepo;
+    private final PrenotazioneRepository prenotazioneRepo;
+    private final FermoVeicoloRepository fermoRepo;
+    private final GestoreLockVeicoli gestoreLock;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final long durataMinuti;
+    private final int massimoPerUtente;
+    private final boolean tabella;
+
+    private final Map<String, Opzione> opzioni = new ConcurrentHashMap<>();
+
+    public RegistroOpzioni(VeicoloRepository veicoloRepo,
+                           PrenotazioneRepository prenotazioneRepo,
+                           FermoVeicoloRepository fermoRepo,
+                           GestoreLockVeicoli gestoreLock,
+                           JdbcTemplate jdbcTemplate,
+                           PlatformTransactionManager transactionManager,
+                           @Value("${unicalrent.opzioni.durata-minuti:10}") long durataMinuti,
+                           @Value("${unicalrent.opzioni.massimo-per-utente:3}") int massimoPerUtente,
+                           @Value("${unicalrent.opzioni.tabella:false}") boolean tabella) {
+        this.veicoloRepo = veicoloRepo;
+        this.prenotazioneRepo = prenotazioneRepo;
+        this.fermoRepo = fermoRepo;
+        this.gestoreLock = gestoreLock;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.durataMinuti = durataMinuti;
+        this.massimoPerUtente = massimoPerUtente;
+        this.tabella = tabella;
+    }
+
+    /**
+     * Crea un'opzione sull'intervallo se il veicolo è libero da prenotazioni attive
+     * e da opzioni di altri utenti.
+     *
+     * @throws BookingConflictException se l'intervallo è già prenotato o opzionato da altri
+     * @throws IllegalStateException    se l'utente ha già il numero massimo di opzioni attive
+     */
+    public Opzione crea(String userId, Long veicoloId, LocalDateTime inizio, LocalDateTime fine) {
+        if (!inizio.isBefore(fine)) {
+            throw new IllegalArgumentException("La data di inizio deve essere precedente alla data di fine.");
+        }
+        if (!fine.isAfter(LocalDateTime.now())) {
+            throw new IllegalArgumentException("Non è possibile opzionare un intervallo già concluso.");
+        }
+
+        return gestoreLock.eseguiInEsclusiva(veicoloId, () -> {
+            Opzione creata = transactionTemplate.execute(status -> creaInterno(userId, veicoloId, inizio, fine));
+            if (!tabella) {
+                // registrata ancora sotto il lock del veicolo, così due opzioni concorrenti non si sovrappongono
+                opzioni.put(creata.id(), creata);
+            }
+            return creata;
+        });
+    }
+
+    private Opzione creaInterno(String userId, Long veicoloId, LocalDateTime inizio, LocalDateTime fine) {
+        Veicolo veicolo = veicoloRepo.findByIdAndAttivoTrue(veicoloId)
+                .orElseThrow(() -> new IllegalArgumentException("Veicolo non trovato"));
+        if (tabella) {
+            // serializza tra le istanze le opzioni sullo stesso veicolo
+            veicoloRepo.lockAdvisoryTransazione(veicoloId);
+        }
+
+        LocalDateTime adesso = LocalDateTime.now();
+        verificaLibero(veicoloId, userId, inizio, fine);
+        fermoRepo.lockCondivisoTransazione(veicoloId);
+        if (prenotazioneRepo.existsByVeicoloAndStatoAndDataInizioLessThanAndDataFineGreaterThan(
+                veicolo, StatoPrenotazione.ATTIVA, fine, inizio)
+                || fermoRepo.existsByVeicoloIdAndDataInizioLessThanAndDataFineGreaterThan(veicoloId, fine, inizio)) {
+            throw new BookingConflictException("Il veicolo non è disponibile nella fascia richiesta dal " + inizio + " al " + fine);
+        }
+        if (attiveUtente(userId, adesso) >= massimoPerUtente) {
+            throw new IllegalStateException("Hai già " + massimoPerUtente + " opzioni attive: confermane o annullane una.");
+        }
+
+        Opzione opzione = new Opzione(UUID.randomUUID().toString(), userId, veicoloId, inizio, fine,
+                adesso.plusMinutes(durataMinuti));
+        if (tabella) {
+            jdbcTemplate.update("DELETE FROM opzioni_prenotazione WHERE veicolo_id = ? AND scadenza <= LOCALTIMESTAMP", veicoloId);
+            jdbcTemplate.update("INSERT INTO opzioni_prenotazione (id, veicolo_id, utente_id, data_inizio, data_fine, scadenza) " +
+                            "VALUES (?, ?, ?, ?, ?, ?)",
+                    opzione.id(), veicoloId, userId, Timestamp.valueOf(inizio), Timestamp.valueOf(fine),
+                    Timestamp.valueOf(opzione.scadenza()));
+        }
+        return opzione;
+    }
+
+    /**
+     * Restituisce l'opzione se esiste, non è scaduta ed è dell'utente indicato.
+     */
+    public Optional<Opzione> trova(String opzioneId, String userId) {
+        LocalDateTime adesso = LocalDateTime.now();
+        Optional<Opzione> opzione = tabella
+                ? jdbcTemplate.query("SELECT * FROM opzioni_prenotazione WHERE id = ?", RIGA, opzioneId).stream().findFirst()
+                : Optional.ofNullable(opzioni.get(opzioneId));
+        return opzione.filter(o -> o.attiva(adesso) && o.userId().equals(userId));
+    }
+
+    /**
+     * Rimuove l'opzione dell'utente.
+     *
+     * @return true se l'opzione esisteva
+     */
+    public boolean rimuovi(String opzioneId, String userId) {
+        if (tabella) {
+            return jdbcTemplate.update("DELETE FROM opzioni_prenotazione WHERE id = ? AND utente_id = ?", opzioneId, userId) > 0;
+        }
+        Opzione opzione = opzioni.get(opzioneId);
+        return opzione != null && opzione.userId().equals(userId) && opzioni.remove(opzioneId, opzione);
+    }
+
+    /**
+     * Indica fino a quando l'intervallo è opzionato da un utente diverso da quello indicato.
+     */
+    public Optional<LocalDateTime> riservatoDaAltri(Long veicoloId, String userId, LocalDateTime inizio, LocalDateTime fine) {
+        if (tabella) {
+            Timestamp scadenza = jdbcTemplate.queryForObject("SELECT max(scadenza) FROM opzioni_prenotazione " +
+                            "WHERE veicolo_id = ? AND utente_id <> ? AND scadenza > LOCALTIMESTAMP " +
+                            "AND data_inizio < ? AND data_fine > ?",
+                    Timestamp.class, veicoloId, userId, Timestamp.valueOf(fine), Timestamp.valueOf(inizio));
+            return Optional.ofNullable(scadenza).map(Timestamp::toLocalDateTime);
+        }
+        LocalDateTime adesso = LocalDateTime.now();
+        return opzioni.values().stream()
+                .filter(o -> o.veicoloId().equals(veicoloId) && !o.userId().equals(userId)
+                        && o.attiva(adesso) && o.siSovrappone(inizio, fine))
+                .map(Opzione::scadenza)
+                .max(LocalDateTime::compareTo);
+    }
+
+    /**
+     * Solleva BookingConflictException se l'intervallo è opzionato da un altro utente.
+     */
+    public void verificaLibero(Long veicoloId, String userId, LocalDateTime inizio, LocalDateTime fine) {
+        riservatoDaAltri(veicoloId, userId, inizio, fine).ifPresent(scadenza -> {
+            throw new BookingConflictException("Il veicolo è temporaneamente riservato da un altro utente fino alle "
+                    + scadenza.format(ORARIO));
+        });
+    }
+
+    /**
+     * Elenco delle opzioni attive dell'utente.
+     */
+    public List<Opzione> listaPerUtente(String userId) {
+        LocalDateTime adesso = LocalDateTime.now();
+        if (tabella) {
+            return jdbcTemplate.query("SELECT * FROM opzioni_prenotazione WHERE utente_id = ? AND scadenza > LOCALTIMESTAMP " +
+                    "ORDER BY scadenza", RIGA, userId);
+        }
+        List<Opzione> risultato = new ArrayList<>();
+        for (Opzione o : opzioni.values()) {
+            if (o.userId().equals(userId) && o.attiva(adesso)) {
+                risultato.add(o);
+            }
+        }
+        return risultato;
+    }
+
+    private long attiveUtente(String userId, LocalDateTime adesso) {
+        if (tabella) {
+            Long numero = jdbcTemplate.queryForObject("SELECT count(*) FROM opzioni_prenotazione " +
+                    "WHERE utente_id = ? AND scadenza > LOCALTIMESTAMP", Long.class, userId);
+            return numero != null ? numero : 0;
+        }
+        return opzioni.values().stream()
+                .filter(o -> o.userId().equals(userId) && o.attiva(adesso))
+                .count();
+    }
+
+    /**
+     * Rimuove dalla memoria le opzioni scadute. Nessuna scrittura sul database.
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void rimuoviScadute() {
+        LocalDateTime adesso = LocalDateTime.now();
+        opzioni.values().removeIf(o -> !o.attiva(adesso));
+    }
+}
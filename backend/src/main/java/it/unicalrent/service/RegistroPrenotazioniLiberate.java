@@ -0,0 +1,91 @@
+package it.unicalrent.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Tempo liberato dalle prenotazioni su qualsiasi istanza. Un trigger su prenotazioni scrive in
+ * prenotazioni_liberate l'intervallo di ogni prenotazione ATTIVA che cambia stato, cambia date o viene
+ * eliminata, nella stessa transazione della modifica: copre anche gli aggiornamenti massivi e le
+ * istanze che terminano subito dopo il commit, che l'indice in memoria non vedrebbe.
+ * Le date di registrazione usano l'orologio del database, così le letture non dipendono
+ * dall'orologio delle singole istanze.
+ */
+@Component
+public class RegistroPrenotazioniLiberate {
+
+    private static final Logger logger = LoggerFactory.getLogger(RegistroPrenotazioniLiberate.class);
+
+    private static final String NOME_TRIGGER = "tr_prenotazioni_liberate";
+
+    /**
+     * Intervallo liberato, con l'id della riga che lo ha registrato.
+     */
+    public record Liberazione(Long id, IndicePrenotazioni.Intervallo intervallo, LocalDateTime dataRegistrazione) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * La EntityManagerFactory è richiesta solo per garantire che Hibernate abbia già
+     * creato o aggiornato le tabelle prenotazioni e prenotazioni_liberate.
+     */
+    public RegistroPrenotazioniLiberate(JdbcTemplate jdbcTemplate, EntityManagerFactory entityManagerFactory) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    public void installa() {
+        jdbcTemplate.execute("CREATE OR REPLACE FUNCTION registra_prenotazione_liberata() RETURNS trigger AS $$ BEGIN " +
+                "IF OLD.stato = 'ATTIVA' AND (TG_OP = 'DELETE' OR NEW.stato <> 'ATTIVA' " +
+                "OR NEW.data_inizio <> OLD.data_inizio OR NEW.data_fine <> OLD.data_fine) THEN " +
+                "INSERT INTO prenotazioni_liberate (prenotazione_id, veicolo_id, data_inizio, data_fine, data_registrazione) " +
+                "VALUES (OLD.id, OLD.veicolo_id, OLD.data_inizio, OLD.data_fine, LOCALTIMESTAMP); " +
+                "END IF; RETURN NULL; END $$ LANGUAGE plpgsql");
+        jdbcTemplate.execute("DO $$ BEGIN " +
+                "IF NOT EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = '" + NOME_TRIGGER + "') THEN " +
+                "CREATE TRIGGER " + NOME_TRIGGER + " AFTER UPDATE OR DELETE ON prenotazioni " +
+                "FOR EACH ROW EXECUTE FUNCTION registra_prenotazione_liberata(); " +
+                "END IF; END $$");
+        logger.info("Trigger {} attivo su prenotazioni", NOME_TRIGGER);
+    }
+
+    /**
+     * Ora corrente secondo il database, da usare come riferimento per {@link #registrateDopo}.
+     */
+    public LocalDateTime adesso() {
+        return jdbcTemplate.queryForObject("SELECT LOCALTIMESTAMP", LocalDateTime.class);
+    }
+
+    /**
+     * Intervalli registrati dopo {@code da} e non ancora finiti, in ordine di registrazione.
+     */
+    public List<Liberazione> registrateDopo(LocalDateTime da) {
+        return jdbcTemplate.query("SELECT id, prenotazione_id, veicolo_id, data_inizio, data_fine, data_registrazione " +
+                        "FROM prenotazioni_liberate WHERE data_registrazione > ? AND data_fine > LOCALTIMESTAMP " +
+                        "ORDER BY id",
+                (rs, n) -> new Liberazione(rs.getLong("id"),
+                        new IndicePrenotazioni.Intervallo(rs.getLong("prenotazione_id"), rs.getLong("veicolo_id"),
+                                rs.getTimestamp("data_inizio").toLocalDateTime(), rs.getTimestamp("data_fine").toLocalDateTime()),
+                        rs.getTimestamp("data_registrazione").toLocalDateTime()),
+                Timestamp.valueOf(da));
+    }
+
+    /**
+     * Rimuove le righe registrate da più di un giorno. La cancellazione è idempotente,
+     * quindi può girare su tutte le istanze.
+     */
+    @Scheduled(fixedDelay = 3600000)
+    public void rimuoviVecchie() {
+        jdbcTemplate.update("DELETE FROM prenotazioni_liberate WHERE data_registrazione < LOCALTIMESTAMP - INTERVAL '1 day'");
+    }
+}
@@ -0,0 +1,167 @@
+package it.unicalrent.service;
+
+import it.unicalrent.dto.DifferenzaContatoreDTO;
+import it.unicalrent.dto.EsitoRiconciliazioneDTO;
+import it.unicalrent.repository.VeicoloRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Riconciliazione dei contatori ServizioGiorno con le prenotazioni ATTIVE, partizionata per veicolo.
+ * Le partizioni vengono elaborate in parallelo su un ForkJoinPool dedicato, ognuna in una propria
+ * transazione breve; in modalità riparazione vengono riscritte solo le righe che differiscono.
+ * Il parallelismo ({@code unicalrent.riconciliazione.parallelismo}) deve restare sotto la
+ * dimensione del pool di connessioni.
+ */
+@Service
+public class RiconciliazioneContatoriService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RiconciliazioneContatoriService.class);
+
+    private record Contatore(int numero, int fasce) {
+        static final Contatore VUOTO = new Contatore(0, 0);
+    }
+
+    private record Partizione(List<DifferenzaContatoreDTO> differenze, int riparate) {
+    }
+
+    private final VeicoloRepository veicoloRepo;
+    private final JdbcTemplate jdbcTemplate;
+    private final GestoreLockVeicoli gestoreLock;
+    private final TransactionTemplate transazioneLettura;
+    private final TransactionTemplate transazioneScrittura;
+    private final ForkJoinPool pool;
+
+    public RiconciliazioneContatoriService(VeicoloRepository veicoloRepo,
+                                           JdbcTemplate jdbcTemplate,
+                                           GestoreLockVeicoli gestoreLock,
+                                           PlatformTransactionManager transactionManager,
+                                           @Value("${unicalrent.riconciliazione.parallelismo:4}") int parallelismo) {
+        this.veicoloRepo = veicoloRepo;
+        this.jdbcTemplate = jdbcTemplate;
+        this.gestoreLock = gestoreLock;
+        this.transazioneLettura = new TransactionTemplate(transactionManager);
+        this.transazioneLettura.setReadOnly(true);
+        this.transazioneScrittura = new TransactionTemplate(transactionManager);
+        this.pool = new ForkJoinPool(parallelismo);
+    }
+
+    /**
+     * Confronta i contatori di tutti i veicoli con quelli attesi e restituisce le differenze.
+     *
+     * @param ripara se true le righe che differiscono vengono corrette
+     */
+    @PreAuthorize("hasRole('ADMIN')")
+    public EsitoRiconciliazioneDTO riconcilia(boolean ripara) {
+        long inizio = System.nanoTime();
+        List<Long> veicoliIds = veicoloRepo.findAllIds();
+
+        List<Partizione> partizioni;
+        try {
+            partizioni = pool.submit(() -> veicoliIds.parallelStream()
+                    .map(veicoloId -> ripara
+                            ? gestoreLock.eseguiInEsclusiva(veicoloId, () -> elaboraVeicolo(veicoloId, true))
+                            : elaboraVeicolo(veicoloId, false))
+                    .toList()).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Riconciliazione interrotta");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException r ? r : new IllegalStateException(e.getCause());
+        }
+
+        EsitoRiconciliazioneDTO esito = new EsitoRiconciliazioneDTO();
+        esito.setVeicoliControllati(veicoliIds.size());
+        esito.setRiparazione(ripara);
+        for (Partizione partizione : partizioni) {
+            esito.getDifferenze().addAll(partizione.differenze());
+            esito.setRigheRiparate(esito.getRigheRiparate() + partizione.riparate());
+        }
+        esito.getDifferenze().sort(Comparator.comparing(DifferenzaContatoreDTO::getVeicoloId)
+                .thenComparing(DifferenzaContatoreDTO::getGiorno));
+        esito.setDurataMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inizio));
+
+        logger.info("Riconciliazione contatori: {} veicoli, {} differenze, {} righe riparate in {} ms",
+                esito.getVeicoliControllati(), esito.getDifferenze().size(), esito.getRigheRiparate(), esito.getDurataMs());
+        return esito;
+    }
+
+    private Partizione elaboraVeicolo(Long veicoloId, boolean ripara) {
+        TransactionTemplate transazione = ripara ? transazioneScrittura : transazioneLettura;
+        return transazione.execute(status -> {
+            if (ripara) {
+                // blocco le righe del veicolo prima di leggere le prenotazioni, così il confronto
+                // non perde aggiornamenti concorrenti di altre istanze
+                jdbcTemplate.query("SELECT id FROM servizio_giorno WHERE veicolo_id = ? FOR UPDATE",
+                        rs -> { }, veicoloId);
+            }
+
+            Map<LocalDate, Contatore> attesi = new HashMap<>();
+            jdbcTemplate.query(ServizioGiornoService.CONTATORI_ATTESI + "AND p.veicolo_id = ? "
+                            + ServizioGiornoService.RAGGRUPPA_CONTATORI_ATTESI,
+                    rs -> {
+                        attesi.put(rs.getDate("data").toLocalDate(),
+                                new Contatore(rs.getInt("numero_prenotazioni"), rs.getInt("fasce_occupate")));
+                    },
+                    veicoloId);
+            Map<LocalDate, Contatore> attuali = new HashMap<>();
+            jdbcTemplate.query("SELECT data, numero_prenotazioni, fasce_occupate FROM servizio_giorno WHERE veicolo_id = ?",
+                    rs -> {
+                        attuali.put(rs.getDate("data").toLocalDate(),
+                                new Contatore(rs.getInt("numero_prenotazioni"), rs.getInt("fasce_occupate")));
+                    },
+                    veicoloId);
+
+            List<DifferenzaContatoreDTO> differenze = new ArrayList<>();
+            List<Object[]> correzioni = new ArrayList<>();
+            TreeSet<LocalDate> giorni = new TreeSet<>(attesi.keySet());
+            giorni.addAll(attuali.keySet());
+            for (LocalDate giorno : giorni) {
+                Contatore atteso = attesi.getOrDefault(giorno, Contatore.VUOTO);
+                Contatore attuale = attuali.getOrDefault(giorno, Contatore.VUOTO);
+                if (atteso.equals(attuale)) {
+                    continue;
+                }
+                differenze.add(new DifferenzaContatoreDTO(veicoloId, giorno, atteso.numero(), attuale.numero(),
+                        FasceOrarie.comeStringa(atteso.fasce()), FasceOrarie.comeStringa(attuale.fasce())));
+                correzioni.add(new Object[]{veicoloId, Date.valueOf(giorno), atteso.numero(), atteso.fasce()});
+            }
+
+            int riparate = 0;
+            if (ripara && !correzioni.isEmpty()) {
+                jdbcTemplate.batchUpdate("INSERT INTO servizio_giorno (veicolo_id, data, numero_prenotazioni, fasce_occupate, version) " +
+                        "VALUES (?, ?, ?, ?, 0) " +
+                        "ON CONFLICT (veicolo_id, data) DO UPDATE SET " +
+                        "numero_prenotazioni = EXCLUDED.numero_prenotazioni, " +
+                        "fasce_occupate = EXCLUDED.fasce_occupate, " +
+                        "version = servizio_giorno.version + 1", correzioni);
+                riparate = correzioni.size();
+            }
+            return new Partizione(differenze, riparate);
+        });
+    }
+
+    @PreDestroy
+    public void arresta() {
+        pool.shutdown();
+    }
+}
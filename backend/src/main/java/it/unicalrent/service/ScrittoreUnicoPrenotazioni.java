@@ -0,0 +1,215 @@
+package it.unicalrent.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.unicalrent.dto.RichiestaPrenotazioneDTO;
+import it.unicalrent.entity.Prenotazione;
+import it.unicalrent.entity.Utente;
+import it.unicalrent.exception.BookingConflictException;
+import it.unicalrent.exception.CodaPienaException;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scrittore unico per veicolo: le richieste di prenotazione sullo stesso veicolo vengono
+ * convogliate sempre allo stesso worker, che preleva dalla coda tutte quelle in attesa,
+ * le confronta tra loro e con le prenotazioni attive e scrive le vincenti in un'unica transazione
+ * (group commit). Le perdenti ricevono subito il conflitto, senza tentativi ripetuti.
+ * Con molte richieste sullo stesso veicolo il numero di transazioni cresce con i lotti e non con le richieste.
+ * Attivo solo con {@code unicalrent.prenotazioni.scrittore-unico.abilitato=true}.
+ */
+@Component
+public class ScrittoreUnicoPrenotazioni {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScrittoreUnicoPrenotazioni.class);
+
+    private static final int IN_CODA = 0;
+    private static final int IN_LAVORAZIONE = 1;
+    private static final int ABBANDONATA = 2;
+
+    /**
+     * Richiesta in coda. Lo stato evita che una richiesta abbandonata dal chiamante per timeout
+     * venga scritta comunque: il worker la prende solo se è ancora in coda.
+     */
+    private static final class Richiesta {
+
+        final Utente utente;
+        final RichiestaPrenotazioneDTO dati;
+        final CompletableFuture<Prenotazione> esito = new CompletableFuture<>();
+        final AtomicInteger stato = new AtomicInteger(IN_CODA);
+
+        Richiesta(Utente utente, Long veicoloId, LocalDateTime inizio, LocalDateTime fine) {
+            this.utente = utente;
+            this.dati = new RichiestaPrenotazioneDTO();
+            dati.setVeicoloId(veicoloId);
+            dati.setInizio(inizio);
+            dati.setFine(fine);
+        }
+    }
+
+    private final PrenotazioneService prenotazioneService;
+    private final boolean abilitato;
+    private final int dimensioneLotto;
+    private final long timeoutMs;
+
+    private final List<BlockingQueue<Richiesta>> code = new ArrayList<>();
+    private final List<Thread> worker = new ArrayList<>();
+
+    private final DistributionSummary dimensioneGruppi;
+    private final Counter conflitti;
+    private final Counter rifiutate;
+
+    public ScrittoreUnicoPrenotazioni(PrenotazioneService prenotazioneService,
+                                      MeterRegistry registry,
+                                      @Value("${unicalrent.prenotazioni.scrittore-unico.abilitato:false}") boolean abilitato,
+                                      @Value("${unicalrent.prenotazioni.scrittore-unico.worker:4}") int numeroWorker,
+                                      @Value("${unicalrent.prenotazioni.scrittore-unico.dimensione-lotto:64}") int dimensioneLotto,
+                                      @Value("${unicalrent.prenotazioni.scrittore-unico.capacita-coda:500}") int capacitaCoda,
+                                      @Value("${unicalrent.prenotazioni.scrittore-unico.timeout-ms:10000}") long timeoutMs) {
+        this.prenotazioneService = prenotazioneService;
+        this.abilitato = abilitato;
+        this.dimensioneLotto = dimensioneLotto;
+        this.timeoutMs = timeoutMs;
+
+        int numero = abilitato ? numeroWorker : 0;
+        int capacitaPerWorker = Math.max(1, capacitaCoda / Math.max(1, numeroWorker));
+        for (int i = 0; i < numero; i++) {
+            BlockingQueue<Richiesta> coda = new LinkedBlockingQueue<>(capacitaPerWorker);
+            Thread t = new Thread(() -> esegui(coda), "prenotazioni-scrittore-" + i);
+            t.setDaemon(true);
+            code.add(coda);
+            worker.add(t);
+            t.start();
+        }
+
+        this.dimensioneGruppi = DistributionSummary.builder("unicalrent.prenotazioni.scrittore.gruppo")
+                .description("Richieste scritte in ogni transazione dello scrittore unico")
+                .publishPercentiles(0.5, 0.99)
+                .register(registry);
+        this.conflitti = Counter.builder("unicalrent.prenotazioni.scrittore.conflitti")
+                .description("Richieste respinte per conflitto dallo scrittore unico")
+                .register(registry);
+        this.rifiutate = Counter.builder("unicalrent.prenotazioni.scrittore.rifiutate")
+                .description("Richieste rifiutate per coda piena")
+                .register(registry);
+        Gauge.builder("unicalrent.prenotazioni.scrittore.coda", this, ScrittoreUnicoPrenotazioni::profondita)
+                .description("Richieste in attesa dello scrittore unico")
+                .register(registry);
+    }
+
+    public boolean isAbilitato() {
+        return abilitato;
+    }
+
+    /**
+     * Crea una prenotazione passando dallo scrittore del veicolo e ne attende l'esito.
+     * Carta di credito e utente vengono verificati qui, nel thread della richiesta.
+     *
+     * @throws BookingConflictException se il veicolo non è disponibile
+     * @throws CodaPienaException       se la coda del veicolo è piena
+     */
+    public Prenotazione crea(String userId, Long veicoloId, LocalDateTime inizio, LocalDateTime fine) {
+        if (!abilitato) {
+            throw new IllegalStateException("Scrittore unico non abilitato");
+        }
+        Utente utente = prenotazioneService.preparaRichiedente(userId);
+
+        Richiesta richiesta = new Richiesta(utente, veicoloId, inizio, fine);
+        if (!code.get(Math.floorMod(Long.hashCode(veicoloId), code.size())).offer(richiesta)) {
+            rifiutate.increment();
+            throw new CodaPienaException("Troppe richieste in coda, riprova tra qualche istante");
+        }
+        return attendi(richiesta);
+    }
+
+    private Prenotazione attendi(Richiesta richiesta) {
+        try {
+            try {
+                return richiesta.esito.get(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (richiesta.stato.compareAndSet(IN_CODA, ABBANDONATA)) {
+                    throw new IllegalStateException("Concorrenza troppo alta, riprova più tardi");
+                }
+                // già in scrittura: l'esito arriva con la transazione in corso
+                return richiesta.esito.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Operazione interrotta");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException errore) {
+                throw errore;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private void esegui(BlockingQueue<Richiesta> coda) {
+        List<Richiesta> lotto = new ArrayList<>(dimensioneLotto);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                lotto.add(coda.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            coda.drainTo(lotto, dimensioneLotto - 1);
+            lotto.removeIf(r -> !r.stato.compareAndSet(IN_CODA, IN_LAVORAZIONE));
+            if (!lotto.isEmpty()) {
+                scrivi(lotto);
+            }
+            lotto.clear();
+        }
+    }
+
+    private void scrivi(List<Richiesta> lotto) {
+        dimensioneGruppi.record(lotto.size());
+        try {
+            List<PrenotazioneService.EsitoGruppo> esiti = prenotazioneService.scriviGruppo(
+                    lotto.stream().map(r -> r.utente).toList(),
+                    lotto.stream().map(r -> r.dati).toList());
+            for (int i = 0; i < lotto.size(); i++) {
+                PrenotazioneService.EsitoGruppo esito = esiti.get(i);
+                if (esito.errore() != null) {
+                    if (esito.errore() instanceof BookingConflictException) {
+                        conflitti.increment();
+                    }
+                    lotto.get(i).esito.completeExceptionally(esito.errore());
+                } else {
+                    lotto.get(i).esito.complete(esito.prenotazione());
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Scrittura di un gruppo di {} prenotazioni non riuscita", lotto.size(), e);
+            lotto.forEach(r -> r.esito.completeExceptionally(e));
+        }
+    }
+
+    private int profondita() {
+        int totale = 0;
+        for (BlockingQueue<Richiesta> coda : code) {
+            totale += coda.size();
+        }
+        return totale;
+    }
+
+    @PreDestroy
+    public void arresta() {
+        worker.forEach(Thread::interrupt);
+    }
+}
@@ -0,0 +1,340 @@
+package it.unicalrent.service;
+
+import it.unicalrent.dto.EsitoRicalcoloDTO;
+import it.unicalrent.dto.OccupazioneVeicoloDTO;
+import it.unicalrent.entity.FermoVeicolo;
+import it.unicalrent.entity.Prenotazione;
+import it.unicalrent.entity.ServizioGiorno;
+import it.unicalrent.entity.StatoPrenotazione;
+import it.unicalrent.entity.Veicolo;
+import it.unicalrent.repository.FermoVeicoloRepository;
+import it.unicalrent.repository.PrenotazioneRepository;
+import it.unicalrent.repository.ServizioGiornoRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Servizio per la manutenzione dei contatori giornalieri ServizioGiorno:
+ * numero di prenotazioni e maschera delle fasce orarie occupate per veicolo e giorno.
+ */
+@Service
+public class ServizioGiornoService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ServizioGiornoService.class);
+
+    /**
+     * Contatori attesi per veicolo e giorno calcolati dalle prenotazioni ATTIVE: ogni prenotazione
+     * conta in tutti i giorni tra data di inizio e data di fine, con la maschera delle fasce toccate.
+     * Colonne: veicolo_id, data, numero_prenotazioni, fasce_occupate. Condizioni aggiuntive sulle
+     * prenotazioni {@code p} vanno inserite prima di {@link #RAGGRUPPA_CONTATORI_ATTESI}.
+     */
+    static final String CONTATORI_ATTESI = "SELECT p.veicolo_id, CAST(g.giorno AS date) AS data, " +
+            "CAST(count(*) AS integer) AS numero_prenotazioni, " +
+            "bit_or(CASE WHEN p.data_fine > g.giorno THEN ((1 << (o.ultima - o.prima + 1)) - 1) << o.prima ELSE 0 END) AS fasce_occupate " +
+            "FROM prenotazioni p " +
+            "CROSS JOIN LATERAL generate_series(CAST(CAST(p.data_inizio AS date) AS timestamp), " +
+            "CAST(CAST(p.data_fine AS date) AS timestamp), interval '1 day') AS g(giorno) " +
+            "CROSS JOIN LATERAL (SELECT " +
+            "CASE WHEN p.data_inizio > g.giorno THEN CAST(EXTRACT(HOUR FROM p.data_inizio) AS integer) ELSE 0 END AS prima, " +
+            "CASE WHEN p.data_fine >= g.giorno + interval '1 day' " +
+            "THEN 23 ELSE CAST(EXTRACT(HOUR FROM p.data_fine - interval '1 microsecond') AS integer) END AS ultima) o " +
+            "WHERE p.stato = 'ATTIVA' ";
+
+    static final String RAGGRUPPA_CONTATORI_ATTESI = "GROUP BY p.veicolo_id, CAST(g.giorno AS date)";
+
+    private final ServizioGiornoRepository servizioGiornoRepo;
+    private final PrenotazioneRepository prenotazioneRepo;
+    private final FermoVeicoloRepository fermoRepo;
+    private final JdbcTemplate jdbcTemplate;
+
+    public ServizioGiornoService(ServizioGiornoRepository servizioGiornoRepo, PrenotazioneRepository prenotazioneRepo,
+                                 FermoVeicoloRepository fermoRepo, JdbcTemplate jdbcTemplate) {
+        this.servizioGiornoRepo = servizioGiornoRepo;
+        this.prenotazioneRepo = prenotazioneRepo;
+        this.fermoRepo = fermoRepo;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Registra una nuova prenotazione nei contatori di ogni giorno coperto.
+     * L'aggiornamento delle righe scatena l'optimistic lock in caso di concorrenza.
+     *
+     * @return true se almeno un giorno aveva già fasce orarie occupate in comune con
+     *         l'intervallo richiesto, e quindi serve una verifica puntuale sulle prenotazioni
+     */
+    @Transactional
+    public boolean registra(Veicolo veicolo, LocalDateTime inizio, LocalDateTime fine) {
+        boolean fasceInComune = false;
+        LocalDate giorno = inizio.toLocalDate();
+        while (!giorno.isAfter(fine.toLocalDate())) {
+            int maschera = FasceOrarie.maschera(giorno, inizio, fine);
+            ServizioGiorno sg = servizioGiornoRepo.findByVeicoloAndData(veicolo, giorno)
+                    .orElse(new ServizioGiorno(veicolo, giorno));
+
+            fasceInComune |= sg.occupaFasce(maschera);
+            sg.incrementaPrenotazioni();
+            sg.aggiungiFasce(maschera);
+            servizioGiornoRepo.save(sg);
+            giorno = giorno.plusDays(1);
+        }
+        return fasceInComune;
+    }
+
+    /**
+     * Registra una nuova prenotazione nei contatori con un'unica istruzione su tutto l'intervallo,
+     * senza leggere le righe. Da usare quando l'assenza di sovrapposizioni è già garantita
+     * da un lock o da un vincolo sul database.
+     */
+    @Transactional
+    public void registraInBlocco(Veicolo veicolo, LocalDateTime inizio, LocalDateTime fine) {
+        LocalDate primoGiorno = inizio.toLocalDate();
+        LocalDate ultimoGiorno = fine.toLocalDate();
+        servizioGiornoRepo.incrementaIntervallo(
+                veicolo.getId(),
+                primoGiorno,
+                ultimoGiorno,
+                FasceOrarie.maschera(primoGiorno, inizio, fine),
+                FasceOrarie.maschera(ultimoGiorno, inizio, fine));
+    }
+
+    /**
+     * Rimuove una prenotazione dai contatori dei giorni coperti con due istruzioni, indipendentemente
+     * dalla durata: il blocco delle righe e un unico UPDATE che decrementa i contatori e ricalcola
+     * le maschere orarie dalle prenotazioni ATTIVE rimaste.
+     */
+    @Transactional
+    public void rilascia(Prenotazione prenotazione) {
+        Long veicoloId = prenotazione.getVeicolo().getId();
+        LocalDate primoGiorno = prenotazione.getDataInizio().toLocalDate();
+        LocalDate ultimoGiorno = prenotazione.getDataFine().toLocalDate();
+
+        servizioGiornoRepo.bloccaIntervallo(veicoloId, primoGiorno, ultimoGiorno);
+        servizioGiornoRepo.decrementaIntervallo(veicoloId, prenotazione.getId(), primoGiorno, ultimoGiorno);
+    }
+
+    /**
+     * Aggiorna i contatori dopo lo spostamento di una prenotazione, che contiene già le nuove date.
+     * La sovrapposizione viene verificata sempre sull'intero nuovo intervallo: con le maschere orarie
+     * il tempo appena coperto può cadere in un giorno la cui maschera non cambia (10:30–12:00 spostata
+     * a 10:00–12:00). Dei contatori vengono aggiornati solo i giorni usciti dall'intervallo (decremento),
+     * quelli entrati (incremento) e quelli comuni la cui maschera oraria cambia; le maschere sono
+     * ricalcolate dalle altre prenotazioni ATTIVE di quei giorni, lette con un'unica query. I giorni
+     * coperti che non cambiano ricevono solo un nuovo numero di versione con un UPDATE sull'intervallo,
+     * così uno spostamento concorrente sullo stesso veicolo da un'altra istanza fallisce per optimistic lock.
+     *
+     * @return true se un'altra prenotazione ATTIVA del veicolo si sovrappone al nuovo intervallo
+     */
+    @Transactional
+    public boolean sposta(Prenotazione prenotazione, LocalDateTime vecchioInizio, LocalDateTime vecchioFine) {
+        LocalDateTime nuovoInizio = prenotazione.getDataInizio();
+        LocalDateTime nuovoFine = prenotazione.getDataFine();
+        if (prenotazioneRepo.existsByVeicoloAndStatoAndIdNotAndDataInizioLessThanAndDataFineGreaterThan(
+                prenotazione.getVeicolo(), StatoPrenotazione.ATTIVA, prenotazione.getId(), nuovoFine, nuovoInizio)) {
+            return true;
+        }
+
+        Set<LocalDate> giorniVecchi = giorni(vecchioInizio, vecchioFine);
+        Set<LocalDate> giorniNuovi = giorni(nuovoInizio, nuovoFine);
+
+        SortedSet<LocalDate> toccati = new TreeSet<>();
+        for (LocalDate giorno : giorniVecchi) {
+            if (!giorniNuovi.contains(giorno)
+                    || FasceOrarie.maschera(giorno, vecchioInizio, vecchioFine) != FasceOrarie.maschera(giorno, nuovoInizio, nuovoFine)) {
+                toccati.add(giorno);
+            }
+        }
+        for (LocalDate giorno : giorniNuovi) {
+            if (!giorniVecchi.contains(giorno)) {
+                toccati.add(giorno);
+            }
+        }
+
+        // Giorni coperti prima e dopo con la stessa maschera: il contenuto non cambia, ricevono solo
+        // una nuova versione, con un'istruzione per ogni tratto consecutivo (di norma uno solo)
+        List<LocalDate> invariati = giorniNuovi.stream().filter(g -> !toccati.contains(g)).sorted().toList();
+        for (int da = 0; da < invariati.size(); ) {
+            int a = da;
+            while (a + 1 < invariati.size() && invariati.get(a + 1).equals(invariati.get(a).plusDays(1))) {
+                a++;
+            }
+            servizioGiornoRepo.incrementaVersioneIntervallo(prenotazione.getVeicolo().getId(), invariati.get(da), invariati.get(a));
+            da = a + 1;
+        }
+        if (toccati.isEmpty()) {
+            return false;
+        }
+
+        Map<LocalDate, ServizioGiorno> contatori = new HashMap<>();
+        for (ServizioGiorno sg : servizioGiornoRepo.findConVersioneByVeicoloAndDataIn(prenotazione.getVeicolo(), toccati)) {
+            contatori.put(sg.getData(), sg);
+        }
+
+        List<Prenotazione> altre = prenotazioneRepo.findByVeicoloAndStatoAndPeriodo(
+                        prenotazione.getVeicolo(),
+                        StatoPrenotazione.ATTIVA,
+                        toccati.first().atStartOfDay(),
+                        toccati.last().plusDays(1).atStartOfDay())
+                .stream()
+                .filter(p -> !p.getId().equals(prenotazione.getId()))
+                .toList();
+
+        for (LocalDate giorno : toccati) {
+            ServizioGiorno sg = contatori.getOrDefault(giorno, new ServizioGiorno(prenotazione.getVeicolo(), giorno));
+            boolean eraCoperto = giorniVecchi.contains(giorno);
+            boolean eCoperto = giorniNuovi.contains(giorno);
+            if (eraCoperto && !eCoperto) {
+                sg.decrementaPrenotazioni();
+            } else if (!eraCoperto && eCoperto) {
+                sg.incrementaPrenotazioni();
+            }
+
+            int maschera = FasceOrarie.maschera(giorno, nuovoInizio, nuovoFine);
+            for (Prenotazione p : altre) {
+                maschera |= FasceOrarie.maschera(giorno, p.getDataInizio(), p.getDataFine());
+            }
+            sg.setFasceOccupate(maschera);
+            servizioGiornoRepo.save(sg);
+        }
+        return false;
+    }
+
+    private static Set<LocalDate> giorni(LocalDateTime inizio, LocalDateTime fine) {
+        Set<LocalDate> giorni = new HashSet<>();
+        for (LocalDate g = inizio.toLocalDate(); !g.isAfter(fine.toLocalDate()); g = g.plusDays(1)) {
+            giorni.add(g);
+        }
+        return giorni;
+    }
+
+    /**
+     * Restituisce, per i soli giorni con prenotazioni o fermi, la maschera delle fasce occupate
+     * del veicolo tra due date (estremi inclusi). Le maschere sono calcolate dalle prenotazioni
+     * ATTIVE e dai fermi che toccano il periodo, letti con una query per intervallo ciascuno.
+     */
+    @Transactional(readOnly = true)
+    public Map<LocalDate, Integer> fasceOccupate(Veicolo veicolo, LocalDate da, LocalDate a) {
+        Map<LocalDate, Integer> risultato = new TreeMap<>();
+        LocalDateTime inizio = da.atStartOfDay();
+        LocalDateTime fine = a.plusDays(1).atStartOfDay();
+        for (Prenotazione p : prenotazioneRepo.findByVeicoloAndStatoAndPeriodo(veicolo, StatoPrenotazione.ATTIVA, inizio, fine)) {
+            aggiungiFasce(risultato, da, a, p.getDataInizio(), p.getDataFine());
+        }
+        for (FermoVeicolo f : fermoRepo.findByVeicoloIdInAndDataInizioLessThanAndDataFineGreaterThan(List.of(veicolo.getId()), fine, inizio)) {
+            aggiungiFasce(risultato, da, a, f.getDataInizio(), f.getDataFine());
+        }
+        return risultato;
+    }
+
+    private static void aggiungiFasce(Map<LocalDate, Integer> risultato, LocalDate da, LocalDate a,
+                                      LocalDateTime inizio, LocalDateTime fine) {
+        LocalDate primo = inizio.toLocalDate().isBefore(da) ? da : inizio.toLocalDate();
+        LocalDate ultimo = fine.toLocalDate().isAfter(a) ? a : fine.toLocalDate();
+        for (LocalDate giorno = primo; !giorno.isAfter(ultimo); giorno = giorno.plusDays(1)) {
+            int maschera = FasceOrarie.maschera(giorno, inizio, fine);
+            if (maschera != 0) {
+                risultato.merge(giorno, maschera, (x, y) -> x | y);
+            }
+        }
+    }
+
+    /**
+     * Versione della disponibilità del veicolo tra due date, calcolata dalle stesse righe da cui
+     * {@link #fasceOccupate} costruisce la risposta: prenotazioni ATTIVE e fermi che toccano il periodo.
+     * È un digest degli id e delle versioni delle prenotazioni e degli id e delle date dei fermi, in ordine
+     * di id: cambia quando una prenotazione viene creata, modificata (version), annullata o completata
+     * (esce dalle ATTIVE) e quando un fermo viene aggiunto o eliminato. Usata come ETag della disponibilità.
+     */
+    @Transactional(readOnly = true)
+    public String versioneDisponibilita(Long veicoloId, LocalDate da, LocalDate a) {
+        java.sql.Timestamp inizio = java.sql.Timestamp.valueOf(da.atStartOfDay());
+        java.sql.Timestamp fine = java.sql.Timestamp.valueOf(a.plusDays(1).atStartOfDay());
+        // digest ordinato per id: cambia con qualunque riga entrata, uscita o modificata, anche quando
+        // numero e somme degli id restano uguali (annullate 3 e 7, create 4 e 6)
+        return jdbcTemplate.queryForObject("SELECT (SELECT COALESCE(md5(string_agg(id || ':' || COALESCE(version, 0), ',' ORDER BY id)), '0') " +
+                        "FROM prenotazioni WHERE veicolo_id = ? AND stato = 'ATTIVA' AND data_inizio < ? AND data_fine > ?) || '-' || " +
+                        "(SELECT COALESCE(md5(string_agg(id || ':' || data_inizio || ':' || data_fine, ',' ORDER BY id)), '0') " +
+                        "FROM fermi_veicolo WHERE veicolo_id = ? AND data_inizio < ? AND data_fine > ?)",
+                String.class, veicoloId, fine, inizio, veicoloId, fine, inizio);
+    }
+
+    /**
+     * Matrice di occupazione di tutti i veicoli tra due date (estremi inclusi), calcolata con un'unica
+     * query aggregata sui contatori giornalieri: per ogni veicolo una stringa con un carattere per giorno,
+     * '0' libero, '1' parzialmente occupato, '2' occupato per l'intera giornata. I fermi, che non passano
+     * dai contatori, sono letti con una join laterale sulla tabella fermi_veicolo: un giorno coperto in
+     * parte da prenotazioni e in parte da fermi resta '1'.
+     */
+    @Transactional(readOnly = true)
+    public List<OccupazioneVeicoloDTO> occupazioneFlotta(LocalDate da, LocalDate a) {
+        return jdbcTemplate.query("SELECT v.id, v.targa, v.marca, v.modello, v.attivo, " +
+                        "string_agg(CASE WHEN (sg.numero_prenotazioni > 0 AND sg.fasce_occupate = " + FasceOrarie.GIORNO_PIENO + ") " +
+                        "OR fv.pieno THEN '2' " +
+                        "WHEN (sg.numero_prenotazioni > 0 AND sg.fasce_occupate <> 0) OR fv.presente THEN '1' ELSE '0' END, '' ORDER BY g.giorno) AS occupazione " +
+                        "FROM veicoli v " +
+                        "CROSS JOIN generate_series(CAST(? AS timestamp), CAST(? AS timestamp), interval '1 day') AS g(giorno) " +
+                        "LEFT JOIN servizio_giorno sg ON sg.veicolo_id = v.id AND sg.data = CAST(g.giorno AS date) " +
+                        "CROSS JOIN LATERAL (SELECT count(*) > 0 AS presente, " +
+                        "COALESCE(bool_or(f.data_inizio <= g.giorno AND f.data_fine >= g.giorno + interval '1 day'), false) AS pieno " +
+                        "FROM fermi_veicolo f WHERE f.veicolo_id = v.id " +
+                        "AND f.data_inizio < g.giorno + interval '1 day' AND f.data_fine > g.giorno) fv " +
+                        "GROUP BY v.id, v.targa, v.marca, v.modello, v.attivo " +
+                        "ORDER BY v.id",
+                (rs, n) -> new OccupazioneVeicoloDTO(
+                        rs.getLong("id"),
+                        rs.getString("targa"),
+                        rs.getString("marca"),
+                        rs.getString("modello"),
+                        rs.getBoolean("attivo"),
+                        rs.getString("occupazione")),
+                java.sql.Date.valueOf(da), java.sql.Date.valueOf(a));
+    }
+
+    /**
+     * Ricalcola tutti i contatori e le maschere dalle prenotazioni ATTIVE con un'unica query aggregata
+     * (generate_series dei giorni di ogni prenotazione) verso una tabella temporanea, poi applica
+     * alla tabella servizio_giorno solo le differenze. Tutto avviene in una transazione, con la tabella
+     * bloccata in scrittura, così il risultato è coerente con le prenotazioni create in parallelo.
+     */
+    @Transactional
+    public EsitoRicalcoloDTO ricalcola() {
+        long inizio = System.nanoTime();
+
+        jdbcTemplate.execute("LOCK TABLE servizio_giorno IN SHARE ROW EXCLUSIVE MODE");
+        jdbcTemplate.execute("CREATE TEMP TABLE servizio_giorno_ricalcolo ON COMMIT DROP AS "
+                + CONTATORI_ATTESI + RAGGRUPPA_CONTATORI_ATTESI);
+
+        int aggiornate = jdbcTemplate.update("UPDATE servizio_giorno sg SET " +
+                "numero_prenotazioni = r.numero_prenotazioni, fasce_occupate = r.fasce_occupate, version = sg.version + 1 " +
+                "FROM servizio_giorno_ricalcolo r " +
+                "WHERE sg.veicolo_id = r.veicolo_id AND sg.data = r.data " +
+                "AND (sg.numero_prenotazioni <> r.numero_prenotazioni OR sg.fasce_occupate <> r.fasce_occupate)");
+        int inserite = jdbcTemplate.update("INSERT INTO servizio_giorno (veicolo_id, data, numero_prenotazioni, fasce_occupate, version) " +
+                "SELECT r.veicolo_id, r.data, r.numero_prenotazioni, r.fasce_occupate, 0 " +
+                "FROM servizio_giorno_ricalcolo r " +
+                "WHERE NOT EXISTS (SELECT 1 FROM servizio_giorno sg WHERE sg.veicolo_id = r.veicolo_id AND sg.data = r.data)");
+        int azzerate = jdbcTemplate.update("UPDATE servizio_giorno sg SET " +
+                "numero_prenotazioni = 0, fasce_occupate = 0, version = sg.version + 1 " +
+                "WHERE (sg.numero_prenotazioni <> 0 OR sg.fasce_occupate <> 0) " +
+                "AND NOT EXISTS (SELECT 1 FROM servizio_giorno_ricalcolo r WHERE r.veicolo_id = sg.veicolo_id AND r.data = sg.data)");
+
+        long durataMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inizio);
+        logger.info("Contatori ricalcolati in {} ms: {} aggiornati, {} inseriti, {} azzerati",
+                durataMs, aggiornate, inserite, azzerate);
+        return new EsitoRicalcoloDTO(aggiornate, inserite, azzerate, durataMs);
+    }
+}
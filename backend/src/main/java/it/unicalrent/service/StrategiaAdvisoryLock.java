@@ -0,0 +1,35 @@
+package it.unicalrent.service;
+
+import it.unicalrent.repository.VeicoloRepository;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Strategia basata su pg_advisory_xact_lock(veicolo_id): lock applicativo di PostgreSQL,
+ * rilasciato automaticamente alla fine della transazione, che non tocca la riga del veicolo.
+ */
+@Component
+@ConditionalOnProperty(name = "unicalrent.prenotazioni.concorrenza", havingValue = "advisory")
+public class StrategiaAdvisoryLock implements StrategiaConcorrenza {
+
+    private final VeicoloRepository veicoloRepo;
+
+    public StrategiaAdvisoryLock(VeicoloRepository veicoloRepo) {
+        this.veicoloRepo = veicoloRepo;
+    }
+
+    @Override
+    public String nome() {
+        return "advisory";
+    }
+
+    @Override
+    public void acquisisci(Long veicoloId) {
+        veicoloRepo.lockAdvisoryTransazione(veicoloId);
+    }
+
+    @Override
+    public boolean serializzaVeicolo() {
+        return true;
+    }
+}
@@ -0,0 +1,38 @@
+package it.unicalrent.service;
+
+/**
+ * Strategia di controllo della concorrenza usata da PrenotazioneService durante la creazione
+ * di una prenotazione. La strategia attiva si sceglie con la proprietà
+ * {@code unicalrent.prenotazioni.concorrenza}: {@code ottimistica} (default),
+ * {@code pessimistica}, {@code advisory} o {@code esclusione}.
+ */
+public interface StrategiaConcorrenza {
+
+    /**
+     * Nome della strategia, come indicato nella proprietà di configurazione.
+     */
+    String nome();
+
+    /**
+     * Invocato all'inizio della transazione di prenotazione, prima di leggere i contatori giornalieri.
+     * Le strategie bloccanti acquisiscono qui un lock che viene rilasciato al termine della transazione.
+     */
+    void acquisisci(Long veicoloId);
+
+    /**
+     * true se l'assenza di sovrapposizioni è garantita dal vincolo di esclusione sul database:
+     * in tal caso l'inserimento stesso fa da controllo e i contatori giornalieri non vengono letti.
+     */
+    default boolean vincoloDatabase() {
+        return false;
+    }
+
+    /**
+     * true se {@link #acquisisci(Long)} serializza sul database tutte le prenotazioni del veicolo
+     * fino al commit: la verifica delle sovrapposizioni può allora essere una sola query e i contatori
+     * giornalieri possono essere aggiornati in blocco, senza controllo di versione.
+     */
+    default boolean serializzaVeicolo() {
+        return false;
+    }
+}
@@ -0,0 +1,36 @@
+package it.unicalrent.service;
+
+import it.unicalrent.repository.VeicoloRepository;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Strategia pessimistica: SELECT ... FOR UPDATE sulla riga del veicolo.
+ * Le prenotazioni concorrenti sullo stesso veicolo attendono il commit della precedente.
+ */
+@Component
+@ConditionalOnProperty(name = "unicalrent.prenotazioni.concorrenza", havingValue = "pessimistica")
+public class StrategiaLockPessimistico implements StrategiaConcorrenza {
+
+    private final VeicoloRepository veicoloRepo;
+
+    public StrategiaLockPessimistico(VeicoloRepository veicoloRepo) {
+        this.veicoloRepo = veicoloRepo;
+    }
+
+    @Override
+    public String nome() {
+        return "pessimistica";
+    }
+
+    @Override
+    public void acquisisci(Long veicoloId) {
+        veicoloRepo.findByIdPerAggiornamento(veicoloId)
+                .orElseThrow(() -> new IllegalArgumentException("Veicolo non trovato"));
+    }
+
+    @Override
+    public boolean serializzaVeicolo() {
+        return true;
+    }
+}
@@ -0,0 +1,23 @@
+package it.unicalrent.service;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Strategia ottimistica: nessun lock esplicito. I conflitti vengono rilevati al commit
+ * grazie al campo version di ServizioGiorno e gestiti con un nuovo tentativo.
+ */
+@Component
+@ConditionalOnProperty(name = "unicalrent.prenotazioni.concorrenza", havingValue = "ottimistica", matchIfMissing = true)
+public class StrategiaOttimistica implements StrategiaConcorrenza {
+
+    @Override
+    public String nome() {
+        return "ottimistica";
+    }
+
+    @Override
+    public void acquisisci(Long veicoloId) {
+        // il versioning dei contatori giornalieri è sufficiente
+    }
+}
@@ -0,0 +1,32 @@
+package it.unicalrent.service;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Strategia basata sul vincolo di esclusione di PostgreSQL su prenotazioni:
+ * nessun lock esplicito, è l'inserimento della prenotazione a fallire in caso di sovrapposizione.
+ */
+@Component
+@ConditionalOnProperty(name = "unicalrent.prenotazioni.concorrenza", havingValue = "esclusione")
+public class StrategiaVincoloEsclusione implements StrategiaConcorrenza {
+
+    public StrategiaVincoloEsclusione(VincoloEsclusionePrenotazioni vincolo) {
+        // la dipendenza garantisce che il vincolo sia installato prima dell'uso della strategia
+    }
+
+    @Override
+    public String nome() {
+        return "esclusione";
+    }
+
+    @Override
+    public void acquisisci(Long veicoloId) {
+        // il controllo avviene all'inserimento
+    }
+
+    @Override
+    public boolean vincoloDatabase() {
+        return true;
+    }
+}
@@ -1,5 +1,6 @@
 package it.unicalrent.service;
 
+import it.unicalrent.entity.StatoPrenotazione;
 import it.unicalrent.entity.Veicolo;
 import it.unicalrent.repository.VeicoloRepository;
 import jakarta.persistence.EntityNotFoundException;
@@ -8,6 +9,7 @@ import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.List;
 
 /**
@@ -107,6 +109,23 @@ public class VeicoloService {
         return veicoloRepository.findByAttivoTrue();
     }
 
+    /**
+     * Restituisce i veicoli attivi liberi nell'intervallo [inizio, fine), cioè senza prenotazioni
+     * ATTIVE sovrapposte, con filtri opzionali su tipo, alimentazione e posti minimi.
+     */
+    @Transactional(readOnly = true)
+    public List<Veicolo> cercaDisponibili(LocalDateTime inizio, LocalDateTime fine, String tipo, String alimentazione, Integer postiMin) {
+        if (!inizio.isBefore(fine)) {
+            throw new IllegalArgumentException("La data di inizio deve essere precedente alla data di fine.");
+        }
+        return veicoloRepository.findDisponibiliNelPeriodo(inizio, fine,
+                vuotoComeNull(tipo), vuotoComeNull(alimentazione), postiMin, StatoPrenotazione.ATTIVA);
+    }
+
+    private static String vuotoComeNull(String valore) {
+        return valore == null || valore.isBlank() ? null : valore;
+    }
+
     /**
      * Recupera un veicolo dato il suo ID, se esiste ed è attivo.
      *
@@ -0,0 +1,63 @@
+package it.unicalrent.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLException;
+
+/**
+ * Installa su PostgreSQL il vincolo che impedisce prenotazioni ATTIVE sovrapposte sullo stesso veicolo:
+ * una colonna generata {@code periodo tsrange(data_inizio, data_fine)} e un indice GiST
+ * {@code EXCLUDE (veicolo_id WITH =, periodo WITH &&) WHERE (stato = 'ATTIVA')}.
+ * Attivo solo con {@code unicalrent.prenotazioni.concorrenza=esclusione}.
+ */
+@Component
+@ConditionalOnProperty(name = "unicalrent.prenotazioni.concorrenza", havingValue = "esclusione")
+public class VincoloEsclusionePrenotazioni {
+
+    private static final Logger logger = LoggerFactory.getLogger(VincoloEsclusionePrenotazioni.class);
+
+    /**
+     * SQLSTATE di PostgreSQL per exclusion_violation.
+     */
+    public static final String SQLSTATE_ESCLUSIONE = "23P01";
+
+    private static final String NOME_VINCOLO = "ex_prenotazioni_veicolo_periodo";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * La EntityManagerFactory è richiesta solo per garantire che Hibernate abbia già
+     * creato o aggiornato la tabella prenotazioni.
+     */
+    public VincoloEsclusionePrenotazioni(JdbcTemplate jdbcTemplate, EntityManagerFactory entityManagerFactory) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    public void installa() {
+        jdbcTemplate.execute("CREATE EXTENSION IF NOT EXISTS btree_gist");
+        jdbcTemplate.execute("ALTER TABLE prenotazioni ADD COLUMN IF NOT EXISTS periodo tsrange " +
+                "GENERATED ALWAYS AS (tsrange(data_inizio, data_fine, '[)')) STORED");
+        jdbcTemplate.execute("DO $$ BEGIN " +
+                "IF NOT EXISTS (SELECT 1 FROM pg_constraint WHERE conname = '" + NOME_VINCOLO + "') THEN " +
+                "ALTER TABLE prenotazioni ADD CONSTRAINT " + NOME_VINCOLO + " " +
+                "EXCLUDE USING gist (veicolo_id WITH =, periodo WITH &&) WHERE (stato = 'ATTIVA'); " +
+                "END IF; END $$");
+        logger.info("Vincolo di esclusione {} attivo su prenotazioni", NOME_VINCOLO);
+    }
+
+    /**
+     * Indica se l'eccezione deriva dalla violazione di un vincolo di esclusione.
+     */
+    public static boolean isViolazione(Throwable ex) {
+        Throwable causa = NestedExceptionUtils.getMostSpecificCause(ex);
+        return causa instanceof SQLException sql && SQLSTATE_ESCLUSIONE.equals(sql.getSQLState());
+    }
+}
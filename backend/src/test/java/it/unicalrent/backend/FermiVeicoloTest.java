@@ -0,0 +1,176 @@
+package it.unicalrent.backend;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.unicalrent.dto.EsitoFermiDTO;
+import it.unicalrent.dto.RichiestaFermiDTO;
+import it.unicalrent.entity.Prenotazione;
+import it.unicalrent.entity.Ruolo;
+import it.unicalrent.entity.StatoPrenotazione;
+import it.unicalrent.entity.Utente;
+import it.unicalrent.entity.Veicolo;
+import it.unicalrent.exception.BookingConflictException;
+import it.unicalrent.repository.FermoVeicoloRepository;
+import it.unicalrent.repository.PrenotazioneRepository;
+import it.unicalrent.repository.UtenteRepository;
+import it.unicalrent.repository.VeicoloRepository;
+import it.unicalrent.service.FermiVeicoloService;
+import it.unicalrent.service.GestoreLockVeicoli;
+import it.unicalrent.service.IndicePrenotazioni;
+import it.unicalrent.service.PrenotazioneService;
+import it.unicalrent.service.RegistroIdempotenza;
+import it.unicalrent.service.RegistroOpzioni;
+import it.unicalrent.service.ServizioGiornoService;
+import it.unicalrent.service.StrategiaConcorrenza;
+import it.unicalrent.service.UtenteService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Creazione di un fermo programmato: le prenotazioni ATTIVE non ancora iniziate che vi ricadono vengono
+ * annullate e i loro contatori rilasciati; le prenotazioni non possono più cadere nel fermo.
+ */
+class FermiVeicoloTest {
+
+    private static final LocalDateTime INIZIO = LocalDateTime.parse("2099-03-02T08:00");
+    private static final LocalDateTime FINE = LocalDateTime.parse("2099-03-04T08:00");
+
+    private final Utente utente = new Utente("utente-1", "Mario", "Rossi", "mario.rossi@unical.it", Ruolo.UTENTE);
+    private final Veicolo veicolo = new Veicolo("Fiat", "Panda", "AA000AA", 5, "BENZINA");
+
+    private final FermoVeicoloRepository fermoRepo = mock(FermoVeicoloRepository.class);
+    private final VeicoloRepository veicoloRepo = mock(VeicoloRepository.class);
+    private final PrenotazioneRepository prenotazioneRepo = mock(PrenotazioneRepository.class);
+    private final ServizioGiornoService servizioGiornoService = mock(ServizioGiornoService.class);
+    private final IndicePrenotazioni indicePrenotazioni = mock(IndicePrenotazioni.class);
+    private final StrategiaConcorrenza strategiaConcorrenza = mock(StrategiaConcorrenza.class);
+    private final PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+    private final GestoreLockVeicoli gestoreLock = new GestoreLockVeicoli(new SimpleMeterRegistry(), 64, 5000, true);
+    private Prenotazione prima;
+    private Prenotazione seconda;
+
+    @BeforeEach
+    void prepara() {
+        veicolo.setId(1L);
+        veicolo.setCostoOrario(10.0);
+        prima = attiva(1L, "2099-03-02T10:00", "2099-03-02T12:00");
+        seconda = attiva(2L, "2099-03-03T10:00", "2099-03-03T12:00");
+
+        when(transactionManager.getTransaction(any())).thenAnswer(inv -> new SimpleTransactionStatus());
+        when(veicoloRepo.findAllById(List.of(1L))).thenReturn(List.of(veicolo));
+        when(fermoRepo.saveAll(any())).thenAnswer(inv -> inv.getArgument(0));
+        when(prenotazioneRepo.findFutureNelPeriodoPerAggiornamento(any(), any(), eq(INIZIO), eq(FINE)))
+                .thenReturn(List.of(prima, seconda));
+    }
+
+    @Test
+    void annullaLePrenotazioniFutureNelFermo() {
+        when(prenotazioneRepo.annullaAttive(List.of(1L, 2L))).thenReturn(2);
+        LocalDateTime avvio = LocalDateTime.now();
+
+        EsitoFermiDTO esito = servizio(500).creaFermi(richiesta());
+
+        assertEquals(List.of(1L, 2L), esito.getPrenotazioniAnnullate());
+        assertEquals(1, esito.getFermi().size());
+        // il confine tra prenotazioni future e già iniziate è l'istante della creazione
+        ArgumentCaptor<LocalDateTime> adesso = ArgumentCaptor.forClass(LocalDateTime.class);
+        verify(prenotazioneRepo).findFutureNelPeriodoPerAggiornamento(eq(List.of(1L)), adesso.capture(), eq(INIZIO), eq(FINE));
+        assertFalse(adesso.getValue().isBefore(avvio));
+        assertFalse(adesso.getValue().isAfter(LocalDateTime.now()));
+
+        var ordine = inOrder(fermoRepo, prenotazioneRepo);
+        ordine.verify(fermoRepo).lockEsclusivoTransazione(1L);
+        ordine.verify(prenotazioneRepo).findFutureNelPeriodoPerAggiornamento(any(), any(), any(), any());
+        verify(servizioGiornoService).rilascia(prima);
+        verify(servizioGiornoService).rilascia(seconda);
+        verify(indicePrenotazioni).rimuovi(1L);
+        verify(indicePrenotazioni).rimuovi(2L);
+        verify(transactionManager).commit(any());
+    }
+
+    @Test
+    void annullaABlocchi() {
+        when(prenotazioneRepo.annullaAttive(anyCollection())).thenReturn(1);
+
+        EsitoFermiDTO esito = servizio(1).creaFermi(richiesta());
+
+        assertEquals(List.of(1L, 2L), esito.getPrenotazioniAnnullate());
+        verify(prenotazioneRepo).annullaAttive(List.of(1L));
+        verify(prenotazioneRepo).annullaAttive(List.of(2L));
+    }
+
+    @Test
+    void prenotazioniCambiateNelFrattempoAnnullanoIlFermo() {
+        // una delle due non era più ATTIVA al momento dell'aggiornamento
+        when(prenotazioneRepo.annullaAttive(List.of(1L, 2L))).thenReturn(1);
+
+        assertThrows(IllegalStateException.class, () -> servizio(500).creaFermi(richiesta()));
+
+        verify(servizioGiornoService, never()).rilascia(any());
+        verify(indicePrenotazioni, never()).rimuovi(anyLong());
+        verify(transactionManager).rollback(any());
+        verify(transactionManager, never()).commit(any());
+    }
+
+    @Test
+    void prenotazioneNelFermoRifiutata() {
+        UtenteRepository utenteRepo = mock(UtenteRepository.class);
+        when(utenteRepo.findById(utente.getId())).thenReturn(Optional.of(utente));
+        UtenteService utenteService = mock(UtenteService.class);
+        when(utenteService.hasCartaCreditoValida(utente.getId())).thenReturn(true);
+        when(veicoloRepo.findById(1L)).thenReturn(Optional.of(veicolo));
+        when(fermoRepo.existsByVeicoloIdAndDataInizioLessThanAndDataFineGreaterThan(eq(1L), any(), any())).thenReturn(true);
+        PrenotazioneService prenotazioneService = new PrenotazioneService(utenteRepo, veicoloRepo, prenotazioneRepo,
+                servizioGiornoService, utenteService, indicePrenotazioni, gestoreLock, strategiaConcorrenza,
+                mock(RegistroOpzioni.class), mock(RegistroIdempotenza.class), fermoRepo, transactionManager);
+
+        assertThrows(BookingConflictException.class, () -> prenotazioneService.creaPrenotazione(utente.getId(), 1L,
+                LocalDateTime.parse("2099-03-05T10:00"), LocalDateTime.parse("2099-03-05T12:00")));
+
+        verify(fermoRepo).lockCondivisoTransazione(1L);
+        verify(prenotazioneRepo, never()).save(any());
+        verify(prenotazioneRepo, never()).saveAndFlush(any());
+        verify(transactionManager).rollback(any());
+    }
+
+    private FermiVeicoloService servizio(int dimensioneBlocco) {
+        return new FermiVeicoloService(fermoRepo, veicoloRepo, prenotazioneRepo, servizioGiornoService,
+                indicePrenotazioni, gestoreLock, strategiaConcorrenza, transactionManager, dimensioneBlocco);
+    }
+
+    private RichiestaFermiDTO richiesta() {
+        RichiestaFermiDTO richiesta = new RichiestaFermiDTO();
+        richiesta.setVeicoliIds(List.of(1L));
+        richiesta.setInizio(INIZIO);
+        richiesta.setFine(FINE);
+        richiesta.setMotivo("Revisione");
+        return richiesta;
+    }
+
+    private Prenotazione attiva(Long id, String inizio, String fine) {
+        Prenotazione p = new Prenotazione(utente, veicolo, LocalDateTime.parse(inizio), LocalDateTime.parse(fine));
+        ReflectionTestUtils.setField(p, "id", id);
+        p.setStato(StatoPrenotazione.ATTIVA);
+        return p;
+    }
+}
@@ -0,0 +1,123 @@
+package it.unicalrent.backend;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.unicalrent.entity.Prenotazione;
+import it.unicalrent.entity.Ruolo;
+import it.unicalrent.entity.Utente;
+import it.unicalrent.entity.Veicolo;
+import it.unicalrent.repository.FermoVeicoloRepository;
+import it.unicalrent.repository.PrenotazioneRepository;
+import it.unicalrent.repository.UtenteRepository;
+import it.unicalrent.repository.VeicoloRepository;
+import it.unicalrent.service.GestoreLockVeicoli;
+import it.unicalrent.service.IndicePrenotazioni;
+import it.unicalrent.service.PrenotazioneService;
+import it.unicalrent.service.RegistroIdempotenza;
+import it.unicalrent.service.RegistroOpzioni;
+import it.unicalrent.service.ServizioGiornoService;
+import it.unicalrent.service.StrategiaConcorrenza;
+import it.unicalrent.service.UtenteService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Richieste ripetute con la stessa Idempotency-Key: la seconda restituisce la prenotazione già creata
+ * senza scriverne un'altra né toccare i contatori giornalieri.
+ */
+class IdempotenzaPrenotazioneTest {
+
+    private static final LocalDateTime INIZIO = LocalDateTime.parse("2099-03-02T10:00");
+    private static final LocalDateTime FINE = LocalDateTime.parse("2099-03-02T12:00");
+
+    private final Map<Long, Prenotazione> salvate = new HashMap<>();
+    private final AtomicLong sequenza = new AtomicLong(100);
+    private final Utente utente = new Utente("utente-1", "Mario", "Rossi", "mario.rossi@unical.it", Ruolo.UTENTE);
+
+    private final PrenotazioneRepository prenotazioneRepo = mock(PrenotazioneRepository.class);
+    private final ServizioGiornoService servizioGiornoService = mock(ServizioGiornoService.class);
+    private PrenotazioneService service;
+
+    @BeforeEach
+    void prepara() {
+        Veicolo veicolo = new Veicolo("Fiat", "Panda", "AA000AA", 5, "BENZINA");
+        veicolo.setId(1L);
+        veicolo.setCostoOrario(10.0);
+
+        UtenteRepository utenteRepo = mock(UtenteRepository.class);
+        when(utenteRepo.findById(utente.getId())).thenReturn(Optional.of(utente));
+        UtenteService utenteService = mock(UtenteService.class);
+        when(utenteService.hasCartaCreditoValida(utente.getId())).thenReturn(true);
+        VeicoloRepository veicoloRepo = mock(VeicoloRepository.class);
+        when(veicoloRepo.findById(1L)).thenReturn(Optional.of(veicolo));
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenAnswer(inv -> new SimpleTransactionStatus());
+
+        when(prenotazioneRepo.save(any(Prenotazione.class))).thenAnswer(inv -> {
+            Prenotazione p = inv.getArgument(0);
+            ReflectionTestUtils.setField(p, "id", sequenza.incrementAndGet());
+            salvate.put(p.getId(), p);
+            return p;
+        });
+        when(prenotazioneRepo.findById(anyLong())).thenAnswer(inv -> Optional.ofNullable(salvate.get(inv.<Long>getArgument(0))));
+
+        // tabella chiavi_idempotenza vuota: ogni inserimento riesce, le chiavi registrate restano in cache
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class,
+                inv -> inv.getMethod().getName().equals("update") ? 1 : RETURNS_DEFAULTS.answer(inv));
+
+        service = new PrenotazioneService(utenteRepo, veicoloRepo, prenotazioneRepo, servizioGiornoService,
+                utenteService, mock(IndicePrenotazioni.class), new GestoreLockVeicoli(new SimpleMeterRegistry(), 64, 5000, true),
+                mock(StrategiaConcorrenza.class), mock(RegistroOpzioni.class), new RegistroIdempotenza(jdbcTemplate, 24, 100),
+                mock(FermoVeicoloRepository.class), transactionManager);
+    }
+
+    @Test
+    void stessaChiaveRestituisceLaStessaPrenotazione() {
+        Prenotazione prima = service.creaPrenotazione(utente.getId(), 1L, INIZIO, FINE, "chiave-1");
+        Prenotazione ripetuta = service.creaPrenotazione(utente.getId(), 1L, INIZIO, FINE, "chiave-1");
+
+        assertEquals(prima.getId(), ripetuta.getId());
+        assertEquals(1, salvate.size());
+        verify(servizioGiornoService, times(1)).registra(any(), any(), any());
+    }
+
+    @Test
+    void chiaveRiusataPerUnaRichiestaDiversa() {
+        service.creaPrenotazione(utente.getId(), 1L, INIZIO, FINE, "chiave-1");
+
+        assertThrows(IllegalArgumentException.class, () ->
+                service.creaPrenotazione(utente.getId(), 1L, INIZIO.plusDays(1), FINE.plusDays(1), "chiave-1"));
+        assertEquals(1, salvate.size());
+    }
+
+    @Test
+    void chiaveDiUnaPrenotazioneEliminataTornaNuova() {
+        Prenotazione prima = service.creaPrenotazione(utente.getId(), 1L, INIZIO, FINE, "chiave-1");
+        salvate.remove(prima.getId());
+
+        Prenotazione nuova = service.creaPrenotazione(utente.getId(), 1L, INIZIO, FINE, "chiave-1");
+
+        assertNotEquals(prima.getId(), nuova.getId());
+        verify(prenotazioneRepo, times(2)).save(any());
+    }
+}
@@ -0,0 +1,87 @@
+package it.unicalrent.backend;
+
+import it.unicalrent.entity.StatoPrenotazione;
+import it.unicalrent.repository.FermoVeicoloRepository;
+import it.unicalrent.repository.PrenotazioneRepository;
+import it.unicalrent.service.IndicePrenotazioni;
+import it.unicalrent.service.IndicePrenotazioni.Intervallo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Indice in memoria delle prenotazioni attive: verifica di sovrapposizione, ricarica di un veicolo
+ * e ricerca delle finestre libere.
+ */
+class IndicePrenotazioniTest {
+
+    private final PrenotazioneRepository prenotazioneRepo = mock(PrenotazioneRepository.class);
+    private final List<Intervallo> notificati = new ArrayList<>();
+    private IndicePrenotazioni indice;
+
+    @BeforeEach
+    void prepara() {
+        indice = new IndicePrenotazioni(prenotazioneRepo, mock(FermoVeicoloRepository.class));
+        indice.registraAscoltatore(notificati::add);
+    }
+
+    @Test
+    void sovrapposizioneSuIntervalliSemiAperti() {
+        indice.aggiungi(1L, 1L, t("2099-03-02T10:00"), t("2099-03-02T12:00"));
+
+        assertTrue(indice.sovrapposta(1L, t("2099-03-02T11:00"), t("2099-03-02T13:00")));
+        assertFalse(indice.sovrapposta(1L, t("2099-03-02T12:00"), t("2099-03-02T13:00")));
+        assertFalse(indice.sovrapposta(2L, t("2099-03-02T11:00"), t("2099-03-02T13:00")));
+    }
+
+    @Test
+    void ricaricaNotificaSoloGliIntervalliNuoviOCambiati() {
+        indice.aggiungi(1L, 1L, t("2099-03-02T10:00"), t("2099-03-02T12:00"));
+        indice.aggiungi(2L, 1L, t("2099-03-03T10:00"), t("2099-03-03T12:00"));
+        notificati.clear();
+        // sul database la 2 è stata spostata e la 3 creata da un'altra istanza
+        when(prenotazioneRepo.findIntervalliByVeicoloIdAndStato(1L, StatoPrenotazione.ATTIVA)).thenReturn(List.of(
+                riga(1L, "2099-03-02T10:00", "2099-03-02T12:00"),
+                riga(2L, "2099-03-03T14:00", "2099-03-03T16:00"),
+                riga(3L, "2099-03-04T10:00", "2099-03-04T12:00")));
+
+        indice.ricaricaVeicolo(1L);
+        indice.ricaricaVeicolo(1L);
+
+        assertEquals(List.of(2L, 3L), notificati.stream().map(Intervallo::id).toList());
+        assertTrue(indice.sovrapposta(1L, t("2099-03-04T11:00"), t("2099-03-04T13:00")));
+        assertFalse(indice.sovrapposta(1L, t("2099-03-03T10:00"), t("2099-03-03T12:00")));
+    }
+
+    @Test
+    void finestreLibereTraPrenotazioniEFermi() {
+        indice.aggiungi(1L, 1L, t("2099-03-01T08:00"), t("2099-03-01T09:00"));
+        indice.aggiungi(2L, 1L, t("2099-03-02T10:00"), t("2099-03-02T12:00"));
+        indice.aggiungi(3L, 1L, t("2099-03-02T14:00"), t("2099-03-02T16:00"));
+        indice.aggiungiFermo(1L, 1L, t("2099-03-02T11:30"), t("2099-03-02T13:00"));
+
+        List<Intervallo> finestre = indice.finestreLibere(1L, Duration.ofHours(1), t("2099-03-02T11:00"),
+                t("2099-03-02T09:00"), t("2099-03-02T18:00"), 3);
+
+        assertEquals(List.of(t("2099-03-02T09:00"), t("2099-03-02T13:00"), t("2099-03-02T16:00")),
+                finestre.stream().map(Intervallo::inizio).toList());
+    }
+
+    private static Object[] riga(Long id, String inizio, String fine) {
+        return new Object[]{id, 1L, t(inizio), t(fine)};
+    }
+
+    private static LocalDateTime t(String valore) {
+        return LocalDateTime.parse(valore);
+    }
+}
@@ -0,0 +1,62 @@
+package it.unicalrent.backend;
+
+import it.unicalrent.BackendApplication;
+import it.unicalrent.service.LeadershipJob;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Verifica del lease dei job schedulati con due contesti applicativi sullo stesso database:
+ * un solo nodo alla volta detiene il lease e, se smette di rinnovarlo, l'altro subentra.
+ * Richiede il database configurato e non viene eseguito dalla build normale:
+ *
+ * <pre>
+ * mvn test -Dtest=LeadershipJobClusterTest -Dcluster=true
+ * </pre>
+ */
+@SpringBootTest(properties = "unicalrent.cluster.nodo-id=nodo-a")
+@EnabledIfSystemProperty(named = "cluster", matches = "true")
+class LeadershipJobClusterTest {
+
+    private static final Duration DURATA_LEASE = Duration.ofSeconds(2);
+
+    @Autowired
+    private LeadershipJob nodoA;
+
+    @Test
+    void unSoloLeaderConSubentroAllaScadenza() throws InterruptedException {
+        String job = "test-leadership-" + System.nanoTime();
+        try (ConfigurableApplicationContext secondo = new SpringApplicationBuilder(BackendApplication.class)
+                .properties("server.port=0", "unicalrent.cluster.nodo-id=nodo-b")
+                .run()) {
+            LeadershipJob nodoB = secondo.getBean(LeadershipJob.class);
+
+            assertTrue(nodoA.acquisisci(job, DURATA_LEASE));
+            assertFalse(nodoB.acquisisci(job, DURATA_LEASE));
+
+            // il leader rinnova e resta tale
+            assertTrue(nodoA.acquisisci(job, DURATA_LEASE));
+            assertFalse(nodoB.acquisisci(job, DURATA_LEASE));
+
+            // il leader smette di rinnovare: alla scadenza subentra l'altro nodo
+            Thread.sleep(DURATA_LEASE.toMillis() + 500);
+            assertTrue(nodoB.acquisisci(job, DURATA_LEASE));
+            assertFalse(nodoA.acquisisci(job, DURATA_LEASE));
+
+            // rilascio esplicito: il lease torna subito disponibile
+            nodoB.rilascia(job);
+            assertTrue(nodoA.acquisisci(job, DURATA_LEASE));
+        } finally {
+            nodoA.rilascia(job);
+        }
+    }
+}
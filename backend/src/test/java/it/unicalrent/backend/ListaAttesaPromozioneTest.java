@@ -0,0 +1,249 @@
+package it.unicalrent.backend;
+
+import it.unicalrent.entity.Prenotazione;
+import it.unicalrent.entity.RichiestaAttesa;
+import it.unicalrent.entity.Ruolo;
+import it.unicalrent.entity.StatoAttesa;
+import it.unicalrent.entity.Utente;
+import it.unicalrent.entity.Veicolo;
+import it.unicalrent.exception.BookingConflictException;
+import it.unicalrent.repository.ListaAttesaRepository;
+import it.unicalrent.repository.UtenteRepository;
+import it.unicalrent.repository.VeicoloRepository;
+import it.unicalrent.service.IndicePrenotazioni;
+import it.unicalrent.service.ListaAttesaService;
+import it.unicalrent.service.PrenotazioneService;
+import it.unicalrent.service.PrenotazioneService.EsitoGruppo;
+import it.unicalrent.service.RegistroOpzioni;
+import it.unicalrent.service.RegistroPrenotazioniLiberate;
+import it.unicalrent.service.RegistroPrenotazioniLiberate.Liberazione;
+import it.unicalrent.service.UtenteService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Evasione della lista d'attesa quando si libera tempo su un veicolo: la richiesta viene prenotata
+ * e chiusa nella stessa transazione, oppure solo notificata se non è a prenotazione automatica.
+ */
+class ListaAttesaPromozioneTest {
+
+    private static final LocalDateTime INIZIO = LocalDateTime.parse("2099-03-02T10:00");
+    private static final LocalDateTime FINE = LocalDateTime.parse("2099-03-02T12:00");
+    private static final IndicePrenotazioni.Intervallo LIBERATO =
+            new IndicePrenotazioni.Intervallo(99L, 1L, INIZIO.minusHours(1), FINE.plusHours(1));
+
+    private final Utente utente = new Utente("utente-1", "Mario", "Rossi", "mario.rossi@unical.it", Ruolo.UTENTE);
+    private final ListaAttesaRepository listaAttesaRepo = mock(ListaAttesaRepository.class);
+    private final PrenotazioneService prenotazioneService = mock(PrenotazioneService.class);
+    private final IndicePrenotazioni indicePrenotazioni = mock(IndicePrenotazioni.class);
+    private final RegistroPrenotazioniLiberate registroLiberate = mock(RegistroPrenotazioniLiberate.class);
+    private ListaAttesaService service;
+
+    @BeforeEach
+    void prepara() {
+        Veicolo veicolo = new Veicolo("Fiat", "Panda", "AA000AA", 5, "BENZINA");
+        veicolo.setId(1L);
+        veicolo.setTipo("UTILITARIA");
+
+        VeicoloRepository veicoloRepo = mock(VeicoloRepository.class);
+        when(veicoloRepo.findByIdAndAttivoTrue(1L)).thenReturn(Optional.of(veicolo));
+        UtenteRepository utenteRepo = mock(UtenteRepository.class);
+        when(utenteRepo.findById(utente.getId())).thenReturn(Optional.of(utente));
+        UtenteService utenteService = mock(UtenteService.class);
+        when(utenteService.hasCartaCreditoValida(utente.getId())).thenReturn(true);
+        RegistroOpzioni registroOpzioni = mock(RegistroOpzioni.class);
+        when(registroOpzioni.riservatoDaAltri(anyLong(), anyString(), any(), any())).thenReturn(Optional.empty());
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenAnswer(inv -> new SimpleTransactionStatus());
+
+        // la prenotazione viene creata e la callback eseguita nella sua transazione, come in scriviGruppo
+        when(prenotazioneService.scriviGruppo(any(), any(), any())).thenAnswer(inv -> {
+            Prenotazione creata = new Prenotazione(utente, veicolo, INIZIO, FINE);
+            ReflectionTestUtils.setField(creata, "id", 500L);
+            List<EsitoGruppo> esiti = List.of(new EsitoGruppo(creata, null));
+            inv.<Consumer<List<EsitoGruppo>>>getArgument(2).accept(esiti);
+            return esiti;
+        });
+
+        service = new ListaAttesaService(listaAttesaRepo, veicoloRepo, utenteRepo, utenteService, prenotazioneService,
+                indicePrenotazioni, registroOpzioni, registroLiberate, transactionManager, 5);
+    }
+
+    @AfterEach
+    void arresta() {
+        service.arresta();
+    }
+
+    @Test
+    void richiestaAutomaticaVienePrenotataEChiusa() {
+        when(listaAttesaRepo.findByStato(StatoAttesa.IN_ATTESA)).thenReturn(List.of(richiesta(7L, true, INIZIO, FINE)));
+        when(listaAttesaRepo.chiudi(eq(7L), eq(StatoAttesa.PRENOTATA), eq(500L), any())).thenReturn(1);
+        service.carica();
+
+        service.rimosso(LIBERATO);
+
+        verify(listaAttesaRepo, timeout(2000)).chiudi(eq(7L), eq(StatoAttesa.PRENOTATA), eq(500L), any());
+        // chiusa: un secondo intervallo liberato non la prenota di nuovo
+        service.rimosso(LIBERATO);
+        verify(prenotazioneService, after(200).times(1)).scriviGruppo(any(), any(), any());
+    }
+
+    @Test
+    void richiestaGiaChiusaAltroveAnnullaLaPrenotazione() {
+        when(listaAttesaRepo.findByStato(StatoAttesa.IN_ATTESA)).thenReturn(List.of(richiesta(7L, true, INIZIO, FINE)));
+        // ritirata su un'altra istanza: la chiusura condizionata non aggiorna nulla
+        when(listaAttesaRepo.chiudi(eq(7L), eq(StatoAttesa.PRENOTATA), anyLong(), any())).thenReturn(0);
+        RuntimeException[] sollevata = new RuntimeException[1];
+        doAnswer(inv -> {
+            Prenotazione creata = mock(Prenotazione.class);
+            when(creata.getId()).thenReturn(500L);
+            try {
+                inv.<Consumer<List<EsitoGruppo>>>getArgument(2).accept(List.of(new EsitoGruppo(creata, null)));
+            } catch (RuntimeException e) {
+                sollevata[0] = e;
+                throw e;
+            }
+            return List.of(new EsitoGruppo(creata, null));
+        }).when(prenotazioneService).scriviGruppo(any(), any(), any());
+        service.carica();
+
+        service.rimosso(LIBERATO);
+        service.rimosso(LIBERATO);
+
+        // l'eccezione nella callback annulla la transazione della prenotazione, e la richiesta esce dall'indice
+        verify(prenotazioneService, after(300).times(1)).scriviGruppo(any(), any(), any());
+        assertNotNull(sollevata[0]);
+    }
+
+    @Test
+    void richiestaDaNotificareNonVienePrenotata() {
+        when(listaAttesaRepo.findByStato(StatoAttesa.IN_ATTESA)).thenReturn(List.of(richiesta(7L, false, INIZIO, FINE)));
+        when(listaAttesaRepo.chiudi(eq(7L), eq(StatoAttesa.NOTIFICATA), isNull(), any())).thenReturn(1);
+        service.carica();
+
+        service.rimosso(LIBERATO);
+
+        verify(listaAttesaRepo, timeout(2000)).chiudi(eq(7L), eq(StatoAttesa.NOTIFICATA), isNull(), any());
+        verify(prenotazioneService, never()).scriviGruppo(any(), any(), any());
+    }
+
+    @Test
+    void richiestaRegistrataSuUnAltraIstanzaVieneEvasa() {
+        service.carica();
+        when(listaAttesaRepo.findByStatoAndDataCreazioneAfter(eq(StatoAttesa.IN_ATTESA), any()))
+                .thenReturn(List.of(richiesta(8L, true, INIZIO, FINE)));
+        when(listaAttesaRepo.chiudi(eq(8L), eq(StatoAttesa.PRENOTATA), anyLong(), any())).thenReturn(1);
+
+        service.rimosso(LIBERATO);
+
+        verify(listaAttesaRepo, timeout(2000)).chiudi(eq(8L), eq(StatoAttesa.PRENOTATA), anyLong(), any());
+    }
+
+    @Test
+    void intervalloPresoNelFrattempoLasciaLaRichiestaInAttesa() {
+        when(listaAttesaRepo.findByStato(StatoAttesa.IN_ATTESA)).thenReturn(List.of(richiesta(7L, true, INIZIO, FINE)));
+        doReturn(List.of(new EsitoGruppo(null, new BookingConflictException("Il veicolo non è disponibile"))))
+                .when(prenotazioneService).scriviGruppo(any(), any(), any());
+        service.carica();
+
+        service.rimosso(LIBERATO);
+        service.rimosso(LIBERATO);
+
+        verify(prenotazioneService, timeout(2000).times(2)).scriviGruppo(any(), any(), any());
+        verify(listaAttesaRepo, never()).chiudi(anyLong(), any(), any(), any());
+    }
+
+    @Test
+    void evaseSoloLeRichiesteSovrapposteAlTempoLiberato() {
+        LocalDateTime da = LIBERATO.inizio();
+        LocalDateTime a = LIBERATO.fine();
+        when(listaAttesaRepo.findByStato(StatoAttesa.IN_ATTESA)).thenReturn(List.of(
+                richiesta(1L, false, da.minusDays(20), da),                    // finisce quando inizia il liberato
+                richiesta(2L, false, da.minusDays(20), da.plusMinutes(30)),     // lunga, iniziata molto prima
+                richiesta(3L, false, da.plusMinutes(30), a.minusMinutes(30)),   // interna
+                richiesta(4L, false, a.minusMinutes(30), a.plusDays(2)),        // a cavallo della fine
+                richiesta(5L, false, a, a.plusHours(2)),                        // inizia quando finisce
+                richiesta(6L, false, a.plusDays(3), a.plusDays(4))));
+        when(listaAttesaRepo.chiudi(anyLong(), eq(StatoAttesa.NOTIFICATA), isNull(), any())).thenReturn(1);
+        service.carica();
+
+        service.rimosso(LIBERATO);
+
+        for (Long id : List.of(2L, 3L, 4L)) {
+            verify(listaAttesaRepo, timeout(2000)).chiudi(eq(id), eq(StatoAttesa.NOTIFICATA), isNull(), any());
+        }
+        verify(listaAttesaRepo, after(200).times(3)).chiudi(anyLong(), any(), any(), any());
+    }
+
+    @Test
+    void tempoLiberatoSuUnAltraIstanzaPromuoveLaRichiesta() {
+        LocalDateTime avvio = LocalDateTime.parse("2099-01-01T08:00");
+        when(registroLiberate.adesso()).thenReturn(avvio);
+        when(listaAttesaRepo.findByStato(StatoAttesa.IN_ATTESA)).thenReturn(List.of(richiesta(7L, true, INIZIO, FINE)));
+        when(listaAttesaRepo.chiudi(eq(7L), eq(StatoAttesa.PRENOTATA), eq(500L), any())).thenReturn(1);
+        service.carica();
+        service.sincronizzaLiberate();
+        // annullata su un'altra istanza: il trigger ha registrato l'intervallo, l'ascoltatore locale non è stato chiamato
+        when(registroLiberate.registrateDopo(avvio.minusMinutes(1)))
+                .thenReturn(List.of(new Liberazione(30L, LIBERATO, avvio.plusSeconds(2))));
+
+        service.sincronizzaLiberate();
+
+        verify(indicePrenotazioni, timeout(2000)).ricaricaVeicolo(1L);
+        verify(listaAttesaRepo, timeout(2000)).chiudi(eq(7L), eq(StatoAttesa.PRENOTATA), eq(500L), any());
+    }
+
+    @Test
+    void tempoLiberatoGiaLettoNonVieneEvasoDiNuovo() {
+        LocalDateTime avvio = LocalDateTime.parse("2099-01-01T08:00");
+        Liberazione liberazione = new Liberazione(30L, LIBERATO, avvio.plusSeconds(2));
+        when(registroLiberate.adesso()).thenReturn(avvio);
+        when(registroLiberate.registrateDopo(any())).thenReturn(List.of(liberazione));
+        service.sincronizzaLiberate();
+
+        service.sincronizzaLiberate();
+        service.sincronizzaLiberate();
+
+        // la seconda lettura parte dall'ultima registrazione vista, meno il margine
+        verify(registroLiberate).registrateDopo(avvio.minusMinutes(1));
+        verify(registroLiberate).registrateDopo(liberazione.dataRegistrazione().minusMinutes(1));
+        verify(indicePrenotazioni, after(200).times(1)).ricaricaVeicolo(1L);
+    }
+
+    private RichiestaAttesa richiesta(Long id, boolean automatica, LocalDateTime inizio, LocalDateTime fine) {
+        RichiestaAttesa r = new RichiestaAttesa();
+        ReflectionTestUtils.setField(r, "id", id);
+        r.setUtenteId(utente.getId());
+        r.setVeicoloId(1L);
+        r.setDataInizio(inizio);
+        r.setDataFine(fine);
+        r.setPrenotaAutomaticamente(automatica);
+        r.setStato(StatoAttesa.IN_ATTESA);
+        return r;
+    }
+}
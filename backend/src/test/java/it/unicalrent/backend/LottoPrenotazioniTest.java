@@ -0,0 +1,160 @@
+package it.unicalrent.backend;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.unicalrent.dto.EsitoPrenotazioneDTO;
+import it.unicalrent.dto.EsitoPrenotazioneDTO.Esito;
+import it.unicalrent.dto.RichiestaPrenotazioneDTO;
+import it.unicalrent.entity.Prenotazione;
+import it.unicalrent.entity.Ruolo;
+import it.unicalrent.entity.StatoPrenotazione;
+import it.unicalrent.entity.Utente;
+import it.unicalrent.entity.Veicolo;
+import it.unicalrent.repository.FermoVeicoloRepository;
+import it.unicalrent.repository.PrenotazioneRepository;
+import it.unicalrent.repository.UtenteRepository;
+import it.unicalrent.repository.VeicoloRepository;
+import it.unicalrent.service.GestoreLockVeicoli;
+import it.unicalrent.service.IndicePrenotazioni;
+import it.unicalrent.service.PrenotazioneService;
+import it.unicalrent.service.RegistroIdempotenza;
+import it.unicalrent.service.RegistroOpzioni;
+import it.unicalrent.service.ServizioGiornoService;
+import it.unicalrent.service.StrategiaConcorrenza;
+import it.unicalrent.service.UtenteService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Lotti di prenotazioni: in modalità parziale vengono create le richieste libere e le altre riportate
+ * come conflitti, in modalità atomica non viene creato nulla se anche una sola è in conflitto.
+ */
+class LottoPrenotazioniTest {
+
+    private final List<Prenotazione> attive = new ArrayList<>();
+    private final AtomicLong sequenza = new AtomicLong(100);
+    private final Utente utente = new Utente("utente-1", "Mario", "Rossi", "mario.rossi@unical.it", Ruolo.UTENTE);
+    private final Veicolo veicolo = new Veicolo("Fiat", "Panda", "AA000AA", 5, "BENZINA");
+
+    private final PrenotazioneRepository prenotazioneRepo = mock(PrenotazioneRepository.class);
+    private final ServizioGiornoService servizioGiornoService = mock(ServizioGiornoService.class);
+    private PrenotazioneService service;
+
+    @BeforeEach
+    void prepara() {
+        veicolo.setId(1L);
+        veicolo.setCostoOrario(10.0);
+
+        UtenteRepository utenteRepo = mock(UtenteRepository.class);
+        when(utenteRepo.findById(utente.getId())).thenReturn(Optional.of(utente));
+        UtenteService utenteService = mock(UtenteService.class);
+        when(utenteService.hasCartaCreditoValida(utente.getId())).thenReturn(true);
+        VeicoloRepository veicoloRepo = mock(VeicoloRepository.class);
+        when(veicoloRepo.findAllById(List.of(1L))).thenReturn(List.of(veicolo));
+        RegistroOpzioni registroOpzioni = mock(RegistroOpzioni.class);
+        when(registroOpzioni.riservatoDaAltri(anyLong(), anyString(), any(), any())).thenReturn(Optional.empty());
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenAnswer(inv -> new SimpleTransactionStatus());
+
+        when(prenotazioneRepo.save(any(Prenotazione.class))).thenAnswer(inv -> {
+            Prenotazione p = inv.getArgument(0);
+            ReflectionTestUtils.setField(p, "id", sequenza.incrementAndGet());
+            attive.add(p);
+            return p;
+        });
+        when(prenotazioneRepo.findByVeicoloAndStatoAndPeriodo(eq(veicolo), eq(StatoPrenotazione.ATTIVA), any(), any()))
+                .thenAnswer(inv -> sovrapposte(inv.getArgument(2), inv.getArgument(3)));
+        when(prenotazioneRepo.existsByVeicoloAndStatoAndDataInizioLessThanAndDataFineGreaterThan(
+                eq(veicolo), eq(StatoPrenotazione.ATTIVA), any(), any()))
+                .thenAnswer(inv -> !sovrapposte(inv.getArgument(3), inv.getArgument(2)).isEmpty());
+
+        service = new PrenotazioneService(utenteRepo, veicoloRepo, prenotazioneRepo, servizioGiornoService,
+                utenteService, mock(IndicePrenotazioni.class), new GestoreLockVeicoli(new SimpleMeterRegistry(), 64, 5000, true),
+                mock(StrategiaConcorrenza.class), registroOpzioni, mock(RegistroIdempotenza.class),
+                mock(FermoVeicoloRepository.class), transactionManager);
+    }
+
+    @Test
+    void lottoParzialeCreaSoloLeRichiesteLibere() {
+        esistente("2099-03-02T10:00", "2099-03-02T12:00");
+
+        List<EsitoPrenotazioneDTO> esiti = service.creaPrenotazioniLotto(utente.getId(), richieste(), false);
+
+        assertEquals(List.of(Esito.CREATA, Esito.CONFLITTO, Esito.CONFLITTO), esiti.stream().map(EsitoPrenotazioneDTO::getEsito).toList());
+        assertNotNull(esiti.get(0).getPrenotazioneId());
+        assertEquals(2, attive.size());
+    }
+
+    @Test
+    void lottoAtomicoNonCreaNulla() {
+        esistente("2099-03-02T10:00", "2099-03-02T12:00");
+
+        List<EsitoPrenotazioneDTO> esiti = service.creaPrenotazioniLotto(utente.getId(), richieste(), true);
+
+        assertEquals(List.of(Esito.NON_ESEGUITA, Esito.CONFLITTO, Esito.CONFLITTO), esiti.stream().map(EsitoPrenotazioneDTO::getEsito).toList());
+        assertNull(esiti.get(0).getPrenotazioneId());
+        verify(prenotazioneRepo, never()).save(any());
+    }
+
+    @Test
+    void conflittoInScritturaVieneRivalutato() {
+        // un'altra istanza scrive una prenotazione sovrapposta tra la valutazione e la scrittura
+        when(servizioGiornoService.registra(any(), any(), any())).thenAnswer(inv -> {
+            if (attive.isEmpty()) {
+                esistente("2099-03-03T09:00", "2099-03-03T11:00");
+            }
+            return true;
+        });
+
+        List<EsitoPrenotazioneDTO> esiti = service.creaPrenotazioniLotto(utente.getId(),
+                List.of(richiesta("2099-03-03T10:00", "2099-03-03T12:00")), false);
+
+        assertEquals(Esito.CONFLITTO, esiti.get(0).getEsito());
+        verify(prenotazioneRepo, never()).save(any());
+    }
+
+    /**
+     * Una richiesta libera, una in conflitto con la prenotazione esistente e una in conflitto con la prima.
+     */
+    private List<RichiestaPrenotazioneDTO> richieste() {
+        return List.of(
+                richiesta("2099-03-03T10:00", "2099-03-03T12:00"),
+                richiesta("2099-03-02T11:00", "2099-03-02T13:00"),
+                richiesta("2099-03-03T11:00", "2099-03-03T13:00"));
+    }
+
+    private RichiestaPrenotazioneDTO richiesta(String inizio, String fine) {
+        return new RichiestaPrenotazioneDTO(veicolo.getId(), LocalDateTime.parse(inizio), LocalDateTime.parse(fine));
+    }
+
+    private void esistente(String inizio, String fine) {
+        Prenotazione p = new Prenotazione(utente, veicolo, LocalDateTime.parse(inizio), LocalDateTime.parse(fine));
+        ReflectionTestUtils.setField(p, "id", sequenza.incrementAndGet());
+        p.setStato(StatoPrenotazione.ATTIVA);
+        attive.add(p);
+    }
+
+    private List<Prenotazione> sovrapposte(LocalDateTime inizio, LocalDateTime fine) {
+        return attive.stream().filter(p -> p.getDataInizio().isBefore(fine) && p.getDataFine().isAfter(inizio)).toList();
+    }
+}
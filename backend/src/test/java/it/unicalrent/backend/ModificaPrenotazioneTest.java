@@ -0,0 +1,88 @@
+package it.unicalrent.backend;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.unicalrent.entity.Prenotazione;
+import it.unicalrent.entity.Ruolo;
+import it.unicalrent.entity.StatoPrenotazione;
+import it.unicalrent.entity.Utente;
+import it.unicalrent.entity.Veicolo;
+import it.unicalrent.repository.FermoVeicoloRepository;
+import it.unicalrent.repository.PrenotazioneRepository;
+import it.unicalrent.repository.UtenteRepository;
+import it.unicalrent.repository.VeicoloRepository;
+import it.unicalrent.service.GestoreLockVeicoli;
+import it.unicalrent.service.IndicePrenotazioni;
+import it.unicalrent.service.PrenotazioneService;
+import it.unicalrent.service.RegistroIdempotenza;
+import it.unicalrent.service.RegistroOpzioni;
+import it.unicalrent.service.ServizioGiornoService;
+import it.unicalrent.service.StrategiaConcorrenza;
+import it.unicalrent.service.UtenteService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Modifica di una prenotazione quando la riga ServizioGiorno di un giorno nuovo viene creata
+ * nello stesso momento da un'altra transazione: la modifica viene ritentata invece di fallire.
+ */
+class ModificaPrenotazioneTest {
+
+    private static final LocalDateTime NUOVO_INIZIO = LocalDateTime.parse("2099-03-03T10:00");
+    private static final LocalDateTime NUOVO_FINE = LocalDateTime.parse("2099-03-03T12:00");
+
+    private final PrenotazioneRepository prenotazioneRepo = mock(PrenotazioneRepository.class);
+    private final ServizioGiornoService servizioGiornoService = mock(ServizioGiornoService.class);
+    private final PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+    private final Utente utente = new Utente("utente-1", "Mario", "Rossi", "mario.rossi@unical.it", Ruolo.UTENTE);
+    private PrenotazioneService service;
+
+    @BeforeEach
+    void prepara() {
+        Veicolo veicolo = new Veicolo("Fiat", "Panda", "AA000AA", 5, "BENZINA");
+        veicolo.setId(1L);
+        veicolo.setCostoOrario(10.0);
+        when(prenotazioneRepo.findById(5L)).thenAnswer(inv -> {
+            // riletta a ogni tentativo, come dopo il rollback
+            Prenotazione p = new Prenotazione(utente, veicolo, LocalDateTime.parse("2099-03-02T10:00"), LocalDateTime.parse("2099-03-02T12:00"));
+            ReflectionTestUtils.setField(p, "id", 5L);
+            p.setStato(StatoPrenotazione.ATTIVA);
+            return Optional.of(p);
+        });
+        when(prenotazioneRepo.save(any(Prenotazione.class))).thenAnswer(inv -> inv.getArgument(0));
+        when(transactionManager.getTransaction(any())).thenAnswer(inv -> new SimpleTransactionStatus());
+
+        service = new PrenotazioneService(mock(UtenteRepository.class), mock(VeicoloRepository.class), prenotazioneRepo,
+                servizioGiornoService, mock(UtenteService.class), mock(IndicePrenotazioni.class),
+                new GestoreLockVeicoli(new SimpleMeterRegistry(), 64, 5000, true), mock(StrategiaConcorrenza.class),
+                mock(RegistroOpzioni.class), mock(RegistroIdempotenza.class), mock(FermoVeicoloRepository.class),
+                transactionManager);
+    }
+
+    @Test
+    void rigaDelGiornoCreataInConcorrenzaRitenta() {
+        when(servizioGiornoService.sposta(any(), any(), any()))
+                .thenThrow(new DataIntegrityViolationException("uc_servizio_giorno_veicolo_data"))
+                .thenReturn(false);
+
+        Prenotazione modificata = service.modificaPrenotazione(5L, utente.getId(), NUOVO_INIZIO, NUOVO_FINE);
+
+        assertEquals(NUOVO_INIZIO, modificata.getDataInizio());
+        verify(servizioGiornoService, times(2)).sposta(any(), any(), any());
+        verify(transactionManager).rollback(any());
+        verify(transactionManager).commit(any());
+    }
+}
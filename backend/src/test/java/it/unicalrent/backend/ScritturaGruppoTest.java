@@ -0,0 +1,162 @@
+package it.unicalrent.backend;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.unicalrent.dto.RichiestaPrenotazioneDTO;
+import it.unicalrent.entity.Prenotazione;
+import it.unicalrent.entity.Ruolo;
+import it.unicalrent.entity.StatoPrenotazione;
+import it.unicalrent.entity.Utente;
+import it.unicalrent.entity.Veicolo;
+import it.unicalrent.exception.BookingConflictException;
+import it.unicalrent.repository.FermoVeicoloRepository;
+import it.unicalrent.repository.PrenotazioneRepository;
+import it.unicalrent.repository.UtenteRepository;
+import it.unicalrent.repository.VeicoloRepository;
+import it.unicalrent.service.GestoreLockVeicoli;
+import it.unicalrent.service.IndicePrenotazioni;
+import it.unicalrent.service.PrenotazioneService;
+import it.unicalrent.service.PrenotazioneService.EsitoGruppo;
+import it.unicalrent.service.RegistroIdempotenza;
+import it.unicalrent.service.RegistroOpzioni;
+import it.unicalrent.service.ScrittoreUnicoPrenotazioni;
+import it.unicalrent.service.ServizioGiornoService;
+import it.unicalrent.service.StrategiaConcorrenza;
+import it.unicalrent.service.UtenteService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Group commit dello scrittore unico: tra richieste sovrapposte dello stesso gruppo vince la prima,
+ * le altre ricevono il conflitto, e le vincenti vengono scritte in una sola transazione.
+ */
+class ScritturaGruppoTest {
+
+    private static final LocalDateTime INIZIO = LocalDateTime.parse("2099-03-02T10:00");
+    private static final LocalDateTime FINE = LocalDateTime.parse("2099-03-02T12:00");
+
+    private final List<Prenotazione> attive = new CopyOnWriteArrayList<>();
+    private final AtomicLong sequenza = new AtomicLong(100);
+    private final Utente utente = new Utente("utente-1", "Mario", "Rossi", "mario.rossi@unical.it", Ruolo.UTENTE);
+    private final Utente altro = new Utente("utente-2", "Anna", "Bianchi", "anna.bianchi@unical.it", Ruolo.UTENTE);
+    private final Veicolo veicolo = new Veicolo("Fiat", "Panda", "AA000AA", 5, "BENZINA");
+
+    private final PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+    private PrenotazioneService service;
+
+    @BeforeEach
+    void prepara() {
+        veicolo.setId(1L);
+        veicolo.setCostoOrario(10.0);
+
+        UtenteRepository utenteRepo = mock(UtenteRepository.class);
+        when(utenteRepo.findById(utente.getId())).thenReturn(Optional.of(utente));
+        when(utenteRepo.findById(altro.getId())).thenReturn(Optional.of(altro));
+        UtenteService utenteService = mock(UtenteService.class);
+        when(utenteService.hasCartaCreditoValida(anyString())).thenReturn(true);
+        VeicoloRepository veicoloRepo = mock(VeicoloRepository.class);
+        when(veicoloRepo.findAllById(List.of(1L))).thenReturn(List.of(veicolo));
+        RegistroOpzioni registroOpzioni = mock(RegistroOpzioni.class);
+        when(registroOpzioni.riservatoDaAltri(anyLong(), anyString(), any(), any())).thenReturn(Optional.empty());
+        when(transactionManager.getTransaction(any())).thenAnswer(inv -> new SimpleTransactionStatus());
+
+        PrenotazioneRepository prenotazioneRepo = mock(PrenotazioneRepository.class);
+        when(prenotazioneRepo.save(any(Prenotazione.class))).thenAnswer(inv -> salva(inv.getArgument(0)));
+        when(prenotazioneRepo.saveAndFlush(any(Prenotazione.class))).thenAnswer(inv -> salva(inv.getArgument(0)));
+        when(prenotazioneRepo.findByVeicoloAndStatoAndPeriodo(eq(veicolo), eq(StatoPrenotazione.ATTIVA), any(), any()))
+                .thenAnswer(inv -> attive.stream()
+                        .filter(p -> p.getDataInizio().isBefore(inv.getArgument(3)) && p.getDataFine().isAfter(inv.getArgument(2)))
+                        .toList());
+
+        service = new PrenotazioneService(utenteRepo, veicoloRepo, prenotazioneRepo, mock(ServizioGiornoService.class),
+                utenteService, mock(IndicePrenotazioni.class), new GestoreLockVeicoli(new SimpleMeterRegistry(), 64, 5000, true),
+                mock(StrategiaConcorrenza.class), registroOpzioni, mock(RegistroIdempotenza.class),
+                mock(FermoVeicoloRepository.class), transactionManager);
+    }
+
+    @Test
+    void primaRichiestaVinceLeAltreInConflitto() {
+        List<EsitoGruppo> esiti = service.scriviGruppo(
+                List.of(utente, altro, altro),
+                List.of(richiesta(INIZIO, FINE),
+                        richiesta(INIZIO.plusHours(1), FINE.plusHours(1)),
+                        richiesta(FINE, FINE.plusHours(2))));
+
+        assertEquals(utente, esiti.get(0).prenotazione().getUtente());
+        assertNull(esiti.get(1).prenotazione());
+        assertInstanceOf(BookingConflictException.class, esiti.get(1).errore());
+        assertNotNull(esiti.get(2).prenotazione());
+        assertEquals(2, attive.size());
+        verify(transactionManager, times(1)).commit(any());
+    }
+
+    @Test
+    void richiestaNonValidaNonBloccaIlGruppo() {
+        List<EsitoGruppo> esiti = service.scriviGruppo(
+                List.of(utente, altro),
+                List.of(richiesta(INIZIO, INIZIO.plusMinutes(30)), richiesta(INIZIO, FINE)));
+
+        assertInstanceOf(IllegalArgumentException.class, esiti.get(0).errore());
+        assertEquals(altro, esiti.get(1).prenotazione().getUtente());
+    }
+
+    @Test
+    void scrittoreUnicoConRichiesteConcorrenti() {
+        ScrittoreUnicoPrenotazioni scrittore = new ScrittoreUnicoPrenotazioni(service,
+                new SimpleMeterRegistry(), true, 1, 64, 100, 5000);
+        try {
+            List<CompletableFuture<Prenotazione>> richieste = new ArrayList<>();
+            for (Utente u : List.of(utente, altro, utente, altro)) {
+                richieste.add(CompletableFuture.supplyAsync(() -> scrittore.crea(u.getId(), 1L, INIZIO, FINE)));
+            }
+
+            int create = 0;
+            for (CompletableFuture<Prenotazione> richiesta : richieste) {
+                try {
+                    richiesta.join();
+                    create++;
+                } catch (CompletionException e) {
+                    assertInstanceOf(BookingConflictException.class, e.getCause());
+                }
+            }
+            assertEquals(1, create);
+            assertEquals(1, attive.size());
+        } finally {
+            scrittore.arresta();
+        }
+    }
+
+    private RichiestaPrenotazioneDTO richiesta(LocalDateTime inizio, LocalDateTime fine) {
+        return new RichiestaPrenotazioneDTO(veicolo.getId(), inizio, fine);
+    }
+
+    private Prenotazione salva(Prenotazione p) {
+        ReflectionTestUtils.setField(p, "id", sequenza.incrementAndGet());
+        attive.add(p);
+        return p;
+    }
+}
@@ -0,0 +1,132 @@
+package it.unicalrent.backend;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.unicalrent.dto.EsitoPrenotazioneDTO;
+import it.unicalrent.dto.EsitoPrenotazioneDTO.Esito;
+import it.unicalrent.dto.EsitoSerieDTO;
+import it.unicalrent.dto.RichiestaSerieDTO;
+import it.unicalrent.entity.Prenotazione;
+import it.unicalrent.entity.Ruolo;
+import it.unicalrent.entity.StatoPrenotazione;
+import it.unicalrent.entity.Utente;
+import it.unicalrent.entity.Veicolo;
+import it.unicalrent.repository.FermoVeicoloRepository;
+import it.unicalrent.repository.PrenotazioneRepository;
+import it.unicalrent.repository.UtenteRepository;
+import it.unicalrent.repository.VeicoloRepository;
+import it.unicalrent.service.GestoreLockVeicoli;
+import it.unicalrent.service.IndicePrenotazioni;
+import it.unicalrent.service.PrenotazioneService;
+import it.unicalrent.service.RegistroIdempotenza;
+import it.unicalrent.service.RegistroOpzioni;
+import it.unicalrent.service.ServizioGiornoService;
+import it.unicalrent.service.StrategiaConcorrenza;
+import it.unicalrent.service.UtenteService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Serie ricorrenti: le occorrenze libere condividono lo stesso serieId, e in modalità atomica
+ * un conflitto su una sola occorrenza impedisce la creazione di tutta la serie.
+ */
+class SeriePrenotazioniTest {
+
+    private final List<Prenotazione> attive = new ArrayList<>();
+    private final AtomicLong sequenza = new AtomicLong(100);
+    private final Utente utente = new Utente("utente-1", "Mario", "Rossi", "mario.rossi@unical.it", Ruolo.UTENTE);
+    private final Veicolo veicolo = new Veicolo("Fiat", "Panda", "AA000AA", 5, "BENZINA");
+
+    private PrenotazioneService service;
+
+    @BeforeEach
+    void prepara() {
+        veicolo.setId(1L);
+        veicolo.setCostoOrario(10.0);
+
+        UtenteRepository utenteRepo = mock(UtenteRepository.class);
+        when(utenteRepo.findById(utente.getId())).thenReturn(Optional.of(utente));
+        UtenteService utenteService = mock(UtenteService.class);
+        when(utenteService.hasCartaCreditoValida(utente.getId())).thenReturn(true);
+        VeicoloRepository veicoloRepo = mock(VeicoloRepository.class);
+        when(veicoloRepo.findAllById(List.of(1L))).thenReturn(List.of(veicolo));
+        RegistroOpzioni registroOpzioni = mock(RegistroOpzioni.class);
+        when(registroOpzioni.riservatoDaAltri(anyLong(), anyString(), any(), any())).thenReturn(Optional.empty());
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenAnswer(inv -> new SimpleTransactionStatus());
+
+        PrenotazioneRepository prenotazioneRepo = mock(PrenotazioneRepository.class);
+        when(prenotazioneRepo.save(any(Prenotazione.class))).thenAnswer(inv -> {
+            Prenotazione p = inv.getArgument(0);
+            ReflectionTestUtils.setField(p, "id", sequenza.incrementAndGet());
+            attive.add(p);
+            return p;
+        });
+        when(prenotazioneRepo.findByVeicoloAndStatoAndPeriodo(eq(veicolo), eq(StatoPrenotazione.ATTIVA), any(), any()))
+                .thenAnswer(inv -> attive.stream()
+                        .filter(p -> p.getDataInizio().isBefore(inv.getArgument(3)) && p.getDataFine().isAfter(inv.getArgument(2)))
+                        .toList());
+
+        service = new PrenotazioneService(utenteRepo, veicoloRepo, prenotazioneRepo, mock(ServizioGiornoService.class),
+                utenteService, mock(IndicePrenotazioni.class), new GestoreLockVeicoli(new SimpleMeterRegistry(), 64, 5000, true),
+                mock(StrategiaConcorrenza.class), registroOpzioni, mock(RegistroIdempotenza.class),
+                mock(FermoVeicoloRepository.class), transactionManager);
+
+        // la seconda occorrenza settimanale è già occupata
+        Prenotazione esistente = new Prenotazione(utente, veicolo, LocalDateTime.parse("2099-03-09T11:00"), LocalDateTime.parse("2099-03-09T13:00"));
+        ReflectionTestUtils.setField(esistente, "id", 1L);
+        esistente.setStato(StatoPrenotazione.ATTIVA);
+        attive.add(esistente);
+    }
+
+    @Test
+    void serieParzialeCreaLeOccorrenzeLibereConLoStessoSerieId() {
+        EsitoSerieDTO esito = service.creaSerie(utente.getId(), serie(), false);
+
+        assertEquals(List.of(Esito.CREATA, Esito.CONFLITTO, Esito.CREATA),
+                esito.getOccorrenze().stream().map(EsitoPrenotazioneDTO::getEsito).toList());
+        assertEquals(2, esito.getCreate());
+        assertEquals(1, esito.getConflitti());
+        assertNotNull(esito.getSerieId());
+        assertEquals(List.of(esito.getSerieId(), esito.getSerieId()),
+                attive.subList(1, attive.size()).stream().map(Prenotazione::getSerieId).toList());
+    }
+
+    @Test
+    void serieAtomicaConUnConflittoNonCreaNulla() {
+        EsitoSerieDTO esito = service.creaSerie(utente.getId(), serie(), true);
+
+        assertEquals(0, esito.getCreate());
+        assertEquals(1, esito.getConflitti());
+        assertNull(esito.getSerieId());
+        assertEquals(1, attive.size());
+    }
+
+    private RichiestaSerieDTO serie() {
+        RichiestaSerieDTO serie = new RichiestaSerieDTO();
+        serie.setVeicoloId(veicolo.getId());
+        serie.setInizio(LocalDateTime.parse("2099-03-02T10:00"));
+        serie.setFine(LocalDateTime.parse("2099-03-02T12:00"));
+        serie.setFrequenza(RichiestaSerieDTO.Frequenza.SETTIMANALE);
+        serie.setOccorrenze(3);
+        return serie;
+    }
+}
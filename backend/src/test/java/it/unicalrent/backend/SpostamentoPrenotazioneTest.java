@@ -0,0 +1,105 @@
+package it.unicalrent.backend;
+
+import it.unicalrent.entity.Prenotazione;
+import it.unicalrent.entity.StatoPrenotazione;
+import it.unicalrent.entity.Veicolo;
+import it.unicalrent.repository.FermoVeicoloRepository;
+import it.unicalrent.repository.PrenotazioneRepository;
+import it.unicalrent.repository.ServizioGiornoRepository;
+import it.unicalrent.service.ServizioGiornoService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Spostamento di una prenotazione: il controllo di sovrapposizione deve coprire l'intero nuovo intervallo
+ * anche quando i giorni e le maschere orarie non cambiano, e dei contatori vengono letti e scritti
+ * solo i giorni che cambiano.
+ */
+class SpostamentoPrenotazioneTest {
+
+    private final List<Prenotazione> attive = new ArrayList<>();
+    private final ServizioGiornoRepository servizioGiornoRepo = mock(ServizioGiornoRepository.class);
+    private ServizioGiornoService servizio;
+    private Veicolo veicolo;
+
+    @BeforeEach
+    void prepara() {
+        veicolo = new Veicolo("Fiat", "Panda", "AA000AA", 5, "BENZINA");
+        veicolo.setId(1L);
+
+        PrenotazioneRepository prenotazioneRepo = mock(PrenotazioneRepository.class);
+        when(prenotazioneRepo.existsByVeicoloAndStatoAndIdNotAndDataInizioLessThanAndDataFineGreaterThan(
+                eq(veicolo), eq(StatoPrenotazione.ATTIVA), anyLong(), any(), any()))
+                .thenAnswer(inv -> {
+                    Long id = inv.getArgument(2);
+                    LocalDateTime fine = inv.getArgument(3);
+                    LocalDateTime inizio = inv.getArgument(4);
+                    return attive.stream().anyMatch(p -> !p.getId().equals(id)
+                            && p.getDataInizio().isBefore(fine) && p.getDataFine().isAfter(inizio));
+                });
+        servizio = new ServizioGiornoService(servizioGiornoRepo, prenotazioneRepo,
+                mock(FermoVeicoloRepository.class), mock(JdbcTemplate.class));
+    }
+
+    @Test
+    void stessoGiornoStessaMascheraSovrapposta() {
+        attive.add(prenotazione(1L, "2099-03-02T09:00", "2099-03-02T10:20"));
+        Prenotazione spostata = prenotazione(2L, "2099-03-02T10:00", "2099-03-02T12:00");
+
+        assertTrue(servizio.sposta(spostata, LocalDateTime.parse("2099-03-02T10:30"), LocalDateTime.parse("2099-03-02T12:00")));
+    }
+
+    @Test
+    void tempoCopertoInGiornoNonToccato() {
+        attive.add(prenotazione(1L, "2099-03-02T10:00", "2099-03-02T10:25"));
+        Prenotazione spostata = prenotazione(2L, "2099-03-02T10:00", "2099-03-03T13:00");
+
+        assertTrue(servizio.sposta(spostata, LocalDateTime.parse("2099-03-02T10:30"), LocalDateTime.parse("2099-03-03T12:00")));
+    }
+
+    @Test
+    void spostamentoLibero() {
+        attive.add(prenotazione(1L, "2099-03-02T08:00", "2099-03-02T09:00"));
+        Prenotazione spostata = prenotazione(2L, "2099-03-02T10:00", "2099-03-02T12:00");
+
+        assertFalse(servizio.sposta(spostata, LocalDateTime.parse("2099-03-02T10:30"), LocalDateTime.parse("2099-03-02T12:00")));
+    }
+
+    @Test
+    void giorniInvariatiAggiornatiConUnSoloUpdate() {
+        Prenotazione spostata = prenotazione(2L, "2099-03-01T11:00", "2099-03-31T13:00");
+
+        assertFalse(servizio.sposta(spostata, LocalDateTime.parse("2099-03-01T10:00"), LocalDateTime.parse("2099-03-31T12:00")));
+
+        verify(servizioGiornoRepo).incrementaVersioneIntervallo(1L, LocalDate.parse("2099-03-02"), LocalDate.parse("2099-03-30"));
+        verify(servizioGiornoRepo).findConVersioneByVeicoloAndDataIn(veicolo,
+                new TreeSet<>(Set.of(LocalDate.parse("2099-03-01"), LocalDate.parse("2099-03-31"))));
+        verify(servizioGiornoRepo, times(2)).save(any());
+    }
+
+    private Prenotazione prenotazione(Long id, String inizio, String fine) {
+        Prenotazione p = new Prenotazione(null, veicolo, LocalDateTime.parse(inizio), LocalDateTime.parse(fine));
+        ReflectionTestUtils.setField(p, "id", id);
+        p.setStato(StatoPrenotazione.ATTIVA);
+        return p;
+    }
+}
@@ -0,0 +1,165 @@
+package it.unicalrent.backend;
+
+import it.unicalrent.entity.Prenotazione;
+import it.unicalrent.entity.Ruolo;
+import it.unicalrent.entity.Utente;
+import it.unicalrent.entity.Veicolo;
+import it.unicalrent.repository.PrenotazioneRepository;
+import it.unicalrent.repository.ServizioGiornoRepository;
+import it.unicalrent.repository.UtenteRepository;
+import it.unicalrent.repository.VeicoloRepository;
+import it.unicalrent.service.PrenotazioneService;
+import it.unicalrent.service.StrategiaConcorrenza;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmark delle strategie di concorrenza sulle prenotazioni: throughput e latenza p99
+ * al crescere del numero di richieste concorrenti sullo stesso veicolo.
+ * Richiede il database configurato e non viene eseguito dalla build normale:
+ *
+ * <pre>
+ * mvn test -Dtest=StrategieConcorrenzaBenchmark -Dbenchmark=true \
+ *     -Dunicalrent.prenotazioni.concorrenza=pessimistica
+ * </pre>
+ *
+ * Il lock in JVM è disattivato per simulare più istanze che competono sul database.
+ */
+@SpringBootTest(properties = "unicalrent.lock.abilitato=false")
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class StrategieConcorrenzaBenchmark {
+
+    private static final int[] LIVELLI_CONTESA = {1, 4, 16, 32};
+    private static final int PRENOTAZIONI_PER_LIVELLO = 96;
+
+    @Autowired
+    private PrenotazioneService prenotazioneService;
+
+    @Autowired
+    private StrategiaConcorrenza strategiaConcorrenza;
+
+    @Autowired
+    private VeicoloRepository veicoloRepo;
+
+    @Autowired
+    private UtenteRepository utenteRepo;
+
+    @Autowired
+    private PrenotazioneRepository prenotazioneRepo;
+
+    @Autowired
+    private ServizioGiornoRepository servizioGiornoRepo;
+
+    @Test
+    void confrontaStrategie() throws Exception {
+        Veicolo veicolo = veicoloRepo.save(nuovoVeicolo());
+        Utente utente = utenteRepo.save(nuovoUtente());
+        LocalDate base = LocalDate.of(2099, 1, 1);
+
+        System.out.printf("%nStrategia: %s%n", strategiaConcorrenza.nome());
+        System.out.printf("%-8s %10s %10s %12s %10s%n", "thread", "ok", "errori", "op/s", "p99 ms");
+        try {
+            for (int i = 0; i < LIVELLI_CONTESA.length; i++) {
+                LocalDate giorno = base.plusDays(i * 10L);
+                eseguiLivello(LIVELLI_CONTESA[i], veicolo.getId(), utente.getId(), giorno);
+            }
+        } finally {
+            List<Prenotazione> create = prenotazioneRepo.findByVeicoloId(veicolo.getId());
+            prenotazioneRepo.deleteAll(create);
+            servizioGiornoRepo.deleteAll(servizioGiornoRepo.findByVeicoloAndDataBetweenOrderByData(
+                    veicolo, base, base.plusYears(1)));
+            veicoloRepo.delete(veicolo);
+            utenteRepo.delete(utente);
+        }
+    }
+
+    private void eseguiLivello(int thread, Long veicoloId, String userId, LocalDate giorno) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(thread);
+        ConcurrentLinkedQueue<Long> latenze = new ConcurrentLinkedQueue<>();
+        AtomicInteger prossima = new AtomicInteger();
+        AtomicInteger ok = new AtomicInteger();
+        AtomicInteger errori = new AtomicInteger();
+        CountDownLatch partenza = new CountDownLatch(1);
+        CountDownLatch fine = new CountDownLatch(thread);
+
+        for (int t = 0; t < thread; t++) {
+            executor.submit(() -> {
+                SecurityContextHolder.getContext().setAuthentication(
+                        new TestingAuthenticationToken(userId, null, "ROLE_UTENTE"));
+                try {
+                    partenza.await();
+                    int k;
+                    while ((k = prossima.getAndIncrement()) < PRENOTAZIONI_PER_LIVELLO) {
+                        // slot di un'ora distinti: nessun conflitto reale, solo contesa sugli stessi contatori
+                        LocalDateTime inizio = giorno.plusDays(k / 24).atStartOfDay().plusHours(k % 24);
+                        long t0 = System.nanoTime();
+                        try {
+                            prenotazioneService.creaPrenotazione(userId, veicoloId, inizio, inizio.plusHours(1));
+                            ok.incrementAndGet();
+                        } catch (RuntimeException e) {
+                            errori.incrementAndGet();
+                        }
+                        latenze.add(System.nanoTime() - t0);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    SecurityContextHolder.clearContext();
+                    fine.countDown();
+                }
+            });
+        }
+
+        long inizioLivello = System.nanoTime();
+        partenza.countDown();
+        fine.await();
+        long durataNs = System.nanoTime() - inizioLivello;
+        executor.shutdown();
+
+        List<Long> ordinate = new ArrayList<>(latenze);
+        Collections.sort(ordinate);
+        long p99 = ordinate.isEmpty() ? 0 : ordinate.get((int) Math.ceil(ordinate.size() * 0.99) - 1);
+        double throughput = ok.get() / (durataNs / 1_000_000_000.0);
+
+        System.out.printf("%-8d %10d %10d %12.1f %10.1f%n", thread, ok.get(), errori.get(), throughput, p99 / 1_000_000.0);
+    }
+
+    private static Veicolo nuovoVeicolo() {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        String targa = "" + (char) ('A' + rnd.nextInt(26)) + (char) ('A' + rnd.nextInt(26))
+                + String.format("%03d", rnd.nextInt(1000))
+                + (char) ('A' + rnd.nextInt(26)) + (char) ('A' + rnd.nextInt(26));
+        Veicolo v = new Veicolo("Benchmark", "Concorrenza", targa, 5, "Benzina");
+        v.setTipo("Auto");
+        v.setAnno(2024);
+        v.setCostoOrario(10.0);
+        v.setDataAggiunta(LocalDate.now());
+        return v;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Utente nuovoUtente() {
+        Utente u = new Utente("benchmark-" + System.nanoTime(), "Bench", "Mark", "benchmark@unicalrent.local", Ruolo.UTENTE);
+        u.setNumeroCarta("4111111111111111");
+        u.setScadenzaCarta("12/99");
+        u.setCvvCarta("123");
+        u.setIntestatarioCarta("Bench Mark");
+        return u;
+    }
+}
@@ -0,0 +1,56 @@
+package it.unicalrent.backend;
+
+import it.unicalrent.controller.PrenotazioneController;
+import it.unicalrent.exception.BookingConflictException;
+import it.unicalrent.mapper.PrenotazioneMapper;
+import it.unicalrent.mapper.VeicoloMapper;
+import it.unicalrent.service.CodaPrenotazioniAsincrone;
+import it.unicalrent.service.ListaAttesaService;
+import it.unicalrent.service.PrenotazioneSchedulerService;
+import it.unicalrent.service.PrenotazioneService;
+import it.unicalrent.service.RegistroOpzioni;
+import it.unicalrent.service.RiconciliazioneContatoriService;
+import it.unicalrent.service.ScrittoreUnicoPrenotazioni;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.AccessDeniedException;
+
+import java.security.Principal;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Risposta di conflitto alla creazione di una prenotazione: se il calcolo dei suggerimenti fallisce
+ * il client riceve comunque il 409 con il corpo di conflitto.
+ */
+class SuggerimentiConflittoTest {
+
+    @Test
+    void suggerimentiNonDisponibiliMantengonoIl409() {
+        PrenotazioneService prenotazioneService = mock(PrenotazioneService.class);
+        when(prenotazioneService.creaPrenotazione(anyString(), anyLong(), any(), any(), isNull()))
+                .thenThrow(new BookingConflictException("Il veicolo non è disponibile"));
+        when(prenotazioneService.suggerisciVeicoli(anyLong(), any(), any()))
+                .thenThrow(new AccessDeniedException("Accesso negato"));
+        PrenotazioneController controller = new PrenotazioneController(prenotazioneService, mock(PrenotazioneMapper.class),
+                mock(PrenotazioneSchedulerService.class), mock(CodaPrenotazioniAsincrone.class),
+                mock(ScrittoreUnicoPrenotazioni.class), mock(RiconciliazioneContatoriService.class),
+                mock(RegistroOpzioni.class), mock(ListaAttesaService.class), mock(VeicoloMapper.class));
+        Principal principal = () -> "utente-1";
+
+        ResponseEntity<?> risposta = controller.creaPrenotazione(principal, "1", "2099-03-02T10:00", "2099-03-02T12:00", null);
+
+        assertEquals(409, risposta.getStatusCode().value());
+        Map<?, ?> corpo = (Map<?, ?>) risposta.getBody();
+        assertEquals("BOOKING_CONFLICT", corpo.get("tipo"));
+        assertFalse(corpo.containsKey("veicoliAlternativi"));
+    }
+}